@@ -0,0 +1,221 @@
+package thriftlabs.thriftfmt;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/*
+ * ArchiveFormatter formats the .thrift entries of .zip, .jar, .tar.gz and .tgz archives without extracting them.
+ *
+ * The entries are streamed out of the archive and formatted in memory on a pool of threads, entries with the same
+ * content are formatted once. The result of an entry has the path "ARCHIVE!/ENTRY". In write mode, when an entry
+ * is not formatted, a new archive is written next to the archive with the formatted entries and every other entry
+ * copied, and then moved over it. Zip entries keep their compression method.
+ */
+public class ArchiveFormatter {
+    private final FileFormatter formatter;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    public ArchiveFormatter(FileFormatter formatter) {
+        if (formatter == null) {
+            throw new IllegalArgumentException("FileFormatter cannot be null.");
+        }
+        this.formatter = formatter;
+    }
+
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive.");
+        }
+        this.threads = threads;
+    }
+
+    public static boolean isArchive(Path path) {
+        return isZip(path) || isTarGz(path);
+    }
+
+    private static boolean isZip(Path path) {
+        String name = fileName(path);
+        return name.endsWith(".zip") || name.endsWith(".jar");
+    }
+
+    private static boolean isTarGz(Path path) {
+        String name = fileName(path);
+        return name.endsWith(".tar.gz") || name.endsWith(".tgz");
+    }
+
+    private static String fileName(Path path) {
+        return path.getFileName() == null ? "" : path.getFileName().toString().toLowerCase();
+    }
+
+    // entryPath is the path of the result of an entry.
+    public static Path entryPath(Path archive, String entry) {
+        return Path.of(archive + "!/" + entry);
+    }
+
+    /*
+     * EntryVisitor is called for each .thrift entry of an archive, in order.
+     */
+    private interface EntryVisitor {
+        void visit(String name, byte[] data);
+    }
+
+    public List<FileResult> format(Path archive) {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<String> names = new ArrayList<>();
+            List<Future<FileFormatter.Formatted>> outcomes = new ArrayList<>();
+            Map<String, Future<FileFormatter.Formatted>> byHash = new HashMap<>();
+            read(archive, (name, data) -> {
+                names.add(name);
+                outcomes.add(byHash.computeIfAbsent(FileFormatter.hash(data),
+                        hash -> executor.submit(() -> formatter.formatBytes(data))));
+            });
+
+            List<FileResult> results = new ArrayList<>(names.size());
+            Map<String, byte[]> changed = new HashMap<>();
+            for (int i = 0; i < names.size(); i++) {
+                FileFormatter.Formatted outcome = outcomes.get(i).get();
+                Path path = entryPath(archive, names.get(i));
+                if (outcome.error != null) {
+                    results.add(new FileResult(path, FileResult.Status.ERROR, outcome.error));
+                } else if (outcome.bytes == null) {
+                    results.add(new FileResult(path, FileResult.Status.UNCHANGED, null));
+                } else {
+                    results.add(new FileResult(path, FileResult.Status.CHANGED, null));
+                    changed.put(names.get(i), outcome.bytes);
+                }
+            }
+            if (formatter.isWrite() && !changed.isEmpty()) {
+                rewrite(archive, changed);
+            }
+            return results;
+        } catch (IOException e) {
+            return List.of(new FileResult(archive, FileResult.Status.ERROR, e.toString()));
+        } catch (ExecutionException e) {
+            return List.of(new FileResult(archive, FileResult.Status.ERROR, e.getCause().toString()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return List.of(new FileResult(archive, FileResult.Status.ERROR, e.toString()));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void read(Path archive, EntryVisitor visitor) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(archive))) {
+            if (isZip(archive)) {
+                ZipInputStream zip = new ZipInputStream(in);
+                ZipEntry entry;
+                while ((entry = zip.getNextEntry()) != null) {
+                    if (!entry.isDirectory() && isThriftEntry(entry.getName())) {
+                        visitor.visit(entry.getName(), zip.readAllBytes());
+                    }
+                }
+            } else {
+                TarStream.Reader tar = new TarStream.Reader(new GZIPInputStream(in));
+                TarStream.Entry entry;
+                while ((entry = tar.next()) != null) {
+                    if (entry.file && isThriftEntry(entry.name)) {
+                        visitor.visit(entry.name, tar.readData(entry));
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isThriftEntry(String name) {
+        return name.endsWith(FileFormatter.EXTENSION);
+    }
+
+    // rewrite writes a new archive with the changed entries replaced, and moves it over archive.
+    private void rewrite(Path archive, Map<String, byte[]> changed) throws IOException {
+        Path target = archive.toAbsolutePath();
+        Path temp = Files.createTempFile(target.getParent(), fileName(target), ".tmp");
+        try {
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(archive));
+                    OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+                if (isZip(archive)) {
+                    copyZip(in, out, changed);
+                } else {
+                    copyTarGz(in, out, changed);
+                }
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void copyZip(InputStream in, OutputStream out, Map<String, byte[]> changed) throws IOException {
+        ZipInputStream zip = new ZipInputStream(in);
+        ZipOutputStream copy = new ZipOutputStream(out);
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            ZipEntry next = new ZipEntry(entry.getName());
+            next.setTime(entry.getTime());
+            next.setComment(entry.getComment());
+            next.setExtra(entry.getExtra());
+            next.setMethod(entry.getMethod());
+            byte[] data = entry.isDirectory() ? null : changed.get(entry.getName());
+            if (entry.getMethod() == ZipEntry.STORED) {
+                // a stored entry is written with its size and crc, the ones of a stored entry read are known.
+                long size = data != null ? data.length : entry.getSize();
+                next.setSize(size);
+                next.setCompressedSize(size);
+                next.setCrc(data != null ? crc(data) : entry.getCrc());
+            }
+            copy.putNextEntry(next);
+            if (data != null) {
+                copy.write(data);
+            } else {
+                zip.transferTo(copy);
+            }
+            copy.closeEntry();
+        }
+        copy.finish();
+    }
+
+    private static long crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    private static void copyTarGz(InputStream in, OutputStream out, Map<String, byte[]> changed) throws IOException {
+        TarStream.Reader tar = new TarStream.Reader(new GZIPInputStream(in));
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        TarStream.Writer copy = new TarStream.Writer(gzip);
+        TarStream.Entry entry;
+        while ((entry = tar.next()) != null) {
+            byte[] data = entry.file ? changed.get(entry.name) : null;
+            if (data != null) {
+                tar.readData(entry);
+                copy.write(entry, data);
+            } else {
+                copy.copy(entry, tar);
+            }
+        }
+        copy.finish();
+        gzip.finish();
+    }
+}
@@ -0,0 +1,106 @@
+package thriftlabs.thriftfmt;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+/*
+ * BatchFormatter runs a FileFormatter over a set of files and collects one FileResult per file, in order.
+ *
+ * Files are keyed by the hash of their content, so copies of the same file are parsed and formatted once.
+ * Archives are formatted by an ArchiveFormatter and give one result per .thrift entry.
+ */
+public class BatchFormatter {
+    private final FileFormatter formatter;
+    private final ArchiveFormatter archives;
+
+    public BatchFormatter(FileFormatter formatter) {
+        if (formatter == null) {
+            throw new IllegalArgumentException("FileFormatter cannot be null.");
+        }
+        this.formatter = formatter;
+        this.archives = new ArchiveFormatter(formatter);
+    }
+
+    public FileFormatter getFormatter() {
+        return formatter;
+    }
+
+    // collect expands directories to the .thrift files under them, the result is sorted and has no duplicates.
+    public static List<Path> collect(Collection<Path> paths) throws IOException {
+        TreeSet<Path> files = new TreeSet<>();
+        for (Path path : paths) {
+            Path normalized = path.toAbsolutePath().normalize();
+            if (Files.isDirectory(normalized)) {
+                try (Stream<Path> walk = Files.walk(normalized)) {
+                    walk.filter(Files::isRegularFile).filter(FileFormatter::isThriftFile).forEach(files::add);
+                }
+            } else {
+                files.add(normalized);
+            }
+        }
+        return new ArrayList<>(files);
+    }
+
+    // filter keeps the files which are one of roots or under one of them.
+    public static List<Path> filter(Collection<Path> files, Collection<Path> roots) {
+        List<Path> result = new ArrayList<>();
+        for (Path file : files) {
+            Path normalized = file.toAbsolutePath().normalize();
+            for (Path root : roots) {
+                if (normalized.startsWith(root.toAbsolutePath().normalize())) {
+                    result.add(normalized);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    // run formats each distinct content once and applies the outcome to every file with that content.
+    public List<FileResult> run(Collection<Path> files) {
+        List<FileResult> results = new ArrayList<>(files.size());
+        Map<String, FileFormatter.Formatted> formatted = new HashMap<>();
+        for (Path file : files) {
+            if (ArchiveFormatter.isArchive(file)) {
+                results.addAll(archives.format(file));
+                continue;
+            }
+            byte[] bytes;
+            try {
+                bytes = Files.readAllBytes(file);
+            } catch (IOException e) {
+                results.add(new FileResult(file, FileResult.Status.ERROR, e.toString()));
+                continue;
+            }
+            String hash = FileFormatter.hash(bytes);
+            FileFormatter.Formatted outcome = formatted.get(hash);
+            if (outcome == null) {
+                outcome = formatter.formatBytes(bytes);
+                formatted.put(hash, outcome);
+            }
+            results.add(formatter.apply(file, outcome));
+        }
+        return results;
+    }
+
+    // isSuccess is false when a file failed, or when a file is not formatted and the files were only checked.
+    public static boolean isSuccess(Collection<FileResult> results, boolean write) {
+        for (FileResult result : results) {
+            if (result.getStatus() == FileResult.Status.ERROR) {
+                return false;
+            }
+            if (result.getStatus() == FileResult.Status.CHANGED && !write) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
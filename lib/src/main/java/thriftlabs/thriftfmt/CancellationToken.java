@@ -0,0 +1,54 @@
+package thriftlabs.thriftfmt;
+
+import java.time.Duration;
+
+public class CancellationToken {
+    public static final CancellationToken NONE = new CancellationToken(Long.MAX_VALUE, false);
+
+    private final long deadlineNanos;
+    private final boolean hasDeadline;
+    private volatile boolean cancelled;
+
+    private CancellationToken(long deadlineNanos, boolean hasDeadline) {
+        this.deadlineNanos = deadlineNanos;
+        this.hasDeadline = hasDeadline;
+    }
+
+    public CancellationToken() {
+        this(Long.MAX_VALUE, false);
+    }
+
+    public static CancellationToken withTimeout(Duration timeout) {
+        return new CancellationToken(System.nanoTime() + timeout.toNanos(), true);
+    }
+
+    // deadlineNanos is compared against System.nanoTime().
+    public static CancellationToken withDeadline(long deadlineNanos) {
+        return new CancellationToken(deadlineNanos, true);
+    }
+
+    public void cancel() {
+        if (this == NONE) {
+            throw new IllegalStateException("CancellationToken.NONE cannot be cancelled.");
+        }
+        this.cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean isDeadlineExceeded() {
+        return hasDeadline && System.nanoTime() - deadlineNanos >= 0;
+    }
+
+    public void throwIfAborted() {
+        if (cancelled) {
+            throw new FormatAbortedException(FormatAbortedException.Reason.CANCELLED, "format cancelled");
+        }
+        if (isDeadlineExceeded()) {
+            throw new FormatAbortedException(FormatAbortedException.Reason.DEADLINE_EXCEEDED,
+                    "format deadline exceeded");
+        }
+    }
+}
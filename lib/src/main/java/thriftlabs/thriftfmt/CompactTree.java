@@ -0,0 +1,371 @@
+package thriftlabs.thriftfmt;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.antlr.v4.runtime.BufferedTokenStream;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CommonToken;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ListTokenSource;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenSource;
+import org.antlr.v4.runtime.misc.Interval;
+import org.antlr.v4.runtime.misc.Pair;
+import org.antlr.v4.runtime.tree.ErrorNode;
+import org.antlr.v4.runtime.tree.ErrorNodeImpl;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+import org.antlr.v4.runtime.tree.TerminalNodeImpl;
+
+import thriftlabs.thriftparser.Thrift;
+import thriftlabs.thriftparser.ThriftParser;
+
+/*
+ * CompactTree is a struct of arrays copy of a parsed document.
+ *
+ * Nodes are numbered in pre-order, the root is node 0. Each node has a kind (the parser rule index, TERMINAL or
+ * ERROR), a token range, its first child and its next sibling. Tokens keep their type, channel, line, column and
+ * range in the input, and their text is read from the input when needed. This keeps a parsed document in a few
+ * int arrays instead of an object graph, which is what a parse cache wants to hold on to.
+ *
+ * The formatters work on ANTLR trees and patch them in place, so inflate builds a fresh ANTLR tree and token
+ * stream from the arrays for each format. The same CompactTree can be formatted any number of times. The arrays
+ * save heap while a document is held, not work while it is formatted: inflate costs about as much as parsing the
+ * input again, in allocation and, on large documents, in time.
+ */
+public class CompactTree {
+    public static final int NONE = -1;
+    public static final int TERMINAL = -1;
+    public static final int ERROR = -2;
+
+    private final CharStream input;
+    private final List<String> errors;
+    private final boolean sll;
+
+    private final int tokenCount;
+    private final int[] tokenType;
+    private final int[] tokenChannel;
+    private final int[] tokenStart;
+    private final int[] tokenStop;
+    private final int[] tokenLine;
+    private final int[] tokenColumn;
+
+    private int nodeCount;
+    private int[] kind;
+    private int[] startToken;
+    private int[] stopToken;
+    private int[] firstChild;
+    private int[] nextSibling;
+
+    public static CompactTree of(DocumentParser.Result result) {
+        return new CompactTree(result.tokens, result.document, result.errors, result.sll);
+    }
+
+    public static CompactTree of(Thrift.ParserResult result) {
+        return new CompactTree(result.tokens, result.document, result.errors, false);
+    }
+
+    private CompactTree(BufferedTokenStream tokens, ThriftParser.DocumentContext document, List<String> errors,
+            boolean sll) {
+        List<Token> list = tokens.getTokens();
+        // the token source of a DocumentParser result is reused, but each token keeps its input.
+        this.input = list.get(list.size() - 1).getInputStream();
+        this.errors = List.copyOf(errors);
+        this.sll = sll;
+
+        tokenCount = list.size();
+        tokenType = new int[tokenCount];
+        tokenChannel = new int[tokenCount];
+        tokenStart = new int[tokenCount];
+        tokenStop = new int[tokenCount];
+        tokenLine = new int[tokenCount];
+        tokenColumn = new int[tokenCount];
+        for (int i = 0; i < tokenCount; i++) {
+            Token token = list.get(i);
+            tokenType[i] = token.getType();
+            tokenChannel[i] = token.getChannel();
+            tokenStart[i] = token.getStartIndex();
+            tokenStop[i] = token.getStopIndex();
+            tokenLine[i] = token.getLine();
+            tokenColumn[i] = token.getCharPositionInLine();
+        }
+
+        // a document has fewer nodes than twice its tokens, except for empty rules.
+        int capacity = Math.max(16, tokenCount * 2);
+        kind = new int[capacity];
+        startToken = new int[capacity];
+        stopToken = new int[capacity];
+        firstChild = new int[capacity];
+        nextSibling = new int[capacity];
+        build(document);
+
+        kind = Arrays.copyOf(kind, nodeCount);
+        startToken = Arrays.copyOf(startToken, nodeCount);
+        stopToken = Arrays.copyOf(stopToken, nodeCount);
+        firstChild = Arrays.copyOf(firstChild, nodeCount);
+        nextSibling = Arrays.copyOf(nextSibling, nodeCount);
+    }
+
+    // build numbers the nodes in pre-order with an explicit stack, so deep documents do not overflow.
+    private void build(ParseTree root) {
+        ArrayList<ParseTree> stack = new ArrayList<>();
+        int[] parents = new int[16];
+        int[] lastChild = new int[16];
+        stack.add(root);
+        parents[0] = NONE;
+
+        while (!stack.isEmpty()) {
+            int top = stack.size() - 1;
+            ParseTree tree = stack.remove(top);
+            int parent = parents[top];
+            int node = addNode(tree);
+            if (node == lastChild.length) {
+                lastChild = Arrays.copyOf(lastChild, node * 2);
+            }
+            lastChild[node] = NONE;
+            if (parent != NONE) {
+                if (lastChild[parent] == NONE) {
+                    firstChild[parent] = node;
+                } else {
+                    nextSibling[lastChild[parent]] = node;
+                }
+                lastChild[parent] = node;
+            }
+            // children are pushed in reverse, so they are popped and numbered in order.
+            for (int i = tree.getChildCount() - 1; i >= 0; i--) {
+                if (stack.size() == parents.length) {
+                    parents = Arrays.copyOf(parents, parents.length * 2);
+                }
+                parents[stack.size()] = node;
+                stack.add(tree.getChild(i));
+            }
+        }
+    }
+
+    private int addNode(ParseTree tree) {
+        if (nodeCount == kind.length) {
+            int capacity = nodeCount * 2;
+            kind = Arrays.copyOf(kind, capacity);
+            startToken = Arrays.copyOf(startToken, capacity);
+            stopToken = Arrays.copyOf(stopToken, capacity);
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            nextSibling = Arrays.copyOf(nextSibling, capacity);
+        }
+        int node = nodeCount++;
+        if (tree instanceof TerminalNode) {
+            int index = ((TerminalNode) tree).getSymbol().getTokenIndex();
+            kind[node] = tree instanceof ErrorNode ? ERROR : TERMINAL;
+            startToken[node] = index;
+            stopToken[node] = index;
+        } else {
+            ParserRuleContext ctx = (ParserRuleContext) tree;
+            kind[node] = ctx.getRuleIndex();
+            startToken[node] = ctx.start == null ? NONE : ctx.start.getTokenIndex();
+            stopToken[node] = ctx.stop == null ? NONE : ctx.stop.getTokenIndex();
+        }
+        firstChild[node] = NONE;
+        nextSibling[node] = NONE;
+        return node;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    public boolean isSuccess() {
+        return errors.isEmpty();
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getKind(int node) {
+        return kind[node];
+    }
+
+    public int getStartToken(int node) {
+        return startToken[node];
+    }
+
+    public int getStopToken(int node) {
+        return stopToken[node];
+    }
+
+    public int getFirstChild(int node) {
+        return firstChild[node];
+    }
+
+    public int getNextSibling(int node) {
+        return nextSibling[node];
+    }
+
+    public int getTokenCount() {
+        return tokenCount;
+    }
+
+    public int getTokenType(int token) {
+        return tokenType[token];
+    }
+
+    public int getTokenChannel(int token) {
+        return tokenChannel[token];
+    }
+
+    public int getTokenLine(int token) {
+        return tokenLine[token];
+    }
+
+    public String getTokenText(int token) {
+        if (tokenType[token] == Token.EOF) {
+            return "<EOF>";
+        }
+        return input.getText(Interval.of(tokenStart[token], tokenStop[token]));
+    }
+
+    // inflate builds a new ANTLR tree and token stream, ready to be handed to ThriftFormatter.
+    public DocumentParser.Result inflate() {
+        Pair<TokenSource, CharStream> source = new Pair<>(null, input);
+        List<Token> tokens = new ArrayList<>(tokenCount);
+        for (int i = 0; i < tokenCount; i++) {
+            tokens.add(newToken(source, i));
+        }
+        CommonTokenStream stream = new CommonTokenStream(new ListTokenSource(tokens));
+        stream.fill();
+
+        ParseTree[] trees = new ParseTree[nodeCount];
+        trees[0] = newContext(kind[0], null);
+        for (int node = 0; node < nodeCount; node++) {
+            if (kind[node] < 0) {
+                continue;
+            }
+            ParserRuleContext parent = (ParserRuleContext) trees[node];
+            for (int child = firstChild[node]; child != NONE; child = nextSibling[child]) {
+                if (kind[child] == TERMINAL) {
+                    TerminalNodeImpl terminal = new TerminalNodeImpl(tokens.get(startToken[child]));
+                    parent.addAnyChild(terminal);
+                    terminal.setParent(parent);
+                    trees[child] = terminal;
+                } else if (kind[child] == ERROR) {
+                    ErrorNodeImpl error = new ErrorNodeImpl(tokens.get(startToken[child]));
+                    parent.addAnyChild(error);
+                    error.setParent(parent);
+                    trees[child] = error;
+                } else {
+                    ParserRuleContext ctx = newContext(kind[child], parent);
+                    ctx.start = token(tokens, startToken[child]);
+                    ctx.stop = token(tokens, stopToken[child]);
+                    parent.addAnyChild(ctx);
+                    trees[child] = ctx;
+                }
+            }
+        }
+        ParserRuleContext root = (ParserRuleContext) trees[0];
+        root.start = token(tokens, startToken[0]);
+        root.stop = token(tokens, stopToken[0]);
+        return new DocumentParser.Result(stream, (ThriftParser.DocumentContext) root, errors, input.size(), sll);
+    }
+
+    private CommonToken newToken(Pair<TokenSource, CharStream> source, int i) {
+        CommonToken token = new CommonToken(source, tokenType[i], tokenChannel[i], tokenStart[i], tokenStop[i]);
+        if (tokenType[i] == Token.EOF) {
+            token.setText("<EOF>");
+        }
+        token.setLine(tokenLine[i]);
+        token.setCharPositionInLine(tokenColumn[i]);
+        token.setTokenIndex(i);
+        return token;
+    }
+
+    private static Token token(List<Token> tokens, int index) {
+        return index == NONE ? null : tokens.get(index);
+    }
+
+    private static ParserRuleContext newContext(int rule, ParserRuleContext parent) {
+        switch (rule) {
+            case ThriftParser.RULE_document:
+                return new ThriftParser.DocumentContext(parent, NONE);
+            case ThriftParser.RULE_header:
+                return new ThriftParser.HeaderContext(parent, NONE);
+            case ThriftParser.RULE_include_:
+                return new ThriftParser.Include_Context(parent, NONE);
+            case ThriftParser.RULE_namespace_:
+                return new ThriftParser.Namespace_Context(parent, NONE);
+            case ThriftParser.RULE_cpp_include:
+                return new ThriftParser.Cpp_includeContext(parent, NONE);
+            case ThriftParser.RULE_definition:
+                return new ThriftParser.DefinitionContext(parent, NONE);
+            case ThriftParser.RULE_const_rule:
+                return new ThriftParser.Const_ruleContext(parent, NONE);
+            case ThriftParser.RULE_typedef_:
+                return new ThriftParser.Typedef_Context(parent, NONE);
+            case ThriftParser.RULE_enum_rule:
+                return new ThriftParser.Enum_ruleContext(parent, NONE);
+            case ThriftParser.RULE_enum_field:
+                return new ThriftParser.Enum_fieldContext(parent, NONE);
+            case ThriftParser.RULE_senum:
+                return new ThriftParser.SenumContext(parent, NONE);
+            case ThriftParser.RULE_struct_:
+                return new ThriftParser.Struct_Context(parent, NONE);
+            case ThriftParser.RULE_union_:
+                return new ThriftParser.Union_Context(parent, NONE);
+            case ThriftParser.RULE_exception_:
+                return new ThriftParser.Exception_Context(parent, NONE);
+            case ThriftParser.RULE_service:
+                return new ThriftParser.ServiceContext(parent, NONE);
+            case ThriftParser.RULE_field:
+                return new ThriftParser.FieldContext(parent, NONE);
+            case ThriftParser.RULE_field_id:
+                return new ThriftParser.Field_idContext(parent, NONE);
+            case ThriftParser.RULE_field_req:
+                return new ThriftParser.Field_reqContext(parent, NONE);
+            case ThriftParser.RULE_function_:
+                return new ThriftParser.Function_Context(parent, NONE);
+            case ThriftParser.RULE_oneway:
+                return new ThriftParser.OnewayContext(parent, NONE);
+            case ThriftParser.RULE_function_type:
+                return new ThriftParser.Function_typeContext(parent, NONE);
+            case ThriftParser.RULE_throws_list:
+                return new ThriftParser.Throws_listContext(parent, NONE);
+            case ThriftParser.RULE_type_annotations:
+                return new ThriftParser.Type_annotationsContext(parent, NONE);
+            case ThriftParser.RULE_type_annotation:
+                return new ThriftParser.Type_annotationContext(parent, NONE);
+            case ThriftParser.RULE_annotation_value:
+                return new ThriftParser.Annotation_valueContext(parent, NONE);
+            case ThriftParser.RULE_field_type:
+                return new ThriftParser.Field_typeContext(parent, NONE);
+            case ThriftParser.RULE_base_type:
+                return new ThriftParser.Base_typeContext(parent, NONE);
+            case ThriftParser.RULE_container_type:
+                return new ThriftParser.Container_typeContext(parent, NONE);
+            case ThriftParser.RULE_map_type:
+                return new ThriftParser.Map_typeContext(parent, NONE);
+            case ThriftParser.RULE_set_type:
+                return new ThriftParser.Set_typeContext(parent, NONE);
+            case ThriftParser.RULE_list_type:
+                return new ThriftParser.List_typeContext(parent, NONE);
+            case ThriftParser.RULE_cpp_type:
+                return new ThriftParser.Cpp_typeContext(parent, NONE);
+            case ThriftParser.RULE_const_value:
+                return new ThriftParser.Const_valueContext(parent, NONE);
+            case ThriftParser.RULE_integer:
+                return new ThriftParser.IntegerContext(parent, NONE);
+            case ThriftParser.RULE_const_list:
+                return new ThriftParser.Const_listContext(parent, NONE);
+            case ThriftParser.RULE_const_map_entry:
+                return new ThriftParser.Const_map_entryContext(parent, NONE);
+            case ThriftParser.RULE_const_map:
+                return new ThriftParser.Const_mapContext(parent, NONE);
+            case ThriftParser.RULE_list_separator:
+                return new ThriftParser.List_separatorContext(parent, NONE);
+            case ThriftParser.RULE_real_base_type:
+                return new ThriftParser.Real_base_typeContext(parent, NONE);
+            default:
+                throw new IllegalStateException("unknown rule " + rule);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package thriftlabs.thriftfmt;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.antlr.v4.runtime.atn.ATN;
+import org.antlr.v4.runtime.atn.PredictionContextCache;
+import org.antlr.v4.runtime.dfa.DFA;
+
+import thriftlabs.thriftparser.ThriftLexer;
+import thriftlabs.thriftparser.ThriftParser;
+
+/*
+ * DfaCache owns the ANTLR DFA and prediction context caches used by DocumentParser.
+ *
+ * The generated lexer and parser share static caches which only grow. A DfaCache keeps its own tables instead,
+ * so a long running process can warm them up at startup, watch their size and drop them when they grow past
+ * maxStates. The tables are replaced as a whole, parses already running keep the old tables and the next
+ * parse on each thread picks up the new ones.
+ */
+public class DfaCache {
+    private static final String WARMUP_DIR = "warmup/";
+    private static final String[] WARMUP_FILES = {
+            "AnnotationTest.thrift",
+            "ThriftTest.thrift",
+            "namespace.thrift",
+            "shared.thrift",
+            "simple.thrift",
+            "tutorial.thrift",
+    };
+
+    static class Tables {
+        final DFA[] lexerDfa = newDfa(ThriftLexer._ATN);
+        final PredictionContextCache lexerContextCache = new PredictionContextCache();
+        final DFA[] parserDfa = newDfa(ThriftParser._ATN);
+        final PredictionContextCache parserContextCache = new PredictionContextCache();
+
+        private static DFA[] newDfa(ATN atn) {
+            DFA[] dfa = new DFA[atn.getNumberOfDecisions()];
+            for (int i = 0; i < dfa.length; i++) {
+                dfa[i] = new DFA(atn.getDecisionState(i), i);
+            }
+            return dfa;
+        }
+
+        int getStateCount() {
+            return countStates(lexerDfa) + countStates(parserDfa);
+        }
+
+        int getContextCacheSize() {
+            return cacheSize(lexerContextCache) + cacheSize(parserContextCache);
+        }
+
+        private static int countStates(DFA[] dfa) {
+            int count = 0;
+            for (DFA d : dfa) {
+                synchronized (d.states) {
+                    count += d.states.size();
+                }
+            }
+            return count;
+        }
+
+        private static int cacheSize(PredictionContextCache cache) {
+            synchronized (cache) {
+                return cache.size();
+            }
+        }
+    }
+
+    private volatile Tables tables = new Tables();
+    private int maxStates;
+    private boolean rebuildOnClear = true;
+    private long clearCount;
+
+    public DfaCache() {
+    }
+
+    public DfaCache(int maxStates) {
+        setMaxStates(maxStates);
+    }
+
+    Tables getTables() {
+        return tables;
+    }
+
+    public int getMaxStates() {
+        return maxStates;
+    }
+
+    // maxStates is the number of DFA and prediction context entries allowed before the cache is dropped,
+    // 0 means unlimited.
+    public void setMaxStates(int maxStates) {
+        this.maxStates = Math.max(0, maxStates);
+    }
+
+    public boolean isRebuildOnClear() {
+        return rebuildOnClear;
+    }
+
+    // rebuildOnClear makes trim warm up the new tables with the built-in corpus after dropping the old ones.
+    public void setRebuildOnClear(boolean rebuildOnClear) {
+        this.rebuildOnClear = rebuildOnClear;
+    }
+
+    public int getStateCount() {
+        return tables.getStateCount();
+    }
+
+    public int getContextCacheSize() {
+        return tables.getContextCacheSize();
+    }
+
+    public int size() {
+        Tables current = tables;
+        return current.getStateCount() + current.getContextCacheSize();
+    }
+
+    public synchronized long getClearCount() {
+        return clearCount;
+    }
+
+    public synchronized void clear() {
+        tables = new Tables();
+        clearCount++;
+    }
+
+    public void warmUp() {
+        warmUp(builtinCorpus());
+    }
+
+    public void warmUp(Iterable<String> corpus) {
+        if (corpus == null) {
+            throw new IllegalArgumentException("corpus is null");
+        }
+        for (String content : corpus) {
+            DocumentParser.parse(content, FormatLimits.UNLIMITED, this, false);
+        }
+    }
+
+    // trim drops the tables when they hold more than maxStates entries, and rebuilds them when configured.
+    // It returns true when the tables were dropped.
+    public boolean trim() {
+        if (maxStates <= 0 || size() <= maxStates) {
+            return false;
+        }
+        synchronized (this) {
+            // another thread may have trimmed while this one was waiting.
+            if (size() <= maxStates) {
+                return false;
+            }
+            clear();
+            if (rebuildOnClear) {
+                warmUp();
+            }
+            return true;
+        }
+    }
+
+    public static List<String> builtinCorpus() {
+        List<String> corpus = new ArrayList<>(WARMUP_FILES.length);
+        for (String name : WARMUP_FILES) {
+            try (InputStream in = DfaCache.class.getResourceAsStream(WARMUP_DIR + name)) {
+                if (in == null) {
+                    throw new IllegalStateException("missing warm up resource " + name);
+                }
+                corpus.add(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return corpus;
+    }
+}
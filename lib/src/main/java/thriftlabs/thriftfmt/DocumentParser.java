@@ -0,0 +1,194 @@
+package thriftlabs.thriftfmt;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.atn.LexerATNSimulator;
+import org.antlr.v4.runtime.atn.ParserATNSimulator;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+
+import thriftlabs.thriftparser.ThriftLexer;
+import thriftlabs.thriftparser.ThriftParser;
+
+/*
+ * DocumentParser is the parsing front end of the formatter.
+ *
+ * It parses with SLL prediction and a bailing error strategy first, which is enough for nearly every valid
+ * document, and only falls back to full LL prediction (with error recovery) when SLL fails. Each thread
+ * reuses its own lexer and parser instances, bound to the tables of a DfaCache or to the shared static tables
+ * of the generated code.
+ */
+public class DocumentParser {
+    private static final ThreadLocal<DocumentParser> LOCAL = ThreadLocal.withInitial(DocumentParser::new);
+
+    private final CharStream emptyStream = CharStreams.fromString("");
+    private final ThriftLexer lexer;
+    private final ThriftParser parser;
+    private final BailErrorStrategy bailStrategy = new BailErrorStrategy();
+    private final DefaultErrorStrategy defaultStrategy = new DefaultErrorStrategy();
+    private final ErrorCollector errors = new ErrorCollector();
+    private final LexerATNSimulator sharedLexerInterpreter;
+    private final ParserATNSimulator sharedParserInterpreter;
+    private DfaCache.Tables boundTables;
+
+    public static class Result {
+        public final CommonTokenStream tokens;
+        public final ThriftParser.DocumentContext document;
+        public final List<String> errors;
+        // inputSize is the size of the input char stream, in code points.
+        public final int inputSize;
+        // sll is true when the fast SLL pass succeeded without falling back to LL.
+        public final boolean sll;
+
+        Result(CommonTokenStream tokens, ThriftParser.DocumentContext document, List<String> errors,
+                int inputSize, boolean sll) {
+            this.tokens = tokens;
+            this.document = document;
+            this.errors = errors;
+            this.inputSize = inputSize;
+            this.sll = sll;
+        }
+
+        public boolean isSuccess() {
+            return errors.isEmpty();
+        }
+    }
+
+    private static class ErrorCollector extends BaseErrorListener {
+        private List<String> errors = new ArrayList<>();
+
+        @Override
+        public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line,
+                int charPositionInLine, String msg, RecognitionException e) {
+            errors.add(line + ":" + charPositionInLine + " " + msg);
+        }
+
+        List<String> take() {
+            List<String> result = errors;
+            errors = new ArrayList<>();
+            return result;
+        }
+    }
+
+    DocumentParser() {
+        lexer = new ThriftLexer(emptyStream);
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(errors);
+        parser = new ThriftParser(new CommonTokenStream(lexer));
+        parser.removeErrorListeners();
+        sharedLexerInterpreter = lexer.getInterpreter();
+        sharedParserInterpreter = parser.getInterpreter();
+    }
+
+    public static Result parse(String content) {
+        return parse(content, FormatLimits.UNLIMITED);
+    }
+
+    public static Result parse(String content, FormatLimits limits) {
+        return parse(content, limits, null, false);
+    }
+
+    public static Result parse(String content, FormatLimits limits, DfaCache cache) {
+        if (cache == null) {
+            throw new IllegalArgumentException("cache is null");
+        }
+        return parse(content, limits, cache, true);
+    }
+
+    static Result parse(String content, FormatLimits limits, DfaCache cache, boolean trim) {
+        limits.checkInputSize(content.codePointCount(0, content.length()));
+        DocumentParser local = LOCAL.get();
+        local.bind(cache == null ? null : cache.getTables());
+        Result result = local.parse(CharStreams.fromString(content), limits);
+        if (trim) {
+            cache.trim();
+        }
+        return result;
+    }
+
+    // checkNestingDepth checks the depth of the brackets, each of them is at least one level of the tree the
+    // formatter checks the limit on, so a document rejected here would also be rejected by the formatter.
+    private static void checkNestingDepth(CommonTokenStream tokens, FormatLimits limits) {
+        int depth = 0;
+        for (int i = 0; i < tokens.size(); i++) {
+            switch (tokens.get(i).getType()) {
+                case ThriftLexer.T__11: // '{'
+                case ThriftLexer.T__22: // '('
+                case ThriftLexer.T__29: // '<'
+                case ThriftLexer.T__34: // '['
+                    limits.checkNestingDepth(++depth);
+                    break;
+                case ThriftLexer.T__12: // '}'
+                case ThriftLexer.T__23: // ')'
+                case ThriftLexer.T__30: // '>'
+                case ThriftLexer.T__35: // ']'
+                    depth = Math.max(depth - 1, 0);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private void bind(DfaCache.Tables tables) {
+        if (tables == boundTables) {
+            return;
+        }
+        if (tables == null) {
+            lexer.setInterpreter(sharedLexerInterpreter);
+            parser.setInterpreter(sharedParserInterpreter);
+        } else {
+            lexer.setInterpreter(new LexerATNSimulator(lexer, ThriftLexer._ATN, tables.lexerDfa,
+                    tables.lexerContextCache));
+            parser.setInterpreter(new ParserATNSimulator(parser, ThriftParser._ATN, tables.parserDfa,
+                    tables.parserContextCache));
+        }
+        boundTables = tables;
+    }
+
+    // parse lexes the whole input and checks it against limits before parsing it, since the parser recurses once
+    // per nesting level and a deep enough document overflows the stack before the formatter sees the tree.
+    Result parse(CharStream input, FormatLimits limits) {
+        lexer.setInputStream(input);
+        CommonTokenStream tokens = new CommonTokenStream(lexer);
+        try {
+            tokens.fill();
+            limits.checkTokenCount(tokens.size());
+            if (limits.getMaxNestingDepth() > 0) {
+                checkNestingDepth(tokens, limits);
+            }
+            ThriftParser.DocumentContext document;
+            boolean sll = true;
+            try {
+                parser.setTokenStream(tokens);
+                parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+                parser.setErrorHandler(bailStrategy);
+                parser.removeErrorListeners();
+                document = parser.document();
+            } catch (ParseCancellationException e) {
+                sll = false;
+                tokens.seek(0);
+                parser.setTokenStream(tokens);
+                parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+                parser.setErrorHandler(defaultStrategy);
+                parser.addErrorListener(errors);
+                document = parser.document();
+            }
+            return new Result(tokens, document, errors.take(), input.size(), sll);
+        } finally {
+            // Drop the references to this input, so the thread local instances do not retain it.
+            parser.setTokenStream(new CommonTokenStream(lexer));
+            lexer.setInputStream(emptyStream);
+            errors.take();
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package thriftlabs.thriftfmt;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/*
+ * FileFormatter formats .thrift files on disk, in check mode (report only) or write mode (rewrite in place).
+ *
+ * It keeps a warmed DfaCache, so it is meant to be created once and reused for many files. A formatted file
+ * ends with a newline. It is safe to use from several threads.
+ */
+public class FileFormatter {
+    public static final String EXTENSION = ".thrift";
+
+    private final Option option;
+    private final DfaCache cache;
+    private FormatLimits limits = FormatLimits.UNLIMITED;
+    private boolean write;
+    private boolean safe;
+    private boolean fast;
+
+    public FileFormatter(Option option) {
+        this(option, new DfaCache());
+        this.cache.warmUp();
+    }
+
+    public FileFormatter(Option option, DfaCache cache) {
+        if (option == null) {
+            throw new IllegalArgumentException("Option cannot be null.");
+        }
+        if (cache == null) {
+            throw new IllegalArgumentException("DfaCache cannot be null.");
+        }
+        this.option = option;
+        this.cache = cache;
+    }
+
+    public Option getOption() {
+        return option;
+    }
+
+    public void setLimits(FormatLimits limits) {
+        if (limits == null) {
+            throw new IllegalArgumentException("FormatLimits cannot be null.");
+        }
+        this.limits = limits;
+    }
+
+    public boolean isWrite() {
+        return write;
+    }
+
+    // setWrite makes format rewrite files which are not formatted, instead of only reporting them.
+    public void setWrite(boolean write) {
+        this.write = write;
+    }
+
+    public boolean isSafe() {
+        return safe;
+    }
+
+    // setSafe makes formatContent check the tokens of the output against the input with a TokenVerifier, a file
+    // whose output differs is an error and is not rewritten.
+    public void setSafe(boolean safe) {
+        this.safe = safe;
+    }
+
+    public boolean isFast() {
+        return fast;
+    }
+
+    // setFast makes formatContent format from the tokens with a TokenStreamFormatter when it supports the Option,
+    // the output is the same.
+    public void setFast(boolean fast) {
+        this.fast = fast;
+    }
+
+    public static boolean isThriftFile(Path path) {
+        return path.getFileName() != null && path.getFileName().toString().endsWith(EXTENSION);
+    }
+
+    // formatContent returns the formatted content, or throws IllegalArgumentException when it does not parse, and
+    // FormatVerificationException in safe mode.
+    public String formatContent(String content) {
+        String formatted = fast ? formatTokens(content) : null;
+        if (formatted == null) {
+            formatted = formatTree(content);
+        }
+        formatted += "\n";
+        if (safe) {
+            TokenVerifier.verify(content, formatted, option);
+        }
+        return formatted;
+    }
+
+    private String formatTree(String content) {
+        DocumentParser.Result result = DocumentParser.parse(content, limits, cache);
+        if (!result.isSuccess()) {
+            throw new IllegalArgumentException(String.join("; ", result.errors));
+        }
+        ThriftFormatter formatter = new ThriftFormatter(result, option);
+        formatter.setLimits(limits);
+        return formatter.format();
+    }
+
+    // formatTokens returns null when the content is left to the tree.
+    private String formatTokens(String content) {
+        TokenStreamFormatter formatter = new TokenStreamFormatter(option);
+        formatter.setLimits(limits);
+        return formatter.format(content);
+    }
+
+    public FileResult format(Path path) {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(path);
+        } catch (IOException e) {
+            return new FileResult(path, FileResult.Status.ERROR, e.toString());
+        }
+        return format(path, bytes);
+    }
+
+    // format formats bytes, the content of path which has already been read.
+    public FileResult format(Path path, byte[] bytes) {
+        return apply(path, formatBytes(bytes));
+    }
+
+    // formatBytes formats a content once, the outcome can be applied to every file with that content.
+    Formatted formatBytes(byte[] bytes) {
+        String content;
+        try {
+            content = decode(bytes);
+        } catch (CharacterCodingException e) {
+            // a content which is not UTF-8 would be rewritten with replacement characters.
+            return new Formatted("not UTF-8: " + e, null);
+        }
+        String formatted;
+        try {
+            formatted = formatContent(content);
+        } catch (IllegalArgumentException | FormatAbortedException | FormatVerificationException e) {
+            return new Formatted(e.getMessage(), null);
+        }
+        if (formatted.equals(content)) {
+            return Formatted.UNCHANGED;
+        }
+        // the formatted bytes are only kept when they are going to be written.
+        return new Formatted(null, write ? formatted.getBytes(StandardCharsets.UTF_8) : Formatted.NOT_KEPT);
+    }
+
+    FileResult apply(Path path, Formatted formatted) {
+        if (formatted.error != null) {
+            return new FileResult(path, FileResult.Status.ERROR, formatted.error);
+        }
+        if (formatted.bytes == null) {
+            return new FileResult(path, FileResult.Status.UNCHANGED, null);
+        }
+        if (write) {
+            try {
+                replace(path, formatted.bytes);
+            } catch (IOException e) {
+                return new FileResult(path, FileResult.Status.ERROR, e.toString());
+            }
+        }
+        return new FileResult(path, FileResult.Status.CHANGED, null);
+    }
+
+    private static String decode(byte[] bytes) throws CharacterCodingException {
+        return StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT)
+                .decode(ByteBuffer.wrap(bytes))
+                .toString();
+    }
+
+    // replace writes bytes to a new file next to path and moves it over path, so a reader or an editor saving the
+    // file never sees it half written. The file keeps its permissions, and a link is followed.
+    private static void replace(Path path, byte[] bytes) throws IOException {
+        Path target = path.toRealPath();
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, bytes);
+            try {
+                Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(target));
+            } catch (UnsupportedOperationException e) {
+                // not a POSIX file system, the temp file has the default permissions.
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /*
+     * Formatted is the outcome of formatting one content: an error, unchanged (no bytes), or the formatted bytes.
+     */
+    static final class Formatted {
+        static final Formatted UNCHANGED = new Formatted(null, null);
+        static final byte[] NOT_KEPT = new byte[0];
+
+        final String error;
+        final byte[] bytes;
+
+        Formatted(String error, byte[] bytes) {
+            this.error = error;
+            this.bytes = bytes;
+        }
+    }
+
+    // hash is the SHA-256 of bytes in hex, used to tell whether contents are the same.
+    public static String hash(byte[] bytes) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] sum = digest.digest(bytes);
+        StringBuilder hex = new StringBuilder(sum.length * 2);
+        for (byte b : sum) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
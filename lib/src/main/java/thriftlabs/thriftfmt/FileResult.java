@@ -0,0 +1,44 @@
+package thriftlabs.thriftfmt;
+
+import java.nio.file.Path;
+
+/*
+ * FileResult is the outcome of formatting one file.
+ */
+public class FileResult {
+    public enum Status {
+        // the file is already formatted.
+        UNCHANGED,
+        // the file is not formatted, it was rewritten in write mode.
+        CHANGED,
+        // the file could not be read, parsed or written.
+        ERROR,
+    }
+
+    private final Path path;
+    private final Status status;
+    private final String message;
+
+    public FileResult(Path path, Status status, String message) {
+        this.path = path;
+        this.status = status;
+        this.message = message;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return message == null ? status + " " + path : status + " " + path + ": " + message;
+    }
+}
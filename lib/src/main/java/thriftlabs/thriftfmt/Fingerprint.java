@@ -0,0 +1,145 @@
+package thriftlabs.thriftfmt;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.misc.Interval;
+
+import thriftlabs.thriftparser.Thrift;
+import thriftlabs.thriftparser.ThriftLexer;
+
+/*
+ * Fingerprint is a hash of the significant tokens of a document, which formatting it does not change.
+ *
+ * It is computed from the lexer output only, without parsing. Whitespace is ignored, and so are separators, which
+ * the separator patches insert, replace and remove. With the required patch, "required" is ignored outside
+ * parentheses, so a field without a requiredness has the fingerprint of the one the patch makes of it. With
+ * keepComment the trimmed comments are hashed too, apart from the tokens, so moving a comment does not change the
+ * fingerprint, and without it comments are ignored.
+ */
+public class Fingerprint {
+    // the literal tokens 'required', '(', ')' and ';'.
+    private static final int REQUIRED = ThriftLexer.T__20;
+    private static final int LEFT_PARENTHESIS = ThriftLexer.T__22;
+    private static final int RIGHT_PARENTHESIS = ThriftLexer.T__23;
+    private static final int SEMICOLON = ThriftLexer.T__36;
+
+    private final MessageDigest tokens = newDigest();
+    private final MessageDigest comments = newDigest();
+    private final byte[] buffer = new byte[256];
+    private int length;
+
+    private Fingerprint() {
+    }
+
+    public static String of(String content) {
+        return of(content, new Option());
+    }
+
+    public static String of(String content, Option option) {
+        if (content == null) {
+            throw new IllegalArgumentException("content cannot be null.");
+        }
+        if (option == null) {
+            throw new IllegalArgumentException("Option cannot be null.");
+        }
+        return new Fingerprint().compute(content, option);
+    }
+
+    private String compute(String content, Option option) {
+        CharStream stream = CharStreams.fromString(content);
+        ThriftLexer lexer = new ThriftLexer(stream);
+        lexer.removeErrorListeners();
+        // token offsets index content only without supplementary chars.
+        String text = content.length() == stream.size() ? content : null;
+        int depth = 0;
+        for (Token token = lexer.nextToken(); token.getType() != Token.EOF; token = lexer.nextToken()) {
+            int type = token.getType();
+            if (token.getChannel() == Thrift.CommentChannel) {
+                if (option.isKeepComment()) {
+                    add(comments, type, token, stream, text, true);
+                }
+                continue;
+            }
+            if (token.getChannel() != Token.DEFAULT_CHANNEL || type == ThriftLexer.COMMA || type == SEMICOLON) {
+                continue;
+            }
+            if (type == LEFT_PARENTHESIS) {
+                depth++;
+            } else if (type == RIGHT_PARENTHESIS) {
+                depth--;
+            } else if (type == REQUIRED && depth <= 0 && option.isPatchRequired()) {
+                continue;
+            }
+            add(tokens, type, token, stream, text, false);
+        }
+
+        byte[] commentSum = comments.digest();
+        tokens.update((byte) 0);
+        tokens.update(commentSum);
+        byte[] sum = tokens.digest();
+        StringBuilder hex = new StringBuilder(sum.length * 2);
+        for (byte b : sum) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    // add hashes the type and the text of token, the text is trimmed for comments.
+    private void add(MessageDigest digest, int type, Token token, CharStream stream, String text, boolean trim) {
+        int start = token.getStartIndex();
+        int end = token.getStopIndex() + 1;
+        CharSequence chars = text;
+        if (chars == null) {
+            chars = stream.getText(Interval.of(start, end - 1));
+            end -= start;
+            start = 0;
+        }
+        if (trim) {
+            while (start < end && chars.charAt(start) <= ' ') {
+                start++;
+            }
+            while (end > start && chars.charAt(end - 1) <= ' ') {
+                end--;
+            }
+        }
+        // the type and the length keep the tokens apart, like a separator would.
+        putInt(digest, type);
+        putInt(digest, end - start);
+        for (int i = start; i < end; i++) {
+            char c = chars.charAt(i);
+            if (length + 2 > buffer.length) {
+                flush(digest);
+            }
+            buffer[length++] = (byte) (c >> 8);
+            buffer[length++] = (byte) c;
+        }
+        flush(digest);
+    }
+
+    private void putInt(MessageDigest digest, int value) {
+        if (length + 4 > buffer.length) {
+            flush(digest);
+        }
+        buffer[length++] = (byte) (value >> 24);
+        buffer[length++] = (byte) (value >> 16);
+        buffer[length++] = (byte) (value >> 8);
+        buffer[length++] = (byte) value;
+    }
+
+    private void flush(MessageDigest digest) {
+        digest.update(buffer, 0, length);
+        length = 0;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package thriftlabs.thriftfmt;
+
+public class FormatAbortedException extends RuntimeException {
+    public enum Reason {
+        CANCELLED,
+        DEADLINE_EXCEEDED,
+        INPUT_SIZE,
+        TOKEN_COUNT,
+        NESTING_DEPTH,
+    }
+
+    private final Reason reason;
+
+    public FormatAbortedException(Reason reason, String message) {
+        super(message);
+        this.reason = reason;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+}
@@ -0,0 +1,264 @@
+package thriftlabs.thriftfmt;
+
+import java.util.ArrayDeque;
+import java.util.List;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.misc.Interval;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+import thriftlabs.thriftparser.ThriftParser;
+
+/*
+ * FormatAnalysis counts what formatting a document would change, without formatting it.
+ *
+ * It runs the detection of the required and separator patches the Option enables read-only, in one walk over the
+ * parse tree, and checks the input columns of the fields against the columns the alignment mode of the Option puts
+ * them at, from the same paddings and widths as the formatter. The widths are counted without making a String of
+ * the output or of the input tokens, and the tree is not patched, so analyzing a document costs a fraction of
+ * formatting it.
+ *
+ * Since the tree is not patched, the columns are the ones of the unpatched fields. The formatter aligns the patched
+ * ones, so a field given a requiredness or a separator by a patch can move the columns of its block, which is not
+ * counted as misaligned.
+ */
+public class FormatAnalysis {
+    // fields without a requiredness, which the required patch marks as required.
+    private int missingRequired;
+    // separators which are not Option.DEFAULT_SEPARATOR, which the separator patch replaces.
+    private int nonDefaultSeparators;
+    // fields, enum fields and functions without a separator, which the separator patch adds one to.
+    private int missingSeparators;
+    // separators of inline fields and annotations, which the separator patch removes.
+    private int removedSeparators;
+    // fields and enum fields with a child not at the column the alignment mode puts it at.
+    private int misalignedFields;
+
+    private FormatAnalysis() {
+    }
+
+    public int getMissingRequired() {
+        return missingRequired;
+    }
+
+    public int getNonDefaultSeparators() {
+        return nonDefaultSeparators;
+    }
+
+    public int getMissingSeparators() {
+        return missingSeparators;
+    }
+
+    public int getRemovedSeparators() {
+        return removedSeparators;
+    }
+
+    public int getMisalignedFields() {
+        return misalignedFields;
+    }
+
+    // isClean is true when no patch applies and no field is misaligned.
+    public boolean isClean() {
+        return missingRequired == 0 && nonDefaultSeparators == 0 && missingSeparators == 0 && removedSeparators == 0
+                && misalignedFields == 0;
+    }
+
+    @Override
+    public String toString() {
+        return "required=" + missingRequired + " separator=" + nonDefaultSeparators + " missing-separator="
+                + missingSeparators + " removed-separator=" + removedSeparators + " misaligned=" + misalignedFields;
+    }
+
+    public static FormatAnalysis analyze(String content, Option option) {
+        DocumentParser.Result result = DocumentParser.parse(content);
+        if (!result.isSuccess()) {
+            throw new IllegalArgumentException(String.join("; ", result.errors));
+        }
+        // the token offsets count code points, they count chars when there are as many of both.
+        return analyze(result, option, content.length() == result.inputSize);
+    }
+
+    // analyze copies the input of result once to tell whether the token offsets count chars, analyze(String, Option)
+    // does not need to.
+    public static FormatAnalysis analyze(DocumentParser.Result result, Option option) {
+        boolean offsetWidths = false;
+        List<Token> tokens = result.tokens.getTokens();
+        if (!tokens.isEmpty()) {
+            CharStream input = tokens.get(0).getInputStream();
+            offsetWidths = input != null && input.size() > 0
+                    && input.getText(Interval.of(0, input.size() - 1)).length() == input.size();
+        }
+        return analyze(result, option, offsetWidths);
+    }
+
+    private static FormatAnalysis analyze(DocumentParser.Result result, Option option, boolean offsetWidths) {
+        if (option == null) {
+            throw new IllegalArgumentException("Option cannot be null.");
+        }
+        FormatAnalysis analysis = new FormatAnalysis();
+        int[] paddings = new int[Util.FieldColumn.COUNT];
+        FormatGuard guard = new FormatGuard(FormatLimits.UNLIMITED, CancellationToken.NONE);
+        if (offsetWidths) {
+            guard.setOffsetWidths(null);
+        }
+        PureThriftFormatter measurer = new PureThriftFormatter();
+        ArrayDeque<ParseTree> stack = new ArrayDeque<>();
+        stack.push(result.document);
+        while (!stack.isEmpty()) {
+            ParseTree node = stack.pop();
+            if (option.isPatchRequired()) {
+                analysis.checkRequired(node);
+            }
+            if (option.isPatchSeparator()) {
+                analysis.checkSeparator(node);
+            }
+            if (option.isAlignByField() || option.isAlignByAssign()) {
+                analysis.checkAlignment(node, option.isAlignByField(), paddings, measurer, guard);
+            }
+            for (int i = node.getChildCount() - 1; i >= 0; i--) {
+                stack.push(node.getChild(i));
+            }
+        }
+        return analysis;
+    }
+
+    // checkRequired is the detection of ThriftFormatter.patchFieldRequired.
+    private void checkRequired(ParseTree node) {
+        if (!(node instanceof ThriftParser.FieldContext)) {
+            return;
+        }
+        if (node.getParent() == null || Util.isFunctionOrThrowsListNode(node.getParent())) {
+            return;
+        }
+        for (int i = 0; i < node.getChildCount(); i++) {
+            ParseTree child = node.getChild(i);
+            if (child instanceof ThriftParser.Field_reqContext) {
+                return;
+            }
+            if (child instanceof ThriftParser.Field_typeContext) {
+                break;
+            }
+        }
+        missingRequired++;
+    }
+
+    // checkSeparator is the detection of ThriftFormatter.patchFieldListSeparator and patchRemoveLastListSeparator,
+    // a separator which is replaced and then removed only counts as removed.
+    private void checkSeparator(ParseTree node) {
+        boolean listNode = node instanceof ThriftParser.Enum_fieldContext ||
+                node instanceof ThriftParser.FieldContext ||
+                node instanceof ThriftParser.Function_Context;
+        if (!listNode && !(node instanceof ThriftParser.Type_annotationContext)) {
+            return;
+        }
+        ParseTree last = node.getChildCount() > 0 ? node.getChild(node.getChildCount() - 1) : null;
+        boolean hasSeparator = last instanceof ThriftParser.List_separatorContext;
+        if (hasSeparator && isRemoved(node)) {
+            removedSeparators++;
+        } else if (!listNode) {
+            return;
+        } else if (!hasSeparator) {
+            // an inline field which is given a separator and then has it removed is not changed.
+            if (!isRemoved(node)) {
+                missingSeparators++;
+            }
+        } else if (!Option.DEFAULT_SEPARATOR.equals(last.getText())) {
+            nonDefaultSeparators++;
+        }
+    }
+
+    // isRemoved tells whether patchRemoveLastListSeparator removes the separator of node, with the same test.
+    private static boolean isRemoved(ParseTree node) {
+        boolean isInlineField = node instanceof ThriftParser.FieldContext &&
+                node.getParent() != null &&
+                Util.isFunctionOrThrowsListNode(node.getParent());
+        boolean isInlineNode = node instanceof ThriftParser.Type_annotationContext;
+        if (!(isInlineField || isInlineNode) || node.getParent() == null) {
+            return false;
+        }
+        ParseTree parent = node.getParent();
+        int count = parent.getChildCount();
+        for (int i = 0; i < count; i++) {
+            if (parent.getChild(i) == node) {
+                return i == count - 1 || !Util.notSameClass(node, parent.getChild(i + 1));
+            }
+        }
+        return false;
+    }
+
+    // checkAlignment checks the runs of fields among the children of node, like the subblocks the formatter aligns.
+    private void checkAlignment(ParseTree node, boolean byField, int[] paddings, PureThriftFormatter measurer,
+            FormatGuard guard) {
+        // the fields of a function are inline, they are not aligned.
+        if (Util.isFunctionOrThrowsListNode(node)) {
+            return;
+        }
+        int count = node.getChildCount();
+        int i = 0;
+        while (i < count) {
+            if (!Util.isFieldOrEnumField(node.getChild(i))) {
+                i++;
+                continue;
+            }
+            int end = i;
+            while (end < count && Util.isFieldOrEnumField(node.getChild(end))) {
+                end++;
+            }
+            List<ParseTree> fields = ((ParserRuleContext) node).children.subList(i, end);
+            misalignedFields += countMisaligned(fields, byField, paddings, measurer, guard);
+            i = end;
+        }
+    }
+
+    /*
+     * countMisaligned counts the fields with a child not at the column the formatter puts it at. The columns are
+     * relative to the start of the field, from the same paddings as ThriftFormatter.beforeSubblocks without the
+     * indent, and the widths of the children joined like listSeparatorInline.
+     */
+    private static int countMisaligned(List<ParseTree> fields, boolean byField, int[] paddings,
+            PureThriftFormatter measurer, FormatGuard guard) {
+        int assignPadding = 0;
+        if (byField) {
+            Util.calcFieldAlignByFieldPadding(fields, paddings, guard);
+        } else {
+            assignPadding = Util.calcFieldAlignByAssignPadding(fields, guard).a;
+        }
+        int[] widths = new int[0];
+        int misaligned = 0;
+        for (ParseTree field : fields) {
+            Token first = field.getChildCount() > 0 ? start(field.getChild(0)) : null;
+            if (first == null) {
+                continue;
+            }
+            widths = Util.measureChildWidths(field, measurer, guard, widths);
+            int column = 0;
+            for (int j = 0; j < field.getChildCount(); j++) {
+                ParseTree child = field.getChild(j);
+                if (j > 0 && !(child instanceof ThriftParser.List_separatorContext)) {
+                    column++;
+                }
+                if (byField) {
+                    column = Math.max(column, paddings[Util.FieldColumn.of(child).ordinal()]);
+                } else if (Util.isToken(child, Util.ASSIGN)) {
+                    column = Math.max(column, assignPadding);
+                }
+                Token token = start(child);
+                if (token != null && (token.getLine() != first.getLine()
+                        || token.getCharPositionInLine() - first.getCharPositionInLine() != column)) {
+                    misaligned++;
+                    break;
+                }
+                column += widths[j];
+            }
+        }
+        return misaligned;
+    }
+
+    // start is the first token of node, null when it has none.
+    private static Token start(ParseTree node) {
+        return node instanceof TerminalNode ? ((TerminalNode) node).getSymbol() : ((ParserRuleContext) node).getStart();
+    }
+}
@@ -0,0 +1,70 @@
+package thriftlabs.thriftfmt;
+
+import java.util.BitSet;
+
+import org.antlr.v4.runtime.Token;
+
+// FormatGuard is shared by one format run (including the helper formatters used to measure widths),
+// the cancellation token is only polled every CHECK_INTERVAL checkpoints to keep the hot path cheap.
+class FormatGuard {
+    private static final int CHECK_INTERVAL = 256;
+
+    private final FormatLimits limits;
+    private final CancellationToken token;
+    private int ticks;
+    private int depth;
+    // widthCache is shared by the formatters of one tree, null when widths are not cached.
+    private WidthCache widthCache;
+    // offsetWidths is set when the offsets of the input tokens count chars, the input has no supplementary chars,
+    // patchedTokens are the indexes of the input tokens a patch gave another text.
+    private boolean offsetWidths;
+    private BitSet patchedTokens;
+
+    FormatGuard(FormatLimits limits, CancellationToken token) {
+        this.limits = limits;
+        this.token = token;
+    }
+
+    FormatLimits getLimits() {
+        return limits;
+    }
+
+    WidthCache getWidthCache() {
+        return widthCache;
+    }
+
+    void setWidthCache(WidthCache widthCache) {
+        this.widthCache = widthCache;
+    }
+
+    void setOffsetWidths(BitSet patchedTokens) {
+        this.offsetWidths = true;
+        this.patchedTokens = patchedTokens;
+    }
+
+    // tokenWidth is the length of the text of token, from its offsets when they can be used, so the text of an
+    // input token is not made into a String.
+    int tokenWidth(Token token) {
+        int index = token.getTokenIndex();
+        if (offsetWidths && index >= 0 && (patchedTokens == null || !patchedTokens.get(index))) {
+            return token.getStopIndex() - token.getStartIndex() + 1;
+        }
+        return token.getText().length();
+    }
+
+    void checkpoint() {
+        if (++ticks % CHECK_INTERVAL == 0) {
+            token.throwIfAborted();
+        }
+    }
+
+    void enter() {
+        depth++;
+        limits.checkNestingDepth(depth);
+        checkpoint();
+    }
+
+    void exit() {
+        depth--;
+    }
+}
@@ -0,0 +1,51 @@
+package thriftlabs.thriftfmt;
+
+public class FormatLimits {
+    // 0 means unlimited for every limit.
+    public static final FormatLimits UNLIMITED = new FormatLimits(0, 0, 0);
+
+    private final int maxInputSize;
+    private final int maxTokenCount;
+    private final int maxNestingDepth;
+
+    public FormatLimits(int maxInputSize, int maxTokenCount, int maxNestingDepth) {
+        this.maxInputSize = Math.max(maxInputSize, 0);
+        this.maxTokenCount = Math.max(maxTokenCount, 0);
+        this.maxNestingDepth = Math.max(maxNestingDepth, 0);
+    }
+
+    public int getMaxInputSize() {
+        return maxInputSize;
+    }
+
+    public int getMaxTokenCount() {
+        return maxTokenCount;
+    }
+
+    public int getMaxNestingDepth() {
+        return maxNestingDepth;
+    }
+
+    // checkInputSize can be called before parsing, so oversized content is rejected before any work is done. The size
+    // is in code points, like the CharStream the content is lexed from.
+    public void checkInputSize(int size) {
+        if (maxInputSize > 0 && size > maxInputSize) {
+            throw new FormatAbortedException(FormatAbortedException.Reason.INPUT_SIZE,
+                    "input size " + size + " exceeds limit " + maxInputSize);
+        }
+    }
+
+    public void checkTokenCount(int count) {
+        if (maxTokenCount > 0 && count > maxTokenCount) {
+            throw new FormatAbortedException(FormatAbortedException.Reason.TOKEN_COUNT,
+                    "token count " + count + " exceeds limit " + maxTokenCount);
+        }
+    }
+
+    public void checkNestingDepth(int depth) {
+        if (maxNestingDepth > 0 && depth > maxNestingDepth) {
+            throw new FormatAbortedException(FormatAbortedException.Reason.NESTING_DEPTH,
+                    "nesting depth exceeds limit " + maxNestingDepth);
+        }
+    }
+}
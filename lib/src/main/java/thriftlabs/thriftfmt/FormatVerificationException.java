@@ -0,0 +1,25 @@
+package thriftlabs.thriftfmt;
+
+/*
+ * FormatVerificationException is thrown when the tokens of a formatted output differ from the input in a way
+ * the patches of the Option do not allow.
+ */
+public class FormatVerificationException extends RuntimeException {
+    // line and column of the first differing token in the output.
+    private final int line;
+    private final int column;
+
+    public FormatVerificationException(int line, int column, String message) {
+        super(line + ":" + column + " " + message);
+        this.line = line;
+        this.column = column;
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    public int getColumn() {
+        return column;
+    }
+}
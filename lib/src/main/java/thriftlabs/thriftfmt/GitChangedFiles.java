@@ -0,0 +1,104 @@
+package thriftlabs.thriftfmt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * GitChangedFiles lists the .thrift files changed in a local git repository, by running the git CLI.
+ *
+ * Deleted files are left out, they have nothing to format. Paths are absolute, resolved from the top level of
+ * the work tree.
+ */
+public class GitChangedFiles {
+    private final Path repository;
+    private String git = "git";
+
+    public GitChangedFiles(Path repository) {
+        if (repository == null) {
+            throw new IllegalArgumentException("repository cannot be null.");
+        }
+        this.repository = repository;
+    }
+
+    // setGit sets the git executable, "git" from the PATH by default.
+    public void setGit(String git) {
+        if (git == null) {
+            throw new IllegalArgumentException("git cannot be null.");
+        }
+        this.git = git;
+    }
+
+    // diff lists the files of the work tree which differ from ref, staged or not.
+    public List<Path> diff(String ref) throws IOException {
+        if (ref == null || ref.isEmpty() || ref.startsWith("-")) {
+            throw new IllegalArgumentException("invalid ref: " + ref);
+        }
+        return list("diff", "--name-only", "-z", "--no-renames", "--diff-filter=ACMRT", ref, "--");
+    }
+
+    // staged lists the files whose staged content differs from HEAD.
+    public List<Path> staged() throws IOException {
+        return list("diff", "--cached", "--name-only", "-z", "--no-renames", "--diff-filter=ACMRT", "--");
+    }
+
+    private List<Path> list(String... args) throws IOException {
+        Path top = Path.of(run("rev-parse", "--show-toplevel").trim());
+        List<Path> files = new ArrayList<>();
+        for (String name : run(args).split("\0")) {
+            if (name.isEmpty()) {
+                continue;
+            }
+            Path path = top.resolve(name);
+            if (FileFormatter.isThriftFile(path)) {
+                files.add(path);
+            }
+        }
+        return files;
+    }
+
+    private String run(String... args) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(git);
+        command.addAll(Arrays.asList(args));
+        Process process = new ProcessBuilder(command)
+                .directory(repository.toFile())
+                .redirectError(ProcessBuilder.Redirect.PIPE)
+                .start();
+        process.getOutputStream().close();
+        // stderr is read on another thread, so a chatty git can not block on a full pipe.
+        ByteArrayOutputStream error = new ByteArrayOutputStream();
+        Thread errorReader = new Thread(() -> copy(process.getErrorStream(), error));
+        errorReader.start();
+        byte[] output;
+        try (InputStream in = process.getInputStream()) {
+            output = in.readAllBytes();
+        }
+        try {
+            errorReader.join();
+            int exitCode = process.waitFor();
+            if (exitCode != 0) {
+                throw new IOException("git " + String.join(" ", args) + " failed with exit code " + exitCode + ": "
+                        + error.toString(StandardCharsets.UTF_8).trim());
+            }
+        } catch (InterruptedException e) {
+            process.destroy();
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while running git", e);
+        }
+        return new String(output, StandardCharsets.UTF_8);
+    }
+
+    private static void copy(InputStream in, ByteArrayOutputStream out) {
+        try (in) {
+            in.transferTo(out);
+        } catch (IOException e) {
+            // the process is gone, its exit code tells what happened.
+        }
+    }
+}
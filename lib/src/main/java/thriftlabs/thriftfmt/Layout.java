@@ -0,0 +1,202 @@
+package thriftlabs.thriftfmt;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/*
+ * Layout is a streaming Oppen style pretty printer writing into a StringBuilder.
+ *
+ * The document is a stream of text, line (a breakable point with its flat text), indent/dedent and group
+ * begin/end. A group is printed flat when its flat width fits from its start column, otherwise every line
+ * directly inside it is broken. Tokens are only buffered while the outermost undecided group still fits,
+ * so the lookahead is bounded by the line width and every token is buffered and printed at most once.
+ */
+class Layout {
+    private static final int TEXT = 0;
+    private static final int LINE = 1;
+    private static final int HARDLINE = 2;
+    private static final int BEGIN = 3;
+    private static final int END = 4;
+    private static final int INDENT = 5;
+    private static final int DEDENT = 6;
+
+    private static class Tok {
+        final int kind;
+        final String text;
+        final long startPos;
+        boolean broken;
+
+        Tok(int kind, String text, long startPos) {
+            this.kind = kind;
+            this.text = text;
+            this.startPos = startPos;
+        }
+    }
+
+    private final StringBuilder out;
+    private final int width;
+    private final int indentStep;
+
+    private final ArrayDeque<Tok> buffer = new ArrayDeque<>();
+    private final ArrayDeque<Tok> pending = new ArrayDeque<>();
+    private long pos;
+    private int column;
+    private int depth;
+
+    private int[] indents = new int[16];
+    private int indentTop;
+    private boolean[] broken = new boolean[16];
+    private int groupTop;
+
+    Layout(StringBuilder out, int width, int indentStep) {
+        this.out = out;
+        this.width = width;
+        this.indentStep = indentStep;
+    }
+
+    boolean isActive() {
+        return depth > 0 || !buffer.isEmpty();
+    }
+
+    // start must be called before the outermost group, with the column and indent of the current line.
+    void start(int column, int baseIndent) {
+        this.column = column;
+        this.indentTop = 0;
+        this.indents[0] = baseIndent;
+        this.groupTop = 0;
+        this.broken[0] = true;
+    }
+
+    void begin() {
+        depth++;
+        Tok tok = new Tok(BEGIN, null, pos);
+        buffer.addLast(tok);
+        pending.addLast(tok);
+    }
+
+    void end() {
+        depth--;
+        if (pending.isEmpty()) {
+            print(new Tok(END, null, pos));
+            return;
+        }
+        // groups nest, so the innermost undecided group is the one being closed and it fits.
+        pending.removeLast();
+        buffer.addLast(new Tok(END, null, pos));
+        if (pending.isEmpty()) {
+            flush(null);
+        }
+    }
+
+    void indent() {
+        add(new Tok(INDENT, null, pos));
+    }
+
+    void dedent() {
+        add(new Tok(DEDENT, null, pos));
+    }
+
+    void text(String text) {
+        if (text.indexOf('\n') >= 0) {
+            breakAll();
+            print(new Tok(TEXT, text, pos));
+            return;
+        }
+        pos += text.length();
+        add(new Tok(TEXT, text, pos));
+        fit();
+    }
+
+    void line(String flat) {
+        pos += flat.length();
+        add(new Tok(LINE, flat, pos));
+        fit();
+    }
+
+    void hardline(int count) {
+        breakAll();
+        print(new Tok(HARDLINE, "\n".repeat(count), pos));
+    }
+
+    private void add(Tok tok) {
+        if (pending.isEmpty()) {
+            print(tok);
+        } else {
+            buffer.addLast(tok);
+        }
+    }
+
+    // fit breaks the outermost undecided groups while they can not fit in the rest of the line.
+    private void fit() {
+        while (!pending.isEmpty() && column + (pos - pending.peekFirst().startPos) > width) {
+            pending.removeFirst().broken = true;
+            flush(pending.peekFirst());
+        }
+    }
+
+    private void breakAll() {
+        while (!pending.isEmpty()) {
+            pending.removeFirst().broken = true;
+        }
+        flush(null);
+    }
+
+    private void flush(Tok until) {
+        while (!buffer.isEmpty() && buffer.peekFirst() != until) {
+            print(buffer.removeFirst());
+        }
+    }
+
+    private void print(Tok tok) {
+        switch (tok.kind) {
+            case TEXT:
+                out.append(tok.text);
+                int newline = tok.text.lastIndexOf('\n');
+                column = newline >= 0 ? tok.text.length() - newline - 1 : column + tok.text.length();
+                break;
+            case LINE:
+                if (broken[groupTop]) {
+                    newline(1);
+                } else {
+                    out.append(tok.text);
+                    column += tok.text.length();
+                }
+                break;
+            case HARDLINE:
+                newline(tok.text.length());
+                break;
+            case BEGIN:
+                if (++groupTop == broken.length) {
+                    broken = Arrays.copyOf(broken, groupTop * 2);
+                }
+                // children of a flat group are flat too.
+                broken[groupTop] = broken[groupTop - 1] && tok.broken;
+                break;
+            case END:
+                groupTop--;
+                break;
+            case INDENT:
+                if (++indentTop == indents.length) {
+                    indents = Arrays.copyOf(indents, indentTop * 2);
+                }
+                indents[indentTop] = indents[indentTop - 1] + indentStep;
+                break;
+            case DEDENT:
+                indentTop--;
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void newline(int count) {
+        for (int i = 0; i < count; i++) {
+            out.append('\n');
+        }
+        int indent = indents[indentTop];
+        for (int i = 0; i < indent; i++) {
+            out.append(' ');
+        }
+        column = indent;
+    }
+}
@@ -0,0 +1,355 @@
+package thriftlabs.thriftfmt;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.misc.Interval;
+import org.antlr.v4.runtime.tree.ParseTree;
+
+import thriftlabs.thriftparser.Thrift;
+import thriftlabs.thriftparser.ThriftLexer;
+import thriftlabs.thriftparser.ThriftParser;
+
+/*
+ * LazyFormatter formats a document as its lines are requested, one top-level header or definition at a time, for
+ * previews which only show the first lines of a document.
+ *
+ * The content is lexed only as far as the start of the next header or definition, then the text up to it is parsed
+ * and formatted by itself, so the first lines take about the same time for any size of document. The lines joined
+ * with "\n" are the output of ThriftFormatter for the whole document. Two definitions on one line, or a line with
+ * more comments after the end of a definition, are formatted together, since the comments are placed by what
+ * follows them. A part which does not parse throws IllegalArgumentException when its lines are requested, the lines
+ * before it can still be read. The CancellationToken is the time budget, an aborted part can be formatted again
+ * with a new token. A LazyFormatter is not safe to use from several threads.
+ */
+public class LazyFormatter implements Iterable<String> {
+    private final Option option;
+    private final CharStream stream;
+    private final ThriftLexer lexer;
+    private FormatLimits limits = FormatLimits.UNLIMITED;
+    private CancellationToken cancellationToken = CancellationToken.NONE;
+    private final List<String> lines = new ArrayList<>();
+    private boolean started;
+    private boolean complete;
+    // part is the text of the part to format next, it is kept until it is formatted, partLine and partColumn are
+    // where it starts, and partPadded whether it starts with an added space.
+    private String part;
+    private int partLine;
+    private int partColumn;
+    private boolean partPadded;
+    // the state of the scan for the end of the next part, it resumes after an abort.
+    private int scanStart;
+    private int scanLine = 1;
+    private int scanColumn;
+    private Token next;
+    private Token last;
+    private Token tail;
+    private int comments;
+    private int depth;
+    private int tokenCount;
+    // lastNode is the last header or definition formatted, and definitions whether one was a definition.
+    private ParseTree lastNode;
+    private boolean definitions;
+
+    public LazyFormatter(String content, Option option) {
+        if (content == null) {
+            throw new IllegalArgumentException("content cannot be null.");
+        }
+        if (option == null) {
+            throw new IllegalArgumentException("Option cannot be null.");
+        }
+        this.option = option;
+        this.stream = CharStreams.fromString(content);
+        this.lexer = new ThriftLexer(stream);
+        this.lexer.removeErrorListeners();
+    }
+
+    public void setLimits(FormatLimits limits) {
+        if (limits == null) {
+            throw new IllegalArgumentException("FormatLimits cannot be null.");
+        }
+        this.limits = limits;
+    }
+
+    // setCancellationToken bounds the time spent formatting, it can be replaced between requests.
+    public void setCancellationToken(CancellationToken token) {
+        if (token == null) {
+            throw new IllegalArgumentException("CancellationToken cannot be null.");
+        }
+        this.cancellationToken = token;
+    }
+
+    // getLine returns the line at index of the output, formatting up to it, or null after the last line.
+    public String getLine(int index) {
+        if (index < 0) {
+            throw new IllegalArgumentException("index cannot be negative.");
+        }
+        while (index >= lines.size() && !complete) {
+            formatPart();
+        }
+        return index < lines.size() ? lines.get(index) : null;
+    }
+
+    // getLines returns count lines from the line at from, fewer at the end of the output.
+    public List<String> getLines(int from, int count) {
+        if (from < 0 || count < 0) {
+            throw new IllegalArgumentException("from and count cannot be negative.");
+        }
+        List<String> page = new ArrayList<>(Math.min(count, 256));
+        for (int i = from; page.size() < count && getLine(i) != null; i++) {
+            page.add(lines.get(i));
+        }
+        return page;
+    }
+
+    // getFormattedLineCount is the count of the lines formatted so far, all of them once isComplete.
+    public int getFormattedLineCount() {
+        return lines.size();
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<String>() {
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                return getLine(index) != null;
+            }
+
+            @Override
+            public String next() {
+                String line = getLine(index);
+                if (line == null) {
+                    throw new NoSuchElementException();
+                }
+                index++;
+                return line;
+            }
+        };
+    }
+
+    // formatPart formats the next part of the content and adds its lines.
+    private void formatPart() {
+        cancellationToken.throwIfAborted();
+        if (!started) {
+            limits.checkInputSize(stream.size());
+            started = true;
+        }
+        if (part == null) {
+            scanPart();
+        }
+        int column = partPadded ? partColumn - 1 : partColumn;
+        DocumentParser.Result result = DocumentParser.parse(partPadded ? " " + part : part);
+        if (!result.isSuccess()) {
+            List<String> errors = new ArrayList<>(result.errors.size());
+            for (String error : result.errors) {
+                errors.add(relocate(error, partLine, column));
+            }
+            throw new IllegalArgumentException(String.join("; ", errors));
+        }
+        List<ParseTree> nodes = blockNodes(result.document, partLine, column);
+
+        ThriftFormatter formatter = new ThriftFormatter(result, option);
+        formatter.setLimits(limits);
+        formatter.setCancellationToken(cancellationToken);
+        String formatted = formatter.format();
+        addLines(formatted, nodes.isEmpty() ? null : nodes.get(0));
+        if (!nodes.isEmpty()) {
+            lastNode = nodes.get(nodes.size() - 1);
+            definitions |= lastNode.getParent() instanceof ThriftParser.DefinitionContext;
+        }
+        part = null;
+        complete = scanStart == stream.size() && next == null;
+    }
+
+    // blockNodes returns the headers and definitions of document, in which a header cannot follow a definition.
+    private List<ParseTree> blockNodes(ThriftParser.DocumentContext document, int line, int column) {
+        List<ParseTree> nodes = new ArrayList<>();
+        boolean after = definitions;
+        for (int i = 0; i < document.getChildCount(); i++) {
+            ParseTree child = document.getChild(i);
+            if (child instanceof ThriftParser.DefinitionContext) {
+                after = true;
+            } else if (child instanceof ThriftParser.HeaderContext) {
+                if (after) {
+                    Token token = ((ThriftParser.HeaderContext) child).getStart();
+                    throw new IllegalArgumentException(relocate(token.getLine() + ":" + token.getCharPositionInLine()
+                            + " header after a definition", line, column));
+                }
+            } else {
+                continue;
+            }
+            nodes.add(child.getChild(0));
+        }
+        return nodes;
+    }
+
+    // addLines adds the lines of formatted, the output of the part starting with first, null for the end.
+    private void addLines(String formatted, ParseTree first) {
+        if (formatted.isEmpty()) {
+            return;
+        }
+        int start = 0;
+        if (lastNode != null) {
+            // the newlines between the parts are the ones of processBlockNodes, or the ones the part starts with.
+            int newlines = 2;
+            if (first != null && first.getClass().equals(lastNode.getClass()) && !Util.isNeedNewLineNode(first)) {
+                newlines = 1;
+            }
+            while (start < formatted.length() && formatted.charAt(start) == '\n') {
+                start++;
+            }
+            for (int i = 1; i < Math.max(newlines, start); i++) {
+                lines.add("");
+            }
+        }
+        for (int end = formatted.indexOf('\n', start); end >= 0; end = formatted.indexOf('\n', start)) {
+            lines.add(formatted.substring(start, end));
+            start = end + 1;
+        }
+        lines.add(formatted.substring(start));
+    }
+
+    /*
+     * scanPart sets part to the text of the next part. A part ends after the last token of a header or definition,
+     * or after the comment on its line, when the next one starts on a later line. The last part is the rest of the
+     * content.
+     */
+    private void scanPart() {
+        Token token = next != null ? next : nextToken();
+        for (; token.getType() != Token.EOF; token = nextToken()) {
+            next = null;
+            int type = token.getType();
+            if (token.getChannel() == Thrift.CommentChannel) {
+                if (last != null && token.getLine() == last.getLine()) {
+                    comments++;
+                    tail = tail != null ? tail : token;
+                }
+                continue;
+            }
+            if (token.getChannel() != Token.DEFAULT_CHANNEL) {
+                continue;
+            }
+            if (depth == 0 && isBlockStart(type) && last != null && token.getLine() != last.getLine()
+                    && comments <= 1) {
+                next = token;
+                cut(tail != null ? tail : last);
+                return;
+            }
+            if (isOpen(type)) {
+                depth++;
+            } else if (isClose(type) && depth > 0) {
+                depth--;
+            }
+            last = token;
+            tail = null;
+            comments = 0;
+        }
+        next = null;
+        cut(null);
+    }
+
+    // cut makes the part from scanStart to after end, or to the end of the content when end is null.
+    private void cut(Token end) {
+        int stop = end != null ? end.getStopIndex() + 1 : stream.size();
+        part = stop > scanStart ? stream.getText(Interval.of(scanStart, stop - 1)) : "";
+        partLine = scanLine;
+        partColumn = scanColumn;
+        // a comment at the start of the document is not preceded by a blank line, a space keeps the others apart.
+        partPadded = scanStart > 0 && !part.isEmpty() && part.charAt(0) > ' ';
+        scanStart = stop;
+        if (end != null) {
+            moveScanLine(end);
+        }
+        last = null;
+        tail = null;
+        comments = 0;
+        depth = 0;
+    }
+
+    private Token nextToken() {
+        cancellationToken.throwIfAborted();
+        limits.checkTokenCount(tokenCount + 1);
+        tokenCount++;
+        return lexer.nextToken();
+    }
+
+    // moveScanLine sets the line and the position of the scan after token.
+    private void moveScanLine(Token token) {
+        String text = token.getText();
+        int newline = text.lastIndexOf('\n');
+        if (newline < 0) {
+            scanLine = token.getLine();
+            scanColumn = token.getCharPositionInLine() + text.codePointCount(0, text.length());
+            return;
+        }
+        scanLine = token.getLine();
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                scanLine++;
+            }
+        }
+        scanColumn = text.codePointCount(newline + 1, text.length());
+    }
+
+    // relocate moves the "line:column" an error of a part starts with to where the part is in the content.
+    private static String relocate(String error, int line, int column) {
+        int colon = error.indexOf(':');
+        int space = error.indexOf(' ', colon + 1);
+        if (colon < 0 || space < 0) {
+            return error;
+        }
+        try {
+            int errorLine = Integer.parseInt(error.substring(0, colon));
+            int errorColumn = Integer.parseInt(error.substring(colon + 1, space));
+            if (errorLine == 1) {
+                errorColumn += column;
+            }
+            return (errorLine + line - 1) + ":" + errorColumn + error.substring(space);
+        } catch (NumberFormatException e) {
+            return error;
+        }
+    }
+
+    // the literal tokens a header or a definition starts with, see Thrift.g4.
+    private static boolean isBlockStart(int type) {
+        switch (type) {
+            case ThriftLexer.T__0: // 'include'
+            case ThriftLexer.T__1: // 'namespace'
+            case ThriftLexer.T__3: // 'cpp_namespace'
+            case ThriftLexer.T__4: // 'php_namespace'
+            case ThriftLexer.T__5: // 'xsd_namespace'
+            case ThriftLexer.T__6: // 'cpp_include'
+            case ThriftLexer.T__7: // 'const'
+            case ThriftLexer.T__9: // 'typedef'
+            case ThriftLexer.T__10: // 'enum'
+            case ThriftLexer.T__13: // 'senum'
+            case ThriftLexer.T__14: // 'struct'
+            case ThriftLexer.T__15: // 'union'
+            case ThriftLexer.T__16: // 'exception'
+            case ThriftLexer.T__17: // 'service'
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // '{', '(' and '['.
+    private static boolean isOpen(int type) {
+        return type == ThriftLexer.T__11 || type == ThriftLexer.T__22 || type == ThriftLexer.T__34;
+    }
+
+    private static boolean isClose(int type) {
+        return type == ThriftLexer.T__12 || type == ThriftLexer.T__23 || type == ThriftLexer.T__35;
+    }
+}
@@ -0,0 +1,201 @@
+package thriftlabs.thriftfmt;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+ * Main is the command line entry of the formatter.
+ *
+ * usage: thriftfmt [--check | --write] [--safe] [--fast] [--changed REF | --staged] [--shard i/N]
+ *                  [--result FILE] [--indent N] [PATH...]
+ *        thriftfmt merge FILE...
+ *
+ * --check (the default) reports the files which are not formatted, --write rewrites them. --safe checks that the
+ * output has the same tokens as the input, up to the patches, and fails the files where it does not. --fast formats
+ * straight from the tokens, without a parse tree, where the options allow it; the output is the same. --changed
+ * and --staged only take the .thrift files git reports as changed from REF or staged, under the given paths.
+ * PATH defaults to the current directory, a .zip, .jar, .tar.gz or .tgz archive given as PATH is formatted entry
+ * by entry. --shard only formats the files of shard i of N, --result writes the results to FILE, and merge
+ * combines the result files of all shards into one report. The exit code is 0 on success, 1 when a file failed
+ * or is not formatted in check mode, and 2 on a usage error.
+ */
+public class Main {
+    static final int EXIT_OK = 0;
+    static final int EXIT_FAILED = 1;
+    static final int EXIT_USAGE = 2;
+
+    private static final String USAGE =
+            "usage: thriftfmt [--check | --write] [--safe] [--fast] [--changed REF | --staged]"
+                    + " [--shard i/N] [--result FILE] [--indent N] [PATH...]\n"
+                    + "       thriftfmt merge FILE...";
+
+    public static void main(String[] args) {
+        System.exit(run(args, System.out, System.err));
+    }
+
+    static int run(String[] args, PrintStream out, PrintStream err) {
+        if (args.length > 0 && args[0].equals("merge")) {
+            return merge(args, out, err);
+        }
+        boolean write = false;
+        boolean safe = false;
+        boolean fast = false;
+        String changedRef = null;
+        boolean staged = false;
+        Shard shard = null;
+        Path resultFile = null;
+        Option option = new Option();
+        List<Path> paths = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                switch (arg) {
+                    case "--check":
+                        write = false;
+                        break;
+                    case "--write":
+                        write = true;
+                        break;
+                    case "--safe":
+                        safe = true;
+                        break;
+                    case "--fast":
+                        fast = true;
+                        break;
+                    case "--changed":
+                        changedRef = value(args, ++i, arg);
+                        break;
+                    case "--staged":
+                        staged = true;
+                        break;
+                    case "--shard":
+                        shard = Shard.parse(value(args, ++i, arg));
+                        break;
+                    case "--result":
+                        resultFile = Path.of(value(args, ++i, arg));
+                        break;
+                    case "--indent":
+                        option = new Option(Integer.parseInt(value(args, ++i, arg)), option.isPatchRequired(),
+                                option.isPatchSeparator(), option.isKeepComment(), option.isAlignByAssign(),
+                                option.isAlignByField());
+                        break;
+                    default:
+                        if (arg.startsWith("--")) {
+                            throw new IllegalArgumentException("unknown option " + arg);
+                        }
+                        paths.add(Path.of(arg));
+                }
+            }
+            if (changedRef != null && staged) {
+                throw new IllegalArgumentException("--changed and --staged can not be used together");
+            }
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            err.println(USAGE);
+            return EXIT_USAGE;
+        }
+        if (paths.isEmpty()) {
+            paths.add(Path.of("."));
+        }
+
+        List<Path> files;
+        try {
+            if (changedRef != null || staged) {
+                files = changedFiles(paths, changedRef, staged);
+            } else {
+                files = BatchFormatter.collect(paths);
+            }
+            if (shard != null) {
+                files = shard.select(files);
+            }
+        } catch (IOException e) {
+            err.println(e.getMessage());
+            return EXIT_FAILED;
+        }
+
+        FileFormatter formatter = new FileFormatter(option);
+        formatter.setWrite(write);
+        formatter.setSafe(safe);
+        formatter.setFast(fast);
+        List<FileResult> results = new BatchFormatter(formatter).run(files);
+        if (resultFile != null) {
+            try {
+                new ShardResult(shard == null ? new Shard(1, 1) : shard, write, results).write(resultFile);
+            } catch (IOException e) {
+                err.println(e.getMessage());
+                return EXIT_FAILED;
+            }
+        }
+        report(results, out);
+        return BatchFormatter.isSuccess(results, write) ? EXIT_OK : EXIT_FAILED;
+    }
+
+    // changedFiles lists the files git reports as changed under paths. git runs in each path, or in the directory
+    // of a file, so the paths can be in different repositories.
+    private static List<Path> changedFiles(List<Path> paths, String ref, boolean staged) throws IOException {
+        Set<Path> directories = new HashSet<>();
+        Set<Path> files = new LinkedHashSet<>();
+        for (Path path : paths) {
+            Path directory = path.toAbsolutePath().normalize();
+            if (!Files.isDirectory(directory)) {
+                directory = directory.getParent();
+            }
+            if (directories.add(directory)) {
+                GitChangedFiles git = new GitChangedFiles(directory);
+                files.addAll(staged ? git.staged() : git.diff(ref));
+            }
+        }
+        return BatchFormatter.filter(files, paths);
+    }
+
+    private static int merge(String[] args, PrintStream out, PrintStream err) {
+        if (args.length < 2) {
+            err.println(USAGE);
+            return EXIT_USAGE;
+        }
+        List<ShardResult> shards = new ArrayList<>();
+        List<FileResult> results;
+        try {
+            for (int i = 1; i < args.length; i++) {
+                shards.add(ShardResult.read(Path.of(args[i])));
+            }
+            results = ShardResult.merge(shards);
+        } catch (IOException | IllegalArgumentException e) {
+            err.println(e.getMessage());
+            return EXIT_FAILED;
+        }
+        report(results, out);
+        return BatchFormatter.isSuccess(results, shards.get(0).isWrite()) ? EXIT_OK : EXIT_FAILED;
+    }
+
+    private static String value(String[] args, int index, String name) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException(name + " needs a value");
+        }
+        return args[index];
+    }
+
+    static void report(List<FileResult> results, PrintStream out) {
+        int changed = 0;
+        int errors = 0;
+        for (FileResult result : results) {
+            if (result.getStatus() == FileResult.Status.CHANGED) {
+                changed++;
+            } else if (result.getStatus() == FileResult.Status.ERROR) {
+                errors++;
+            } else {
+                continue;
+            }
+            out.println(result);
+        }
+        out.println(results.size() + " files, " + changed + " not formatted, " + errors + " errors");
+    }
+}
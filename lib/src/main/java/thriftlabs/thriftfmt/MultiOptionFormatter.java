@@ -0,0 +1,64 @@
+package thriftlabs.thriftfmt;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * MultiOptionFormatter formats one parsed document with several Options, for example to compare styles.
+ *
+ * The document is parsed once. The options are grouped by their patches, since patching changes the tree: each
+ * group formats its own tree, inflated from a CompactTree of the document, which is patched once for the group.
+ * The formatters of a group share the patched tree, the source text and the measured widths of the nodes. The
+ * options without patches format the tree of the document itself, which is never patched.
+ */
+public class MultiOptionFormatter {
+    private MultiOptionFormatter() {
+    }
+
+    // format returns the output for each option, in the order of options. result is not changed.
+    public static List<String> format(DocumentParser.Result result, List<Option> options) {
+        if (result == null) {
+            throw new IllegalArgumentException("DocumentParser.Result cannot be null.");
+        }
+        if (options == null) {
+            throw new IllegalArgumentException("Options cannot be null.");
+        }
+        String[] outputs = new String[options.size()];
+        CompactTree compact = null;
+        // a group is the options with the same patches, numbered by patchRequired | patchSeparator << 1.
+        for (int group = 0; group < 4; group++) {
+            DocumentParser.Result tree = null;
+            WidthCache widths = new WidthCache();
+            ThriftFormatter patched = null;
+            for (int i = 0; i < options.size(); i++) {
+                Option option = options.get(i);
+                if (option == null) {
+                    throw new IllegalArgumentException("Option cannot be null.");
+                }
+                if (groupOf(option) != group) {
+                    continue;
+                }
+                if (tree == null) {
+                    if (group == 0) {
+                        tree = result;
+                    } else {
+                        compact = compact != null ? compact : CompactTree.of(result);
+                        tree = compact.inflate();
+                    }
+                }
+                ThriftFormatter formatter = new ThriftFormatter(tree, option);
+                formatter.setWidthCache(widths);
+                if (patched != null) {
+                    formatter.shareFrom(patched);
+                }
+                outputs[i] = formatter.format();
+                patched = patched != null ? patched : formatter;
+            }
+        }
+        return new ArrayList<>(List.of(outputs));
+    }
+
+    private static int groupOf(Option option) {
+        return (option.isPatchRequired() ? 1 : 0) | (option.isPatchSeparator() ? 2 : 0);
+    }
+}
@@ -11,6 +11,11 @@ public class Option {
     private boolean keepComment;
     private boolean alignByAssign;
     private boolean alignByField;
+    // 0 means lines are never wrapped.
+    private int maxLineWidth;
+    // const lists and maps with more entries than this are formatted one entry per line, 0 means never.
+    private int constEntryThreshold;
+    private boolean alignConstEntries;
 
     public Option() {
         this(DEFAULT_INDENT, true, true, true, false, false);
@@ -55,4 +60,28 @@ public class Option {
     public boolean isAlignByField() {
         return alignByField;
     }
+
+    public int getMaxLineWidth() {
+        return maxLineWidth;
+    }
+
+    public void setMaxLineWidth(int maxLineWidth) {
+        this.maxLineWidth = Math.max(maxLineWidth, 0);
+    }
+
+    public int getConstEntryThreshold() {
+        return constEntryThreshold;
+    }
+
+    public void setConstEntryThreshold(int constEntryThreshold) {
+        this.constEntryThreshold = Math.max(constEntryThreshold, 0);
+    }
+
+    public boolean isAlignConstEntries() {
+        return alignConstEntries;
+    }
+
+    public void setAlignConstEntries(boolean alignConstEntries) {
+        this.alignConstEntries = alignConstEntries;
+    }
 }
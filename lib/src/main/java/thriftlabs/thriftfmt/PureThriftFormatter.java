@@ -1,44 +1,192 @@
 package thriftlabs.thriftfmt;
 
+import java.util.Arrays;
 import java.util.List;
-import java.util.function.BiPredicate;
 
+import org.antlr.v4.runtime.Token;
 import org.antlr.v4.runtime.tree.ParseTree;
 import org.antlr.v4.runtime.tree.TerminalNode;
 
 import thriftlabs.thriftparser.ThriftParser;
 
 public class PureThriftFormatter {
+    // FLUSH_SIZE is how much output is buffered before complete lines are handed to the sink.
+    private static final int FLUSH_SIZE = 8192;
 
     protected Option option = new Option();
-    protected String out;
+    protected FormatLimits limits = FormatLimits.UNLIMITED;
+    protected CancellationToken cancellationToken = CancellationToken.NONE;
+    protected FormatGuard guard;
+    protected StringBuilder out;
+    protected Layout layout;
     protected int newlineCounter;
+    // lineCount is the count of the newlines written so far, not counting the pending newlineCounter.
+    protected int lineCount;
     protected String currentIndent;
+    private Utf8Sink sink;
+    // measuring is set by measureNode, the output is only counted in width.
+    private boolean measuring;
+    private int width;
+    private int flushScanFrom;
+    private Frame[] frames = new Frame[0];
+    private int top;
 
     public void setOption(Option opt) {
         this.option = opt;
     }
 
+    public void setLimits(FormatLimits limits) {
+        if (limits == null) {
+            throw new IllegalArgumentException("FormatLimits cannot be null.");
+        }
+        this.limits = limits;
+    }
+
+    public void setCancellationToken(CancellationToken token) {
+        if (token == null) {
+            throw new IllegalArgumentException("CancellationToken cannot be null.");
+        }
+        this.cancellationToken = token;
+    }
+
     public String formatNode(ParseTree node) {
-        out = "";
+        return formatNode(node, newGuard());
+    }
+
+    String formatNode(ParseTree node, FormatGuard guard) {
+        run(node, guard, null);
+        return out.toString();
+    }
+
+    // formatNode writes the output to sink as it goes, only the current line is kept in out.
+    void formatNode(ParseTree node, FormatGuard guard, Utf8Sink sink) {
+        run(node, guard, sink);
+        sink.write(out, 0, out.length());
+        sink.flush();
+    }
+
+    /*
+     * measureNode is the length of formatNode(node, guard), counted without writing the output. The input tokens
+     * are measured by FormatGuard.tokenWidth, so no String is made for them either. The options which read back
+     * the output, maxLineWidth and constEntryThreshold, are formatted.
+     */
+    int measureNode(ParseTree node, FormatGuard guard) {
+        if (option.getMaxLineWidth() > 0 || option.getConstEntryThreshold() > 0) {
+            return formatNode(node, guard).length();
+        }
+        this.guard = guard;
+        this.sink = null;
+        if (out == null) {
+            out = new StringBuilder();
+        }
+        out.setLength(0);
+        layout = null;
+        newlineCounter = 0;
+        lineCount = 0;
+        currentIndent = "";
+        flushScanFrom = 0;
+        top = 0;
+        measuring = true;
+        width = 0;
+        try {
+            processNode(node);
+        } finally {
+            measuring = false;
+        }
+        return width;
+    }
+
+    private void run(ParseTree node, FormatGuard guard, Utf8Sink sink) {
+        this.guard = guard;
+        this.sink = sink;
+        out = new StringBuilder();
+        layout = option.getMaxLineWidth() > 0 ? new Layout(out, option.getMaxLineWidth(), option.getIndent()) : null;
         newlineCounter = 0;
+        lineCount = 0;
         currentIndent = "";
+        flushScanFrom = 0;
+        top = 0;
         processNode(node);
-        return out;
+    }
+
+    protected FormatGuard newGuard() {
+        cancellationToken.throwIfAborted();
+        return new FormatGuard(limits, cancellationToken);
     }
 
     private void push(String text) {
-        out += text;
+        if (measuring) {
+            width += text.length();
+            return;
+        }
+        if (layout != null && layout.isActive()) {
+            layout.text(text);
+        } else {
+            out.append(text);
+        }
+        flushLines();
     }
 
-    protected void append(String text) {
+    private void pushNewlines() {
         if (newlineCounter > 0) {
-            push("\n".repeat(newlineCounter));
+            lineCount += newlineCounter;
+            if (measuring) {
+                width += newlineCounter;
+            } else if (layout != null && layout.isActive()) {
+                layout.hardline(newlineCounter);
+            } else {
+                out.append("\n".repeat(newlineCounter));
+            }
+            flushLines();
         }
         newlineCounter = 0;
+    }
+
+    // flushLines hands the complete lines in out to the sink, once enough output is buffered.
+    private void flushLines() {
+        if (sink == null || out.length() < FLUSH_SIZE) {
+            return;
+        }
+        // only the chars appended since the last call are scanned, so a long line is not scanned again.
+        int end = out.length();
+        while (end > flushScanFrom && out.charAt(end - 1) != '\n') {
+            end--;
+        }
+        if (end > flushScanFrom) {
+            sink.write(out, 0, end);
+            out.delete(0, end);
+        }
+        flushScanFrom = out.length();
+    }
+
+    protected void append(String text) {
+        pushNewlines();
         push(text);
     }
 
+    // appendRange appends text[start, end) without making a String of it, except while a layout group is open.
+    protected void appendRange(CharSequence text, int start, int end) {
+        pushNewlines();
+        pushRange(text, start, end);
+    }
+
+    protected void appendCurrentLineRange(CharSequence text, int start, int end) {
+        pushRange(text, start, end);
+    }
+
+    private void pushRange(CharSequence text, int start, int end) {
+        if (measuring) {
+            width += end - start;
+            return;
+        }
+        if (layout != null && layout.isActive()) {
+            layout.text(text.subSequence(start, end).toString());
+            return;
+        }
+        out.append(text, start, end);
+        flushLines();
+    }
+
     // appendCurrentLine append to current line, and ignore this.newlineCounter.
     protected void appendCurrentLine(String text) {
         push(text);
@@ -55,6 +203,63 @@ public class PureThriftFormatter {
         newline(1);
     }
 
+    // getCurrentLineIndent is the count of leading spaces of the last line in out.
+    protected int getCurrentLineIndent() {
+        int lineStart = out.lastIndexOf("\n") + 1;
+        int indent = lineStart;
+        while (indent < out.length() && out.charAt(indent) == ' ') {
+            indent++;
+        }
+        return indent - lineStart;
+    }
+
+    protected boolean isLayoutEnabled() {
+        return layout != null;
+    }
+
+    // beginGroup starts a group of softlines which are either all kept flat or all broken.
+    protected void beginGroup() {
+        if (layout == null) {
+            return;
+        }
+        if (!layout.isActive()) {
+            int lineStart = out.lastIndexOf("\n") + 1;
+            layout.start(out.length() - lineStart, getCurrentLineIndent());
+        }
+        layout.begin();
+    }
+
+    protected void endGroup() {
+        if (layout != null) {
+            layout.end();
+        }
+    }
+
+    protected void indent() {
+        if (layout != null) {
+            layout.indent();
+        }
+    }
+
+    protected void dedent() {
+        if (layout != null) {
+            layout.dedent();
+        }
+    }
+
+    // softline appends flat, or breaks the line when the enclosing group does not fit in maxLineWidth.
+    protected void softline(String flat) {
+        if (layout == null) {
+            append(flat);
+            return;
+        }
+        if (newlineCounter > 0) {
+            pushNewlines();
+            return;
+        }
+        layout.line(flat);
+    }
+
     protected void setCurrentIndent(String indent) {
         this.currentIndent = indent;
     }
@@ -83,125 +288,138 @@ public class PureThriftFormatter {
     protected void afterProcessNode(ParseTree node) {
     }
 
-    protected void processBlockNodes(List<ParseTree> nodes, String indent) {
-        ParseTree lastNode = null;
-        for (int index = 0; index < nodes.size(); index++) {
-            ParseTree node = nodes.get(index);
-            if (node instanceof ThriftParser.HeaderContext || node instanceof ThriftParser.DefinitionContext) {
-                node = node.getChild(0);
-            }
-            beforeBlockNode(node);
-            if (index > 0 && lastNode != null) {
-                if (!lastNode.getClass().equals(node.getClass()) || Util.isNeedNewLineNode(node)) {
-                    newline(2);
-                } else {
-                    newline();
-                }
-            }
-            setCurrentIndent(indent);
-            processNode(node);
-            afterBlockNode(node);
-            lastNode = node;
+    /*
+     * Frame is a node on the explicit stack of processNode, with the state its NodeProcessFunc keeps between the
+     * children. Frames are reused, so only the fields a function sets are meaningful.
+     */
+    static final class Frame {
+        ParseTree node;
+        Util.NodeProcessFunc func;
+        // step is the phase of func, index the next child of node and sub a position inside the phase.
+        int step;
+        int index;
+        int sub;
+        int openIndex;
+        int closeIndex;
+        int keyWidth;
+        int[] keyWidths;
+        String indent;
+        String entryIndent;
+        List<ParseTree> nodes;
+        List<ParseTree> rest;
+
+        private void clear() {
+            node = null;
+            func = null;
+            step = 0;
+            index = 0;
+            sub = 0;
+            keyWidths = null;
+            indent = null;
+            entryIndent = null;
+            nodes = null;
+            rest = null;
         }
     }
 
-    protected void processInlineNodes(List<ParseTree> nodes, String join) {
-        for (int index = 0; index < nodes.size(); index++) {
-            ParseTree node = nodes.get(index);
-            if (index > 0) {
-                append(join);
+    // processNode processes node and its subtree with an explicit stack of frames, so the depth of the tree is
+    // not bounded by the thread stack. A nested call runs on top of the frames in use.
+    protected void processNode(ParseTree node) {
+        int base = top;
+        enterNode(node);
+        while (top > base) {
+            Frame frame = frames[top - 1];
+            ParseTree child = frame.func.process(this, frame);
+            if (child != null) {
+                enterNode(child);
+                continue;
             }
-            processNode(node);
+            top--;
+            exitNode(frame.node);
+            frame.clear();
         }
     }
 
-    protected void processNode(ParseTree node) {
+    // enterNode starts processing node, a terminal is processed at once and any other node gets a frame.
+    private void enterNode(ParseTree node) {
+        guard.enter();
         beforeProcessNode(node);
-        dispatchProcessNode(node);
-        afterProcessNode(node);
-    }
-
-    protected void dispatchProcessNode(ParseTree node) {
         if (node instanceof TerminalNode) {
             TerminalNode((TerminalNode) node);
-        } else if (node instanceof ThriftParser.DocumentContext) {
-            DocumentContext((ThriftParser.DocumentContext) node);
-        } else if (node instanceof ThriftParser.HeaderContext) {
-            HeaderContext((ThriftParser.HeaderContext) node);
-        } else if (node instanceof ThriftParser.DefinitionContext) {
-            DefinitionContext((ThriftParser.DefinitionContext) node);
-        } else if (node instanceof ThriftParser.Include_Context) {
-            Include_Context((ThriftParser.Include_Context) node);
-        } else if (node instanceof ThriftParser.Namespace_Context) {
-            Namespace_Context((ThriftParser.Namespace_Context) node);
-        } else if (node instanceof ThriftParser.Typedef_Context) {
-            Typedef_Context((ThriftParser.Typedef_Context) node);
-        } else if (node instanceof ThriftParser.Base_typeContext) {
-            Base_typeContext((ThriftParser.Base_typeContext) node);
-        } else if (node instanceof ThriftParser.Real_base_typeContext) {
-            Real_base_typeContext((ThriftParser.Real_base_typeContext) node);
-        } else if (node instanceof ThriftParser.Const_ruleContext) {
-            Const_ruleContext((ThriftParser.Const_ruleContext) node);
-        } else if (node instanceof ThriftParser.Const_valueContext) {
-            Const_valueContext((ThriftParser.Const_valueContext) node);
-        } else if (node instanceof ThriftParser.IntegerContext) {
-            IntegerContext((ThriftParser.IntegerContext) node);
-        } else if (node instanceof ThriftParser.Container_typeContext) {
-            Container_typeContext((ThriftParser.Container_typeContext) node);
-        } else if (node instanceof ThriftParser.Set_typeContext) {
-            Set_typeContext((ThriftParser.Set_typeContext) node);
-        } else if (node instanceof ThriftParser.List_typeContext) {
-            List_typeContext((ThriftParser.List_typeContext) node);
-        } else if (node instanceof ThriftParser.Cpp_typeContext) {
-            Cpp_typeContext((ThriftParser.Cpp_typeContext) node);
+            exitNode(node);
+            return;
+        }
+        if (top == frames.length) {
+            frames = Arrays.copyOf(frames, Math.max(16, top * 2));
+        }
+        if (frames[top] == null) {
+            frames[top] = new Frame();
+        }
+        Frame frame = frames[top++];
+        frame.node = node;
+        frame.func = processFunc(node);
+    }
+
+    private void exitNode(ParseTree node) {
+        afterProcessNode(node);
+        guard.exit();
+    }
+
+    private Util.NodeProcessFunc processFunc(ParseTree node) {
+        if (node instanceof ThriftParser.DocumentContext) {
+            return Util.documentBlock;
+        } else if (node instanceof ThriftParser.HeaderContext || node instanceof ThriftParser.DefinitionContext) {
+            return Util.firstChild;
+        } else if (node instanceof ThriftParser.Include_Context ||
+                node instanceof ThriftParser.Namespace_Context ||
+                node instanceof ThriftParser.Typedef_Context ||
+                node instanceof ThriftParser.Base_typeContext ||
+                node instanceof ThriftParser.Real_base_typeContext ||
+                node instanceof ThriftParser.Const_ruleContext ||
+                node instanceof ThriftParser.Const_valueContext ||
+                node instanceof ThriftParser.IntegerContext ||
+                node instanceof ThriftParser.Cpp_typeContext ||
+                node instanceof ThriftParser.Const_map_entryContext ||
+                node instanceof ThriftParser.List_separatorContext ||
+                node instanceof ThriftParser.Field_reqContext ||
+                node instanceof ThriftParser.Field_typeContext ||
+                node instanceof ThriftParser.OnewayContext ||
+                node instanceof ThriftParser.Function_typeContext ||
+                node instanceof ThriftParser.Annotation_valueContext) {
+            return Util.defaultInline;
+        } else if (node instanceof ThriftParser.Container_typeContext ||
+                node instanceof ThriftParser.Set_typeContext ||
+                node instanceof ThriftParser.List_typeContext ||
+                node instanceof ThriftParser.Field_idContext) {
+            return Util.tightInline;
         } else if (node instanceof ThriftParser.Const_mapContext) {
-            Const_mapContext((ThriftParser.Const_mapContext) node);
-        } else if (node instanceof ThriftParser.Const_map_entryContext) {
-            Const_map_entryContext((ThriftParser.Const_map_entryContext) node);
-        } else if (node instanceof ThriftParser.List_separatorContext) {
-            List_separatorContext((ThriftParser.List_separatorContext) node);
-        } else if (node instanceof ThriftParser.Field_idContext) {
-            Field_idContext((ThriftParser.Field_idContext) node);
-        } else if (node instanceof ThriftParser.Field_reqContext) {
-            Field_reqContext((ThriftParser.Field_reqContext) node);
-        } else if (node instanceof ThriftParser.Field_typeContext) {
-            Field_typeContext((ThriftParser.Field_typeContext) node);
+            return Util.constMapContext;
         } else if (node instanceof ThriftParser.Map_typeContext) {
-            Map_typeContext((ThriftParser.Map_typeContext) node);
+            return Util.mapTypeInline;
         } else if (node instanceof ThriftParser.Const_listContext) {
-            Const_listContext((ThriftParser.Const_listContext) node);
+            return Util.constListContext;
         } else if (node instanceof ThriftParser.Enum_ruleContext) {
-            Enum_ruleContext((ThriftParser.Enum_ruleContext) node);
-        } else if (node instanceof ThriftParser.Struct_Context) {
-            Struct_Context((ThriftParser.Struct_Context) node);
-        } else if (node instanceof ThriftParser.Union_Context) {
-            Union_Context((ThriftParser.Union_Context) node);
-        } else if (node instanceof ThriftParser.Exception_Context) {
-            Exception_Context((ThriftParser.Exception_Context) node);
-        } else if (node instanceof ThriftParser.Enum_fieldContext) {
-            Enum_fieldContext((ThriftParser.Enum_fieldContext) node);
-        } else if (node instanceof ThriftParser.FieldContext) {
-            FieldContext((ThriftParser.FieldContext) node);
-        } else if (node instanceof ThriftParser.Function_Context) {
-            Function_Context((ThriftParser.Function_Context) node);
-        } else if (node instanceof ThriftParser.OnewayContext) {
-            OnewayContext((ThriftParser.OnewayContext) node);
-        } else if (node instanceof ThriftParser.Function_typeContext) {
-            Function_typeContext((ThriftParser.Function_typeContext) node);
-        } else if (node instanceof ThriftParser.Throws_listContext) {
-            Throws_listContext((ThriftParser.Throws_listContext) node);
-        } else if (node instanceof ThriftParser.Type_annotationsContext) {
-            Type_annotationsContext((ThriftParser.Type_annotationsContext) node);
+            return Util.enumSubblocks;
+        } else if (node instanceof ThriftParser.Struct_Context ||
+                node instanceof ThriftParser.Union_Context ||
+                node instanceof ThriftParser.Exception_Context) {
+            return Util.fieldSubblocks;
+        } else if (node instanceof ThriftParser.Enum_fieldContext || node instanceof ThriftParser.FieldContext) {
+            return Util.listSeparatorInline;
+        } else if (node instanceof ThriftParser.Function_Context ||
+                node instanceof ThriftParser.Throws_listContext ||
+                node instanceof ThriftParser.Type_annotationsContext) {
+            return Util.tupleWrapInline;
         } else if (node instanceof ThriftParser.Type_annotationContext) {
-            Type_annotationContext((ThriftParser.Type_annotationContext) node);
-        } else if (node instanceof ThriftParser.Annotation_valueContext) {
-            Annotation_valueContext((ThriftParser.Annotation_valueContext) node);
+            return Util.tupleTightInline;
         } else if (node instanceof ThriftParser.ServiceContext) {
-            ServiceContext((ThriftParser.ServiceContext) node);
-        } else if (node instanceof ThriftParser.SenumContext) {
-            SenumContext((ThriftParser.SenumContext) node);
+            if (Util.isToken(node.getChild(2), Util.EXTENDS)) {
+                return Util.extendsServiceSubblocks;
+            }
+            return Util.serviceSubblocks;
         }
-        // unsupport types
+        // senum and unsupport types
+        return Util.noChildren;
     }
 
     protected void TerminalNode(TerminalNode node) {
@@ -211,170 +429,15 @@ public class PureThriftFormatter {
 
         this.pushCurrentIndent();
         this.setCurrentIndent("");
-        this.append(node.getSymbol().getText());
-    }
-
-    protected void DocumentContext(ThriftParser.DocumentContext node) {
-        this.processBlockNodes(Util.getNodeChildren(node), "");
-    }
-
-    protected void HeaderContext(ThriftParser.HeaderContext node) {
-        this.processNode(node.getChild(0));
-    }
-
-    protected void DefinitionContext(ThriftParser.DefinitionContext node) {
-        this.processNode(node.getChild(0));
-    }
-
-    private void Include_Context(ThriftParser.Include_Context node) {
-        Util.defaultInline.process(this, node);
-    }
-
-    protected void Namespace_Context(ThriftParser.Namespace_Context node) {
-        Util.defaultInline.process(this, node);
-    }
-
-    protected void Typedef_Context(ThriftParser.Typedef_Context node) {
-        Util.defaultInline.process(this, node);
-    }
-
-    protected void Base_typeContext(ThriftParser.Base_typeContext node) {
-        Util.defaultInline.process(this, node);
-    }
-
-    protected void Real_base_typeContext(ThriftParser.Real_base_typeContext node) {
-        Util.defaultInline.process(this, node);
-    }
-
-    protected void Const_ruleContext(ThriftParser.Const_ruleContext node) {
-        Util.defaultInline.process(this, node);
-    }
-
-    protected void Const_valueContext(ThriftParser.Const_valueContext node) {
-        Util.defaultInline.process(this, node);
-    }
-
-    protected void IntegerContext(ThriftParser.IntegerContext node) {
-        Util.defaultInline.process(this, node);
-    }
-
-    protected void Container_typeContext(ThriftParser.Container_typeContext node) {
-        Util.tightInline.process(this, node);
-    }
-
-    protected void Set_typeContext(ThriftParser.Set_typeContext node) {
-        Util.tightInline.process(this, node);
-    }
-
-    protected void List_typeContext(ThriftParser.List_typeContext node) {
-        Util.tightInline.process(this, node);
-    }
-
-    protected void Cpp_typeContext(ThriftParser.Cpp_typeContext node) {
-        Util.defaultInline.process(this, node);
-    }
-
-    protected void Const_mapContext(ThriftParser.Const_mapContext node) {
-        Util.defaultInline.process(this, node);
-    }
-
-    protected void Const_map_entryContext(ThriftParser.Const_map_entryContext node) {
-        Util.defaultInline.process(this, node);
-    }
-
-    protected void List_separatorContext(ThriftParser.List_separatorContext node) {
-        Util.defaultInline.process(this, node);
+        this.appendToken(node.getSymbol());
     }
 
-    protected void Field_idContext(ThriftParser.Field_idContext node) {
-        Util.tightInline.process(this, node);
-    }
-
-    protected void Field_reqContext(ThriftParser.Field_reqContext node) {
-        Util.defaultInline.process(this, node);
-    }
-
-    protected void Field_typeContext(ThriftParser.Field_typeContext node) {
-        Util.defaultInline.process(this, node);
-    }
-
-    protected void Map_typeContext(ThriftParser.Map_typeContext node) {
-        BiPredicate<Integer, ParseTree> tightFn = (index, child) -> {
-            if (child.getParent() == null) {
-                return false;
-            }
-            if (!Util.isToken(child.getParent().getChild(index - 1), ",")) {
-                return true;
-            }
-            return false;
-        };
-        Util.genInlineContext(" ", tightFn).process(this, node);
-    }
-
-    protected void Const_listContext(ThriftParser.Const_listContext node) {
-        Util.listSeparatorInline.process(this, node);
-    }
-
-    protected void Enum_ruleContext(ThriftParser.Enum_ruleContext node) {
-        Util.genSubblocksContext(3, ThriftParser.Enum_fieldContext.class).process(this, node);
-    }
-
-    protected void Struct_Context(ThriftParser.Struct_Context node) {
-        Util.fieldSubblocks.process(this, node);
-    }
-
-    protected void Union_Context(ThriftParser.Union_Context node) {
-        Util.fieldSubblocks.process(this, node);
-    }
-
-    protected void Exception_Context(ThriftParser.Exception_Context node) {
-        Util.fieldSubblocks.process(this, node);
-    }
-
-    protected void Enum_fieldContext(ThriftParser.Enum_fieldContext node) {
-        Util.listSeparatorInline.process(this, node);
-    }
-
-    protected void FieldContext(ThriftParser.FieldContext node) {
-        Util.listSeparatorInline.process(this, node);
-    }
-
-    protected void Function_Context(ThriftParser.Function_Context node) {
-        Util.tupleTightInline.process(this, node);
-    }
-
-    protected void OnewayContext(ThriftParser.OnewayContext node) {
-        Util.genInlineContext(" ", null).process(this, node);
-    }
-
-    protected void Function_typeContext(ThriftParser.Function_typeContext node) {
-        Util.genInlineContext(" ", null).process(this, node);
-    }
-
-    protected void Throws_listContext(ThriftParser.Throws_listContext node) {
-        Util.tupleTightInline.process(this, node);
-    }
-
-    protected void Type_annotationsContext(ThriftParser.Type_annotationsContext node) {
-        Util.tupleTightInline.process(this, node);
-    }
-
-    protected void Type_annotationContext(ThriftParser.Type_annotationContext node) {
-        Util.tupleTightInline.process(this, node);
-    }
-
-    protected void Annotation_valueContext(ThriftParser.Annotation_valueContext node) {
-        Util.genInlineContext(" ", null).process(this, node);
-    }
-
-    protected void ServiceContext(ThriftParser.ServiceContext node) {
-        if (Util.isToken(node.getChild(2), "extends")) {
-            Util.genSubblocksContext(5, ThriftParser.Function_Context.class).process(this, node);
-        } else {
-            Util.genSubblocksContext(3, ThriftParser.Function_Context.class).process(this, node);
+    protected void appendToken(Token token) {
+        if (measuring) {
+            pushNewlines();
+            width += guard.tokenWidth(token);
+            return;
         }
-    }
-
-    protected void SenumContext(ThriftParser.SenumContext node) {
+        this.append(token.getText());
     }
 }
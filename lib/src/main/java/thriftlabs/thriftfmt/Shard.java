@@ -0,0 +1,86 @@
+package thriftlabs.thriftfmt;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/*
+ * Shard is one part i of N of a batch run, written as "i/N" with i counted from 1.
+ *
+ * The files are split by size: the largest files are taken first and each goes to the shard with the smallest
+ * total so far, ties going to the lower shard. Every process computes the same split from the same checkout,
+ * so the shards cover all files exactly once without talking to each other.
+ */
+public class Shard {
+    private final int index;
+    private final int count;
+
+    public Shard(int index, int count) {
+        if (count < 1 || index < 1 || index > count) {
+            throw new IllegalArgumentException("invalid shard " + index + "/" + count);
+        }
+        this.index = index;
+        this.count = count;
+    }
+
+    public static Shard parse(String text) {
+        int slash = text.indexOf('/');
+        if (slash < 0) {
+            throw new IllegalArgumentException("invalid shard " + text + ", expected i/N");
+        }
+        return new Shard(Integer.parseInt(text.substring(0, slash).trim()),
+                Integer.parseInt(text.substring(slash + 1).trim()));
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    // select returns the files of this shard, in the order of files.
+    public List<Path> select(List<Path> files) throws IOException {
+        int size = files.size();
+        long[] sizes = new long[size];
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            sizes[i] = Files.size(files.get(i));
+            order[i] = i;
+        }
+        // largest first, the path breaks ties so the order does not depend on how files were listed.
+        Arrays.sort(order, Comparator.<Integer>comparingLong(i -> -sizes[i])
+                .thenComparing(i -> files.get(i).toString()));
+
+        long[] totals = new long[count];
+        boolean[] selected = new boolean[size];
+        for (int i : order) {
+            int target = 0;
+            for (int shard = 1; shard < count; shard++) {
+                if (totals[shard] < totals[target]) {
+                    target = shard;
+                }
+            }
+            totals[target] += sizes[i];
+            selected[i] = target == index - 1;
+        }
+
+        List<Path> result = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            if (selected[i]) {
+                result.add(files.get(i));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return index + "/" + count;
+    }
+}
@@ -0,0 +1,153 @@
+package thriftlabs.thriftfmt;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+ * ShardResult is the result file of one shard of a batch run.
+ *
+ * It is a text file: a header line, the shard, the mode, then one tab separated line per file with its status,
+ * path and message. Tabs, newlines and backslashes in paths and messages are escaped. merge combines the results
+ * of all shards of a run and checks that every shard is there exactly once.
+ */
+public class ShardResult {
+    private static final String HEADER = "# thriftfmt shard result v1";
+
+    private final Shard shard;
+    private final boolean write;
+    private final List<FileResult> results;
+
+    public ShardResult(Shard shard, boolean write, List<FileResult> results) {
+        this.shard = shard;
+        this.write = write;
+        this.results = results;
+    }
+
+    public Shard getShard() {
+        return shard;
+    }
+
+    public boolean isWrite() {
+        return write;
+    }
+
+    public List<FileResult> getResults() {
+        return results;
+    }
+
+    public void write(Path file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write(HEADER + "\n");
+            writer.write("shard\t" + shard + "\n");
+            writer.write("mode\t" + (write ? "write" : "check") + "\n");
+            for (FileResult result : results) {
+                writer.write(result.getStatus() + "\t" + escape(result.getPath().toString()) + "\t"
+                        + (result.getMessage() == null ? "" : escape(result.getMessage())) + "\n");
+            }
+        }
+    }
+
+    public static ShardResult read(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(reader.readLine())) {
+                throw new IOException(file + " is not a shard result");
+            }
+            Shard shard = Shard.parse(field(reader.readLine(), "shard", file));
+            boolean write = "write".equals(field(reader.readLine(), "mode", file));
+            List<FileResult> results = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t", -1);
+                if (parts.length != 3) {
+                    throw new IOException(file + " has an invalid line: " + line);
+                }
+                String message = parts[2].isEmpty() ? null : unescape(parts[2]);
+                results.add(new FileResult(Path.of(unescape(parts[1])), FileResult.Status.valueOf(parts[0]),
+                        message));
+            }
+            return new ShardResult(shard, write, results);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(file + " is not a valid shard result: " + e.getMessage(), e);
+        }
+    }
+
+    private static String field(String line, String name, Path file) throws IOException {
+        if (line == null || !line.startsWith(name + "\t")) {
+            throw new IOException(file + " has no " + name + " line");
+        }
+        return line.substring(name.length() + 1);
+    }
+
+    // merge returns the results of all shards sorted by path, it throws when shards are missing or repeated.
+    public static List<FileResult> merge(List<ShardResult> shards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("no shard results");
+        }
+        int count = shards.get(0).shard.getCount();
+        boolean write = shards.get(0).write;
+        boolean[] seen = new boolean[count];
+        Set<Path> paths = new HashSet<>();
+        List<FileResult> merged = new ArrayList<>();
+        for (ShardResult result : shards) {
+            if (result.shard.getCount() != count || result.write != write) {
+                throw new IllegalArgumentException("shard " + result.shard + " is from another run");
+            }
+            if (seen[result.shard.getIndex() - 1]) {
+                throw new IllegalArgumentException("shard " + result.shard + " is repeated");
+            }
+            seen[result.shard.getIndex() - 1] = true;
+            for (FileResult file : result.results) {
+                if (!paths.add(file.getPath())) {
+                    throw new IllegalArgumentException(file.getPath() + " is in more than one shard");
+                }
+                merged.add(file);
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            if (!seen[i]) {
+                throw new IllegalArgumentException("shard " + (i + 1) + "/" + count + " is missing");
+            }
+        }
+        merged.sort(Comparator.comparing(FileResult::getPath));
+        return merged;
+    }
+
+    private static String escape(String text) {
+        return text.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private static String unescape(String text) {
+        StringBuilder builder = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c != '\\' || i + 1 == text.length()) {
+                builder.append(c);
+                continue;
+            }
+            char next = text.charAt(++i);
+            switch (next) {
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                default:
+                    builder.append(next);
+            }
+        }
+        return builder.toString();
+    }
+}
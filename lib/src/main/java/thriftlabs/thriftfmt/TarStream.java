@@ -0,0 +1,345 @@
+package thriftlabs.thriftfmt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/*
+ * TarStream reads and writes tar archives (ustar, with GNU long names and pax paths) entry by entry.
+ *
+ * An entry keeps its raw header blocks, so it is copied as it is and only the size and the checksum are patched
+ * when its data is replaced. A pax size record would then be stale, it is removed and the size of the header is
+ * used.
+ */
+final class TarStream {
+    static final int BLOCK = 512;
+
+    private static final int SIZE_OFFSET = 124;
+    private static final int SIZE_LENGTH = 12;
+    private static final int CHECKSUM_OFFSET = 148;
+    private static final int CHECKSUM_LENGTH = 8;
+    private static final int TYPE_OFFSET = 156;
+
+    private TarStream() {
+    }
+
+    static final class Entry {
+        // the header blocks of the entry, with the long name and pax blocks before its own header.
+        final byte[] headers;
+        final String name;
+        final boolean file;
+        final long size;
+        // the offset of the pax header block in headers, -1 when there is none.
+        final int paxHeader;
+
+        private Entry(byte[] headers, String name, boolean file, long size, int paxHeader) {
+            this.headers = headers;
+            this.name = name;
+            this.file = file;
+            this.size = size;
+            this.paxHeader = paxHeader;
+        }
+    }
+
+    static final class Reader {
+        private final InputStream in;
+        private final byte[] block = new byte[BLOCK];
+        // the bytes of the current entry which are not read yet, with the padding.
+        private long remaining;
+
+        Reader(InputStream in) {
+            this.in = in;
+        }
+
+        // next skips what is left of the current entry and returns the next one, or null at the end.
+        Entry next() throws IOException {
+            skip(remaining);
+            remaining = 0;
+            ByteArrayOutputStream headers = new ByteArrayOutputStream(BLOCK);
+            String longName = null;
+            int paxHeader = -1;
+            while (true) {
+                if (!readBlock(block)) {
+                    return null;
+                }
+                if (isZero(block)) {
+                    return null;
+                }
+                int offset = headers.size();
+                headers.write(block, 0, BLOCK);
+                char type = (char) block[TYPE_OFFSET];
+                long size = parseSize(block, 0);
+                if (type == 'x') {
+                    paxHeader = offset;
+                }
+                if (type == 'L' || type == 'x') {
+                    byte[] data = readPadded(size);
+                    headers.write(data, 0, data.length);
+                    String name = type == 'L' ? cString(data, 0, (int) size) : paxPath(data, (int) size);
+                    if (name != null) {
+                        longName = name;
+                    }
+                    continue;
+                }
+                if (type == 'K' || type == 'g') {
+                    byte[] data = readPadded(size);
+                    headers.write(data, 0, data.length);
+                    continue;
+                }
+                String name = longName != null ? longName : headerName(block);
+                boolean file = type == '0' || type == '\0' || type == '7';
+                // links and directories have no data whatever their size says.
+                long dataSize = file || type == 'S' ? size : 0;
+                remaining = padded(dataSize);
+                return new Entry(headers.toByteArray(), name, file, dataSize, paxHeader);
+            }
+        }
+
+        // readData reads the data of the current entry.
+        byte[] readData(Entry entry) throws IOException {
+            if (entry.size > Integer.MAX_VALUE - BLOCK) {
+                throw new IOException(entry.name + " is too large");
+            }
+            byte[] data = readPadded(entry.size);
+            remaining = 0;
+            return entry.size == data.length ? data : Arrays.copyOf(data, (int) entry.size);
+        }
+
+        // transferData copies the data of the current entry, with the padding, to out.
+        void transferData(OutputStream out) throws IOException {
+            byte[] buffer = new byte[BLOCK * 16];
+            while (remaining > 0) {
+                int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (n < 0) {
+                    throw new EOFException("unexpected end of tar archive");
+                }
+                out.write(buffer, 0, n);
+                remaining -= n;
+            }
+        }
+
+        private byte[] readPadded(long size) throws IOException {
+            byte[] data = new byte[(int) padded(size)];
+            int offset = 0;
+            while (offset < data.length) {
+                int n = in.read(data, offset, data.length - offset);
+                if (n < 0) {
+                    throw new EOFException("unexpected end of tar archive");
+                }
+                offset += n;
+            }
+            return data;
+        }
+
+        // readBlock reads a whole block, it returns false at the end of the stream.
+        private boolean readBlock(byte[] buffer) throws IOException {
+            int offset = 0;
+            while (offset < BLOCK) {
+                int n = in.read(buffer, offset, BLOCK - offset);
+                if (n < 0) {
+                    if (offset == 0) {
+                        return false;
+                    }
+                    throw new EOFException("unexpected end of tar archive");
+                }
+                offset += n;
+            }
+            return true;
+        }
+
+        private void skip(long count) throws IOException {
+            while (count > 0) {
+                long n = in.skip(count);
+                if (n <= 0) {
+                    if (in.read() < 0) {
+                        throw new EOFException("unexpected end of tar archive");
+                    }
+                    n = 1;
+                }
+                count -= n;
+            }
+        }
+    }
+
+    static final class Writer {
+        private final OutputStream out;
+
+        Writer(OutputStream out) {
+            this.out = out;
+        }
+
+        // write writes entry with data, which may differ from the data the entry was read with.
+        void write(Entry entry, byte[] data) throws IOException {
+            byte[] headers = entry.headers;
+            if (data.length != entry.size) {
+                headers = entry.paxHeader >= 0 ? withoutPaxSize(headers, entry.paxHeader) : headers.clone();
+                int header = headers.length - BLOCK;
+                formatSize(headers, header, data.length);
+                formatChecksum(headers, header);
+            }
+            out.write(headers);
+            out.write(data);
+            int padding = (int) (padded(data.length) - data.length);
+            out.write(new byte[padding]);
+        }
+
+        // copy copies entry as it is, with the data which is left in reader.
+        void copy(Entry entry, Reader reader) throws IOException {
+            out.write(entry.headers);
+            reader.transferData(out);
+        }
+
+        // finish writes the two zero blocks which end an archive, it does not close the stream.
+        void finish() throws IOException {
+            out.write(new byte[BLOCK * 2]);
+            out.flush();
+        }
+    }
+
+    // withoutPaxSize returns a copy of headers without the size records of the pax header at pax.
+    private static byte[] withoutPaxSize(byte[] headers, int pax) throws IOException {
+        int start = pax + BLOCK;
+        int end = start + (int) parseSize(headers, pax);
+        ByteArrayOutputStream records = new ByteArrayOutputStream(end - start);
+        for (int offset = start, length; (length = paxRecordLength(headers, offset, end)) > 0; offset += length) {
+            if (!paxRecord(headers, offset, length).startsWith("size=")) {
+                records.write(headers, offset, length);
+            }
+        }
+        if (records.size() == end - start) {
+            return headers.clone();
+        }
+        int rest = start + (int) padded(end - start);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(headers.length);
+        out.write(headers, 0, start);
+        records.writeTo(out);
+        out.write(new byte[(int) (padded(records.size()) - records.size())]);
+        out.write(headers, rest, headers.length - rest);
+        byte[] result = out.toByteArray();
+        formatSize(result, pax, records.size());
+        formatChecksum(result, pax);
+        return result;
+    }
+
+    static long padded(long size) {
+        return (size + BLOCK - 1) / BLOCK * BLOCK;
+    }
+
+    private static boolean isZero(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String headerName(byte[] block) {
+        String name = cString(block, 0, 100);
+        // ustar splits long names into a prefix and a name.
+        if (cString(block, 257, 5).equals("ustar")) {
+            String prefix = cString(block, 345, 155);
+            if (!prefix.isEmpty()) {
+                return prefix + "/" + name;
+            }
+        }
+        return name;
+    }
+
+    private static String cString(byte[] bytes, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && bytes[end] != 0) {
+            end++;
+        }
+        return new String(bytes, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    // paxPath returns the path record of pax extended headers.
+    private static String paxPath(byte[] data, int size) {
+        String path = null;
+        for (int offset = 0, length; (length = paxRecordLength(data, offset, size)) > 0; offset += length) {
+            String record = paxRecord(data, offset, length);
+            if (record.startsWith("path=")) {
+                path = record.substring("path=".length());
+            }
+        }
+        return path;
+    }
+
+    // paxRecordLength is the length of the pax record at offset, records are "LENGTH key=value\n", or -1 when there
+    // is no valid record before end.
+    private static int paxRecordLength(byte[] data, int offset, int end) {
+        int space = offset;
+        while (space < end && data[space] != ' ') {
+            space++;
+        }
+        int length;
+        try {
+            length = Integer.parseInt(new String(data, offset, space - offset, StandardCharsets.US_ASCII));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+        if (length <= space - offset + 1 || offset + length > end) {
+            return -1;
+        }
+        return length;
+    }
+
+    // paxRecord is the "key=value" of the record at offset.
+    private static String paxRecord(byte[] data, int offset, int length) {
+        int space = offset;
+        while (data[space] != ' ') {
+            space++;
+        }
+        return new String(data, space + 1, offset + length - space - 2, StandardCharsets.UTF_8);
+    }
+
+    // parseSize parses the size of the header block at header.
+    private static long parseSize(byte[] bytes, int header) throws IOException {
+        // sizes which do not fit in octal are big endian base-256 with the high bit set.
+        int start = header + SIZE_OFFSET;
+        if ((bytes[start] & 0x80) != 0) {
+            long size = bytes[start] & 0x7f;
+            for (int i = 1; i < SIZE_LENGTH; i++) {
+                size = (size << 8) | (bytes[start + i] & 0xff);
+            }
+            return size;
+        }
+        long size = 0;
+        for (int i = start; i < start + SIZE_LENGTH; i++) {
+            byte b = bytes[i];
+            if (b == 0 || (b == ' ' && size > 0)) {
+                break;
+            }
+            if (b == ' ') {
+                continue;
+            }
+            if (b < '0' || b > '7') {
+                throw new IOException("invalid tar header");
+            }
+            size = size * 8 + (b - '0');
+        }
+        return size;
+    }
+
+    private static void formatSize(byte[] headers, int header, long size) {
+        byte[] digits = String.format("%011o", size).getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(digits, 0, headers, header + SIZE_OFFSET, SIZE_LENGTH - 1);
+        headers[header + SIZE_OFFSET + SIZE_LENGTH - 1] = 0;
+    }
+
+    private static void formatChecksum(byte[] headers, int header) {
+        Arrays.fill(headers, header + CHECKSUM_OFFSET, header + CHECKSUM_OFFSET + CHECKSUM_LENGTH, (byte) ' ');
+        int sum = 0;
+        for (int i = header; i < header + BLOCK; i++) {
+            sum += headers[i] & 0xff;
+        }
+        byte[] digits = String.format("%06o", sum).getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(digits, 0, headers, header + CHECKSUM_OFFSET, 6);
+        headers[header + CHECKSUM_OFFSET + 6] = 0;
+    }
+}
@@ -1,15 +1,21 @@
 package thriftlabs.thriftfmt;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
 
+import org.antlr.v4.runtime.BufferedTokenStream;
+import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.CommonToken;
 import org.antlr.v4.runtime.ParserRuleContext;
 import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.misc.Interval;
 import org.antlr.v4.runtime.misc.Pair;
 import org.antlr.v4.runtime.tree.ParseTree;
 import org.antlr.v4.runtime.tree.TerminalNode;
@@ -20,21 +26,58 @@ import thriftlabs.thriftparser.ThriftParser;
 
 public class ThriftFormatter extends PureThriftFormatter {
 
-    private Thrift.ParserResult data;
+    private BufferedTokenStream tokens;
+    private int inputSize;
     private ThriftParser.DocumentContext document;
     private int lastTokenIndex = -1;
     private int fieldCommentPadding = 0;
+    // blockLine is the line the first token of the current block node is on, -1 before it is written.
+    private int blockLine = -1;
     private int fieldAlignByAssignPadding = 0;
-    private Map<String, Integer> fieldAlignByFieldPaddingMap;
+    private int[] fieldAlignByFieldPadding;
+    // source is the input text when token offsets can index it, tokens are copied from it without a String.
+    private CharSequence source;
+    private final BitSet patchedTokens = new BitSet();
+    private final int[] range = new int[2];
+    // sharedPatches is set when the tree was patched by another formatter, see shareFrom.
+    private boolean sharedPatches;
+    private WidthCache widthCache;
 
     public ThriftFormatter(Thrift.ParserResult data) {
-        this.data = data;
-        this.document = data.document;
-        this.fieldAlignByFieldPaddingMap = new HashMap<>();
+        this(data.tokens, data.document, data.tokens.getTokenSource().getInputStream().size());
     }
 
     public ThriftFormatter(Thrift.ParserResult data, Option opt) {
         this(data);
+        this.setRequiredOption(opt);
+    }
+
+    public ThriftFormatter(DocumentParser.Result data) {
+        this(data.tokens, data.document, data.inputSize);
+    }
+
+    public ThriftFormatter(DocumentParser.Result data, Option opt) {
+        this(data);
+        this.setRequiredOption(opt);
+    }
+
+    // The CompactTree is inflated into a new ANTLR tree, so it can be formatted again later.
+    public ThriftFormatter(CompactTree tree) {
+        this(tree.inflate());
+    }
+
+    public ThriftFormatter(CompactTree tree, Option opt) {
+        this(tree.inflate(), opt);
+    }
+
+    private ThriftFormatter(BufferedTokenStream tokens, ThriftParser.DocumentContext document, int inputSize) {
+        this.tokens = tokens;
+        this.document = document;
+        this.inputSize = inputSize;
+        this.fieldAlignByFieldPadding = new int[Util.FieldColumn.COUNT];
+    }
+
+    private void setRequiredOption(Option opt) {
         if (opt == null) {
             throw new IllegalArgumentException("Option cannot be null.");
         }
@@ -42,17 +85,144 @@ public class ThriftFormatter extends PureThriftFormatter {
     }
 
     public String format() {
-        patch();
-        return formatNode(document);
+        FormatGuard guard = this.prepare();
+        return formatNode(document, guard);
+    }
+
+    // format writes the output to stream as UTF-8 while formatting, without building the whole output first.
+    public void format(OutputStream stream) throws IOException {
+        Utf8Sink sink = Utf8Sink.of(stream);
+        FormatGuard guard = this.prepare();
+        try {
+            formatNode(document, guard, sink);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // format writes the output as UTF-8 from the position of buffer. When buffer is too small a larger one is
+    // allocated, the returned buffer holds the output and is flipped for reading.
+    public ByteBuffer format(ByteBuffer buffer) {
+        Utf8Sink sink = Utf8Sink.of(buffer);
+        FormatGuard guard = this.prepare();
+        formatNode(document, guard, sink);
+        return sink.getBuffer().flip();
+    }
+
+    private FormatGuard prepare() {
+        FormatGuard guard = this.newGuard();
+        guard.setWidthCache(this.widthCache);
+        this.checkInputLimits();
+        if (!this.sharedPatches) {
+            this.source = this.loadSource();
+            this.patchedTokens.clear();
+            patch(guard);
+        }
+        if (this.source != null) {
+            guard.setOffsetWidths(this.patchedTokens);
+        }
+        return guard;
+    }
+
+    // shareFrom makes this formatter use the tree as other patched it, with the source other loaded. Both format
+    // the same tree and have the same patch options, and other has formatted already.
+    void shareFrom(ThriftFormatter other) {
+        if (other.document != this.document || other.option.isPatchRequired() != this.option.isPatchRequired()
+                || other.option.isPatchSeparator() != this.option.isPatchSeparator()) {
+            throw new IllegalArgumentException("formatter does not format the same tree with the same patches.");
+        }
+        this.source = other.source;
+        this.patchedTokens.clear();
+        this.patchedTokens.or(other.patchedTokens);
+        this.sharedPatches = true;
+    }
+
+    void setWidthCache(WidthCache widthCache) {
+        this.widthCache = widthCache;
+    }
+
+    private CharSequence loadSource() {
+        List<Token> list = this.tokens.getTokens();
+        if (list.isEmpty()) {
+            return null;
+        }
+        CharStream input = list.get(list.size() - 1).getInputStream();
+        if (input == null || input.size() == 0) {
+            return null;
+        }
+        String text = input.getText(Interval.of(0, input.size() - 1));
+        // token offsets count code points, they are char offsets only without supplementary chars.
+        return text.length() == input.size() ? text : null;
+    }
+
+    // tokenText returns the text holding token and sets range to its bounds in it, or null without text.
+    private CharSequence tokenText(Token token) {
+        int index = token.getTokenIndex();
+        if (this.source != null && index >= 0 && !this.patchedTokens.get(index)) {
+            this.range[0] = token.getStartIndex();
+            this.range[1] = token.getStopIndex() + 1;
+            return this.source;
+        }
+        String text = token.getText();
+        if (text == null) {
+            return null;
+        }
+        this.range[0] = 0;
+        this.range[1] = text.length();
+        return text;
     }
 
-    private void patch() {
+    // trimRange trims range like String.trim does.
+    private void trimRange(CharSequence text) {
+        while (this.range[0] < this.range[1] && text.charAt(this.range[0]) <= ' ') {
+            this.range[0]++;
+        }
+        while (this.range[1] > this.range[0] && text.charAt(this.range[1] - 1) <= ' ') {
+            this.range[1]--;
+        }
+    }
+
+    // countLineBreaks counts the line breaks of range, ignoring trailing ones.
+    private int countLineBreaks(CharSequence text) {
+        int end = this.range[1];
+        while (end > this.range[0] && text.charAt(end - 1) == '\n') {
+            end--;
+        }
+        int count = 0;
+        for (int i = this.range[0]; i < end; i++) {
+            if (text.charAt(i) == '\n') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    protected void appendToken(Token token) {
+        if (token.getType() == Token.EOF) {
+            super.appendToken(token);
+            return;
+        }
+        CharSequence text = this.tokenText(token);
+        if (text == null) {
+            super.appendToken(token);
+            return;
+        }
+        this.appendRange(text, this.range[0], this.range[1]);
+    }
+
+    private void checkInputLimits() {
+        this.limits.checkInputSize(this.inputSize);
+        this.limits.checkTokenCount(this.tokens.size());
+    }
+
+    private void patch(FormatGuard guard) {
         if (this.option.isPatchRequired()) {
-            Util.walkNode(this.document, node -> this.patchFieldRequired(node));
+            Util.walkNode(this.document, node -> this.patchFieldRequired(node), guard);
         }
         if (this.option.isPatchSeparator()) {
-            Util.walkNode(this.document, node -> this.patchFieldListSeparator(node));
-            Util.walkNode(this.document, node -> this.patchRemoveLastListSeparator(node));
+            Util.walkNode(this.document, node -> this.patchFieldListSeparator(node), guard);
+            Util.walkNode(this.document, node -> this.patchRemoveLastListSeparator(node), guard);
         }
     }
 
@@ -98,6 +268,9 @@ public class ThriftFormatter extends PureThriftFormatter {
             TerminalNodeImpl comma = (TerminalNodeImpl) child.getChild(0);
             CommonToken token = (CommonToken) comma.getSymbol();
             token.setText(Option.DEFAULT_SEPARATOR);
+            if (token.getTokenIndex() >= 0) {
+                this.patchedTokens.set(token.getTokenIndex());
+            }
             return;
         }
 
@@ -157,15 +330,14 @@ public class ThriftFormatter extends PureThriftFormatter {
 
     protected void beforeSubblocks(List<ParseTree> subblocks) {
         if (this.option.isAlignByField()) {
-            Pair<Map<String, Integer>, Integer> result = Util.calcFieldAlignByFieldPaddingMap(subblocks);
-            Map<String, Integer> paddingMap = result.a;
-            Integer commentPadding = result.b;
-
-            paddingMap.forEach((key, value) -> paddingMap.put(key, this.calcAddIndentPadding(value)));
-            this.fieldAlignByFieldPaddingMap = paddingMap;
+            int commentPadding = Util.calcFieldAlignByFieldPadding(subblocks, this.fieldAlignByFieldPadding,
+                    this.guard);
+            for (int i = 0; i < this.fieldAlignByFieldPadding.length; i++) {
+                this.fieldAlignByFieldPadding[i] = this.calcAddIndentPadding(this.fieldAlignByFieldPadding[i]);
+            }
             this.fieldCommentPadding = this.calcAddIndentPadding(commentPadding);
         } else if (this.option.isAlignByAssign()) {
-            Pair<Integer, Integer> result = Util.calcFieldAlignByAssignPadding(subblocks);
+            Pair<Integer, Integer> result = Util.calcFieldAlignByAssignPadding(subblocks, this.guard);
             int alignPadding = result.a;
             int commentPadding = result.b;
             this.fieldAlignByAssignPadding = this.calcAddIndentPadding(alignPadding);
@@ -173,17 +345,21 @@ public class ThriftFormatter extends PureThriftFormatter {
         }
 
         if (this.option.isKeepComment() && this.fieldCommentPadding == 0) {
-            int commentPadding = Util.calcSubBlocksCommentPadding(subblocks);
+            int commentPadding = Util.calcSubBlocksCommentPadding(subblocks, this.guard);
             this.fieldCommentPadding = this.calcAddIndentPadding(commentPadding);
         }
     }
 
     protected void afterSubblocks(List<ParseTree> subblocks) {
         this.fieldAlignByAssignPadding = 0;
-        this.fieldAlignByFieldPaddingMap = new HashMap<>();
+        Arrays.fill(this.fieldAlignByFieldPadding, 0);
         this.fieldCommentPadding = 0;
     }
 
+    protected void beforeBlockNode(ParseTree n) {
+        this.blockLine = -1;
+    }
+
     protected void afterBlockNode(ParseTree n) {
         this.addTailComment();
     }
@@ -197,16 +373,15 @@ public class ThriftFormatter extends PureThriftFormatter {
             return;
         }
 
-        if (this.option.isAlignByField() && !this.fieldAlignByFieldPaddingMap.isEmpty()) {
-            String name = Util.getFieldChildName(n);
-            Integer padding = this.fieldAlignByFieldPaddingMap.get(name);
-            if (padding != null && padding > 0) {
+        if (this.option.isAlignByField()) {
+            int padding = this.fieldAlignByFieldPadding[Util.FieldColumn.of(n).ordinal()];
+            if (padding > 0) {
                 this.padding(padding);
             }
             return;
         }
 
-        if (this.option.isAlignByAssign() && Util.isToken(n, "=")) {
+        if (this.option.isAlignByAssign() && Util.isToken(n, Util.ASSIGN)) {
             this.padding(this.fieldAlignByAssignPadding);
             return;
         }
@@ -218,7 +393,7 @@ public class ThriftFormatter extends PureThriftFormatter {
 
     private void padding(int padding, String pad) {
         if (padding > 0) {
-            padding = padding - this.getCurrentLine().length();
+            padding = padding - this.getCurrentLineLength();
             if (padding > 0) {
                 this.appendCurrentLine(String.join("", Collections.nCopies(padding, pad)));
             }
@@ -230,11 +405,14 @@ public class ThriftFormatter extends PureThriftFormatter {
             return "";
         }
 
-        int index = this.out.lastIndexOf("\n");
-        if (index == -1) {
-            return this.out;
+        return this.out.substring(this.out.lastIndexOf("\n") + 1);
+    }
+
+    protected int getCurrentLineLength() {
+        if (this.newlineCounter > 0) {
+            return 0;
         }
-        return this.out.substring(index + 1);
+        return this.out.length() - this.out.lastIndexOf("\n") - 1;
     }
 
     private void addTailComment() {
@@ -245,28 +423,37 @@ public class ThriftFormatter extends PureThriftFormatter {
             return;
         }
 
-        List<Token> tokens = this.data.tokens.getTokens();
+        List<Token> tokens = this.tokens.getTokens();
         Token lastToken = tokens.get(this.lastTokenIndex);
-        List<Token> comments = tokens.stream()
-                .skip(this.lastTokenIndex + 1)
-                .takeWhile(token -> token.getLine() == lastToken.getLine())
-                .filter(token -> token.getChannel() == Thrift.CommentChannel)
-                .collect(Collectors.toList());
-
-        if (!comments.isEmpty()) {
-            Token comment = comments.get(0);
-            if (comment.getText() == null) {
+        Token comment = null;
+        for (int i = this.lastTokenIndex + 1; i < tokens.size(); i++) {
+            this.guard.checkpoint();
+            Token token = tokens.get(i);
+            // Only a comment directly after the last token is a tail comment.
+            if (token.getLine() != lastToken.getLine() || token.getChannel() == Token.DEFAULT_CHANNEL) {
+                break;
+            }
+            if (token.getChannel() == Thrift.CommentChannel) {
+                comment = token;
+                break;
+            }
+        }
+
+        if (comment != null) {
+            CharSequence text = this.tokenText(comment);
+            if (text == null) {
                 return;
             }
 
-            // Align comment
-            if (this.fieldCommentPadding > 0) {
+            // Align comment, the padding is the one of the fields on one line, a node split over lines is not aligned.
+            if (this.fieldCommentPadding > 0 && this.lineCount == this.blockLine) {
                 this.padding(this.fieldCommentPadding, " ");
             } else {
                 this.appendCurrentLine(" ");
             }
 
-            this.appendCurrentLine(comment.getText().trim());
+            this.trimRange(text);
+            this.appendCurrentLineRange(text, this.range[0], this.range[1]);
             this.append("");
             this.lastTokenIndex = comment.getTokenIndex();
         }
@@ -282,28 +469,30 @@ public class ThriftFormatter extends PureThriftFormatter {
         }
 
         int tokenIndex = node.getSymbol().getTokenIndex();
-        List<Token> tokens = this.data.tokens.getTokens();
-        List<Token> comments = tokens.stream()
-                .skip(this.lastTokenIndex + 1)
-                .filter(token -> token.getChannel() == Thrift.CommentChannel)
-                .filter(token -> token.getTokenIndex() < tokenIndex)
-                .collect(Collectors.toList());
-
-        for (Token token : comments) {
+        List<Token> tokens = this.tokens.getTokens();
+        // Tokens are ordered by index, so the scan stops at the current terminal.
+        int end = Math.min(tokenIndex, tokens.size());
+        for (int i = this.lastTokenIndex + 1; i < end; i++) {
+            this.guard.checkpoint();
+            Token token = tokens.get(i);
+            if (token.getChannel() != Thrift.CommentChannel) {
+                continue;
+            }
             if (token.getTokenIndex() > 0 && token.getType() == ThriftParser.ML_COMMENT) {
                 this.newline(2);
             }
-            if (token.getText() == null) {
+            CharSequence text = this.tokenText(token);
+            if (text == null) {
                 return;
             }
 
             // TODO: Confirm if clean indent is needed.
             this.pushCurrentIndent();
 
-            String text = token.getText();
-            this.append(text.trim());
+            int lastLine = token.getLine() + this.countLineBreaks(text);
+            this.trimRange(text);
+            this.appendRange(text, this.range[0], this.range[1]);
 
-            int lastLine = token.getLine() + text.split("\n").length - 1;
             int lineDiff = node.getSymbol().getLine() - lastLine;
             boolean isTight = token.getType() == ThriftParser.SL_COMMENT ||
                     Util.isEOF(node) ||
@@ -325,6 +514,10 @@ public class ThriftFormatter extends PureThriftFormatter {
         }
 
         this.addInlineComments(n);
+        if (this.blockLine < 0) {
+            // the pending newlines are written before the token.
+            this.blockLine = this.lineCount + this.newlineCounter;
+        }
 
         super.TerminalNode(n);
     }
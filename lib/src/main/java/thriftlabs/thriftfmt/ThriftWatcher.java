@@ -0,0 +1,219 @@
+package thriftlabs.thriftfmt;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/*
+ * ThriftWatcher watches a directory tree and formats the .thrift files which change in it.
+ *
+ * Events are collected until no new one arrives for the debounce duration, so a burst of writes to a file is
+ * formatted once. The content hash of every file seen is kept, a file whose content did not change since then
+ * is skipped, including the event caused by the watcher rewriting the file itself. The FileFormatter, and its
+ * warmed DfaCache, is kept for the whole session.
+ */
+public class ThriftWatcher implements Closeable {
+    private final Path root;
+    private final FileFormatter formatter;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> keys = new HashMap<>();
+    private final Map<Path, String> hashes = new HashMap<>();
+    private Duration debounce = Duration.ofMillis(200);
+    private Consumer<FileResult> listener = result -> {
+    };
+
+    public ThriftWatcher(Path root, FileFormatter formatter) throws IOException {
+        if (root == null || formatter == null) {
+            throw new IllegalArgumentException("root and formatter cannot be null.");
+        }
+        this.root = root;
+        this.formatter = formatter;
+        this.watchService = root.getFileSystem().newWatchService();
+        registerAll(root);
+    }
+
+    public void setDebounce(Duration debounce) {
+        if (debounce == null || debounce.isNegative()) {
+            throw new IllegalArgumentException("debounce must not be negative.");
+        }
+        this.debounce = debounce;
+    }
+
+    // setListener is called with the result of every file formatted.
+    public void setListener(Consumer<FileResult> listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener cannot be null.");
+        }
+        this.listener = listener;
+    }
+
+    // run watches until the watcher is closed or the thread is interrupted.
+    public void run() throws InterruptedException {
+        try {
+            while (true) {
+                Set<Path> changed = new LinkedHashSet<>();
+                collect(watchService.take(), changed);
+                WatchKey key;
+                while ((key = watchService.poll(debounce.toMillis(), TimeUnit.MILLISECONDS)) != null) {
+                    collect(key, changed);
+                }
+                process(changed);
+            }
+        } catch (ClosedWatchServiceException e) {
+            // closed, stop watching.
+        }
+    }
+
+    List<FileResult> process(Set<Path> changed) {
+        List<FileResult> results = new ArrayList<>();
+        for (Path path : changed) {
+            FileResult result = processFile(path);
+            if (result != null) {
+                results.add(result);
+                listener.accept(result);
+            }
+        }
+        return results;
+    }
+
+    private FileResult processFile(Path path) {
+        if (!Files.isRegularFile(path)) {
+            hashes.remove(path);
+            return null;
+        }
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(path);
+        } catch (IOException e) {
+            return new FileResult(path, FileResult.Status.ERROR, e.toString());
+        }
+        String hash = FileFormatter.hash(bytes);
+        if (hash.equals(hashes.get(path))) {
+            return null;
+        }
+        FileResult result = formatter.format(path, bytes);
+        if (result.getStatus() == FileResult.Status.CHANGED && formatter.isWrite()) {
+            try {
+                hash = FileFormatter.hash(Files.readAllBytes(path));
+            } catch (IOException e) {
+                hash = null;
+            }
+        }
+        if (hash != null) {
+            hashes.put(path, hash);
+        }
+        return result;
+    }
+
+    private void collect(WatchKey key, Set<Path> changed) {
+        Path dir = keys.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                // events were lost, every file is checked again and unchanged ones are skipped by their hash.
+                addAll(root, changed);
+                continue;
+            }
+            if (dir == null) {
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context());
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+                try {
+                    registerAll(path);
+                } catch (NoSuchFileException e) {
+                    // the directory went away again, its delete event follows.
+                    continue;
+                } catch (IOException e) {
+                    listener.accept(new FileResult(path, FileResult.Status.ERROR, e.toString()));
+                    continue;
+                }
+                addAll(path, changed);
+            } else if (event.kind() == ENTRY_DELETE) {
+                hashes.remove(path);
+            } else if (FileFormatter.isThriftFile(path)) {
+                changed.add(path);
+            }
+        }
+        if (!key.reset()) {
+            keys.remove(key);
+        }
+    }
+
+    // registerAll registers start and the directories under it. A directory under start which went away while
+    // walking is skipped, its delete event follows, any other failure is thrown.
+    private void registerAll(Path start) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                try {
+                    keys.put(dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), dir);
+                } catch (NoSuchFileException e) {
+                    if (dir.equals(start)) {
+                        throw e;
+                    }
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+                if (e instanceof NoSuchFileException && !file.equals(start)) {
+                    return FileVisitResult.CONTINUE;
+                }
+                throw e;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                if (e != null && (!isVanished(e) || dir.equals(start))) {
+                    throw e;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    // isVanished tells whether e is a directory listing failing because the directory was deleted.
+    private static boolean isVanished(IOException e) {
+        return e instanceof NoSuchFileException || e.getCause() instanceof NoSuchFileException;
+    }
+
+    private static void addAll(Path start, Set<Path> changed) {
+        try (Stream<Path> files = Files.walk(start)) {
+            files.filter(Files::isRegularFile).filter(FileFormatter::isThriftFile).forEach(changed::add);
+        } catch (IOException | UncheckedIOException e) {
+            // the directory went away while walking it.
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+}
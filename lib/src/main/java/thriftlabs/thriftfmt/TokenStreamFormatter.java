@@ -0,0 +1,951 @@
+package thriftlabs.thriftfmt;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.Vocabulary;
+
+import thriftlabs.thriftparser.Thrift;
+import thriftlabs.thriftparser.ThriftLexer;
+
+/*
+ * TokenStreamFormatter formats a document straight from the lexer tokens, without building a parse tree.
+ *
+ * Without alignment, wrapping and const collections one entry per line, how a node is laid out only depends on the
+ * tokens around it and on the block it is in. So a recursive descent over the tokens emits the output directly: it
+ * makes the appends, newlines and comment calls ThriftFormatter makes for the same tree, in the same order, and the
+ * output is byte for byte the same, patches and comments included. format returns null for a document outside of
+ * that, one which does not parse, has a senum or a cpp_include, or nests too deep; it is left to ThriftFormatter.
+ */
+public class TokenStreamFormatter {
+    // MAX_DEPTH bounds the nesting of types, annotations and const values, deeper documents are left to the tree.
+    private static final int MAX_DEPTH = 256;
+
+    private static final int INCLUDE = literal("include");
+    private static final int NAMESPACE = literal("namespace");
+    private static final int STAR = literal("*");
+    private static final int CPP_NAMESPACE = literal("cpp_namespace");
+    private static final int PHP_NAMESPACE = literal("php_namespace");
+    private static final int XSD_NAMESPACE = literal("xsd_namespace");
+    private static final int CONST = literal("const");
+    private static final int ASSIGN = literal("=");
+    private static final int TYPEDEF = literal("typedef");
+    private static final int ENUM = literal("enum");
+    private static final int LEFT_BRACE = literal("{");
+    private static final int RIGHT_BRACE = literal("}");
+    private static final int STRUCT = literal("struct");
+    private static final int UNION = literal("union");
+    private static final int EXCEPTION = literal("exception");
+    private static final int SERVICE = literal("service");
+    private static final int EXTENDS = literal("extends");
+    private static final int REQUIRED = literal("required");
+    private static final int OPTIONAL = literal("optional");
+    private static final int LEFT_PARENTHESIS = literal("(");
+    private static final int RIGHT_PARENTHESIS = literal(")");
+    private static final int ONEWAY = literal("oneway");
+    private static final int ASYNC = literal("async");
+    private static final int VOID = literal("void");
+    private static final int THROWS = literal("throws");
+    private static final int MAP = literal("map");
+    private static final int LESS = literal("<");
+    private static final int GREATER = literal(">");
+    private static final int SET = literal("set");
+    private static final int LIST = literal("list");
+    private static final int CPP_TYPE = literal("cpp_type");
+    private static final int LEFT_BRACKET = literal("[");
+    private static final int RIGHT_BRACKET = literal("]");
+    private static final int COLON = literal(":");
+    private static final int SEMICOLON = literal(";");
+
+    // the kinds of the nodes of the document, a blank line is put between nodes of different kinds.
+    private static final int INCLUDE_NODE = 0;
+    private static final int NAMESPACE_NODE = 1;
+    private static final int CONST_NODE = 2;
+    private static final int TYPEDEF_NODE = 3;
+    private static final int ENUM_NODE = 4;
+    private static final int STRUCT_NODE = 5;
+    private static final int UNION_NODE = 6;
+    private static final int EXCEPTION_NODE = 7;
+    private static final int SERVICE_NODE = 8;
+    private static final int EOF_NODE = 9;
+
+    private static final Unsupported UNSUPPORTED = new Unsupported();
+
+    private final Option option;
+    private final String indent;
+    private FormatLimits limits = FormatLimits.UNLIMITED;
+    private List<Token> tokens;
+    // sig holds the indexes of the tokens of the default channel in tokens, types their types.
+    private int[] sig;
+    private int[] types;
+    private int pos;
+    private int depth;
+    // source is the input text when token offsets can index it.
+    private CharSequence source;
+    private final int[] range = new int[2];
+
+    private StringBuilder out;
+    private int newlineCounter;
+    // lineCount and blockLine are the ones of ThriftFormatter, the newlines written and the line of the first token
+    // of the current header, definition or member.
+    private int lineCount;
+    private int blockLine = -1;
+    private String currentIndent;
+    private int lastTokenIndex;
+    private int fieldCommentPadding;
+    // measuring is set while the widths of the members of a block are measured, nothing is written then.
+    private boolean measuring;
+    private int width;
+
+    public TokenStreamFormatter(Option option) {
+        if (option == null) {
+            throw new IllegalArgumentException("Option cannot be null.");
+        }
+        this.option = option;
+        this.indent = " ".repeat(option.getIndent());
+    }
+
+    // setLimits sets the input size and token count limits, a nesting depth limit leaves documents to the tree,
+    // whose nesting is what it counts.
+    public void setLimits(FormatLimits limits) {
+        if (limits == null) {
+            throw new IllegalArgumentException("FormatLimits cannot be null.");
+        }
+        this.limits = limits;
+    }
+
+    // supports tells whether documents are formatted from tokens with option, alignment, wrapping and const
+    // collections one entry per line need the tree.
+    public static boolean supports(Option option) {
+        return !option.isAlignByField() && !option.isAlignByAssign() && option.getMaxLineWidth() == 0
+                && option.getConstEntryThreshold() == 0;
+    }
+
+    // format returns the formatted content, or null when content is left to ThriftFormatter. It throws
+    // FormatAbortedException when content is over the limits.
+    public String format(String content) {
+        if (content == null) {
+            throw new IllegalArgumentException("content cannot be null.");
+        }
+        if (!supports(option) || limits.getMaxNestingDepth() > 0) {
+            return null;
+        }
+        limits.checkInputSize(content.codePointCount(0, content.length()));
+        try {
+            lex(content);
+            limits.checkTokenCount(tokens.size());
+            out = new StringBuilder(content.length() + content.length() / 8);
+            newlineCounter = 0;
+            lineCount = 0;
+            blockLine = -1;
+            currentIndent = "";
+            lastTokenIndex = -1;
+            fieldCommentPadding = 0;
+            depth = 0;
+            document();
+            return out.toString();
+        } catch (Unsupported e) {
+            return null;
+        } finally {
+            tokens = null;
+            source = null;
+        }
+    }
+
+    private void lex(String content) {
+        CharStream stream = CharStreams.fromString(content);
+        ThriftLexer lexer = new ThriftLexer(stream);
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(new BaseErrorListener() {
+            @Override
+            public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line,
+                    int charPositionInLine, String msg, RecognitionException e) {
+                throw UNSUPPORTED;
+            }
+        });
+        tokens = new ArrayList<>(content.length() / 4 + 1);
+        int significant = 0;
+        Token token;
+        do {
+            token = lexer.nextToken();
+            tokens.add(token);
+            if (token.getChannel() == Token.DEFAULT_CHANNEL) {
+                significant++;
+            }
+        } while (token.getType() != Token.EOF);
+
+        sig = new int[significant];
+        types = new int[significant];
+        int n = 0;
+        for (int i = 0; i < tokens.size(); i++) {
+            if (tokens.get(i).getChannel() == Token.DEFAULT_CHANNEL) {
+                sig[n] = i;
+                types[n] = tokens.get(i).getType();
+                n++;
+            }
+        }
+        pos = 0;
+        // token offsets count code points, they are char offsets only without supplementary chars.
+        source = content.length() == stream.size() ? content : null;
+    }
+
+    private static int literal(String text) {
+        Vocabulary vocabulary = ThriftLexer.VOCABULARY;
+        String name = "'" + text + "'";
+        for (int type = 1; type <= vocabulary.getMaxTokenType(); type++) {
+            if (name.equals(vocabulary.getLiteralName(type))) {
+                return type;
+            }
+        }
+        throw new IllegalStateException("no token " + name);
+    }
+
+    /*
+     * Unsupported is thrown when the tokens are not a document the token stream handles, it has no stack trace.
+     */
+    private static final class Unsupported extends RuntimeException {
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    // type is the type of the significant token at offset from the current one, EOF past the end.
+    private int type(int offset) {
+        int index = pos + offset;
+        return index < types.length ? types[index] : Token.EOF;
+    }
+
+    private boolean isSeparator(int type) {
+        return type == ThriftLexer.COMMA || type == SEMICOLON;
+    }
+
+    private boolean isInteger(int type) {
+        return type == ThriftLexer.INTEGER || type == ThriftLexer.HEX_INTEGER;
+    }
+
+    private boolean isBaseType(int type) {
+        return type >= ThriftLexer.TYPE_BOOL && type <= ThriftLexer.TYPE_UUID;
+    }
+
+    private void expect(int type) {
+        if (type(0) != type) {
+            throw UNSUPPORTED;
+        }
+        token();
+    }
+
+    private void enter() {
+        if (++depth > MAX_DEPTH) {
+            throw UNSUPPORTED;
+        }
+    }
+
+    private void exit() {
+        depth--;
+    }
+
+    // document is processBlockNodes over the headers, the definitions and EOF.
+    private void document() {
+        int lastKind = -1;
+        boolean definitions = false;
+        while (true) {
+            int kind = nodeKind(type(0));
+            if (kind <= NAMESPACE_NODE && definitions) {
+                throw UNSUPPORTED;
+            }
+            definitions = kind > NAMESPACE_NODE;
+            if (lastKind >= 0) {
+                if (kind != lastKind || (kind >= ENUM_NODE && kind <= SERVICE_NODE)) {
+                    newline(2);
+                } else {
+                    newline(1);
+                }
+            }
+            currentIndent = "";
+            blockLine = -1;
+            switch (kind) {
+                case INCLUDE_NODE:
+                    token();
+                    space();
+                    expect(ThriftLexer.LITERAL);
+                    break;
+                case NAMESPACE_NODE:
+                    namespace();
+                    break;
+                case CONST_NODE:
+                    constRule();
+                    break;
+                case TYPEDEF_NODE:
+                    typedef();
+                    break;
+                case ENUM_NODE:
+                case STRUCT_NODE:
+                case UNION_NODE:
+                case EXCEPTION_NODE:
+                case SERVICE_NODE:
+                    block(kind);
+                    break;
+                default:
+                    token();
+            }
+            tailComment();
+            if (kind == EOF_NODE) {
+                return;
+            }
+            lastKind = kind;
+        }
+    }
+
+    private int nodeKind(int type) {
+        if (type == INCLUDE) {
+            return INCLUDE_NODE;
+        }
+        if (type == NAMESPACE || type == CPP_NAMESPACE || type == PHP_NAMESPACE || type == XSD_NAMESPACE) {
+            return NAMESPACE_NODE;
+        }
+        if (type == CONST) {
+            return CONST_NODE;
+        }
+        if (type == TYPEDEF) {
+            return TYPEDEF_NODE;
+        }
+        if (type == ENUM) {
+            return ENUM_NODE;
+        }
+        if (type == STRUCT) {
+            return STRUCT_NODE;
+        }
+        if (type == UNION) {
+            return UNION_NODE;
+        }
+        if (type == EXCEPTION) {
+            return EXCEPTION_NODE;
+        }
+        if (type == SERVICE) {
+            return SERVICE_NODE;
+        }
+        if (type == Token.EOF) {
+            return EOF_NODE;
+        }
+        // senum, cpp_include and anything which does not parse.
+        throw UNSUPPORTED;
+    }
+
+    private void namespace() {
+        int type = type(0);
+        token();
+        space();
+        if (type == XSD_NAMESPACE) {
+            expect(ThriftLexer.LITERAL);
+            return;
+        }
+        if (type != NAMESPACE) {
+            expect(ThriftLexer.IDENTIFIER);
+            return;
+        }
+        boolean star = type(0) == STAR;
+        if (!star) {
+            expect(ThriftLexer.IDENTIFIER);
+        } else {
+            token();
+        }
+        space();
+        if (type(0) != ThriftLexer.IDENTIFIER && type(0) != ThriftLexer.LITERAL) {
+            throw UNSUPPORTED;
+        }
+        token();
+        if (!star && type(0) == LEFT_PARENTHESIS) {
+            space();
+            typeAnnotations();
+        }
+    }
+
+    // constRule and typedef join every child with a space, the list separator too.
+    private void constRule() {
+        token();
+        space();
+        fieldType();
+        space();
+        expect(ThriftLexer.IDENTIFIER);
+        if (type(0) == ASSIGN) {
+            space();
+            token();
+            space();
+            constValue();
+        }
+        if (isSeparator(type(0))) {
+            space();
+            token();
+        }
+    }
+
+    private void typedef() {
+        token();
+        space();
+        fieldType();
+        space();
+        expect(ThriftLexer.IDENTIFIER);
+        if (type(0) == LEFT_PARENTHESIS) {
+            space();
+            typeAnnotations();
+        }
+        if (isSeparator(type(0))) {
+            space();
+            token();
+        }
+    }
+
+    // block is genSubblocksContext: the tokens up to "{", the members one per line, and "}" with annotations.
+    private void block(int kind) {
+        token();
+        space();
+        expect(ThriftLexer.IDENTIFIER);
+        space();
+        if (kind == SERVICE_NODE && type(0) == EXTENDS) {
+            token();
+            space();
+            expect(ThriftLexer.IDENTIFIER);
+            space();
+        }
+        expect(LEFT_BRACE);
+        newline(1);
+
+        if (option.isKeepComment()) {
+            int padding = measureMembers(kind);
+            fieldCommentPadding = padding > 0 ? padding + option.getIndent() : 0;
+        }
+        boolean first = true;
+        while (type(0) != RIGHT_BRACE) {
+            if (!first) {
+                newline(1);
+            }
+            currentIndent = indent;
+            blockLine = -1;
+            member(kind);
+            tailComment();
+            first = false;
+        }
+        fieldCommentPadding = 0;
+
+        newline(1);
+        token();
+        if (type(0) == LEFT_PARENTHESIS) {
+            space();
+            typeAnnotations();
+        }
+    }
+
+    // measureMembers is Util.calcSubBlocksCommentPadding, the widest member of the block plus one.
+    private int measureMembers(int kind) {
+        int start = pos;
+        int widest = 0;
+        measuring = true;
+        try {
+            while (type(0) != RIGHT_BRACE) {
+                width = 0;
+                member(kind);
+                widest = Math.max(widest, width);
+            }
+        } finally {
+            measuring = false;
+        }
+        pos = start;
+        return widest > 0 ? widest + 1 : 0;
+    }
+
+    private void member(int kind) {
+        if (kind == ENUM_NODE) {
+            enumField();
+        } else if (kind == SERVICE_NODE) {
+            function();
+        } else {
+            field(false);
+        }
+    }
+
+    private void enumField() {
+        expect(ThriftLexer.IDENTIFIER);
+        if (type(0) == ASSIGN) {
+            space();
+            token();
+            space();
+            integer();
+        }
+        if (type(0) == LEFT_PARENTHESIS) {
+            space();
+            typeAnnotations();
+        }
+        memberSeparator();
+    }
+
+    // field is listSeparatorInline, inline fields are the fields of functions and throws lists.
+    private void field(boolean inline) {
+        boolean any = false;
+        if (isInteger(type(0))) {
+            token();
+            expect(COLON);
+            any = true;
+        }
+        if (type(0) == REQUIRED || type(0) == OPTIONAL) {
+            if (any) {
+                space();
+            }
+            token();
+            any = true;
+        } else if (!inline && option.isPatchRequired()) {
+            if (any) {
+                space();
+            }
+            fake("required");
+            any = true;
+        }
+        if (any) {
+            space();
+        }
+        fieldType();
+        space();
+        expect(ThriftLexer.IDENTIFIER);
+        if (type(0) == ASSIGN) {
+            space();
+            token();
+            space();
+            constValue();
+        }
+        if (type(0) == LEFT_PARENTHESIS) {
+            space();
+            typeAnnotations();
+        }
+        if (inline) {
+            inlineSeparator();
+        } else {
+            memberSeparator();
+        }
+    }
+
+    // function is tupleWrapInline without a layout, the fields are tight to the parentheses.
+    private void function() {
+        if (type(0) == ONEWAY || type(0) == ASYNC) {
+            token();
+            space();
+        }
+        if (type(0) == VOID) {
+            token();
+        } else {
+            fieldType();
+        }
+        space();
+        expect(ThriftLexer.IDENTIFIER);
+        fieldList();
+        if (type(0) == THROWS) {
+            space();
+            token();
+            fieldList();
+        }
+        if (type(0) == LEFT_PARENTHESIS) {
+            space();
+            typeAnnotations();
+        }
+        memberSeparator();
+    }
+
+    private void fieldList() {
+        expect(LEFT_PARENTHESIS);
+        boolean first = true;
+        while (type(0) != RIGHT_PARENTHESIS) {
+            if (!first) {
+                space();
+            }
+            field(true);
+            first = false;
+        }
+        token();
+    }
+
+    // memberSeparator is the separator of a member of a block, the separator patch makes it a comma.
+    private void memberSeparator() {
+        if (isSeparator(type(0))) {
+            if (option.isPatchSeparator()) {
+                token(Option.DEFAULT_SEPARATOR);
+            } else {
+                token();
+            }
+        } else if (option.isPatchSeparator()) {
+            fake(Option.DEFAULT_SEPARATOR);
+        }
+    }
+
+    // inlineSeparator is the separator of an inline field, the separator patch only keeps the one of the last.
+    private void inlineSeparator() {
+        boolean separator = isSeparator(type(0));
+        if (!option.isPatchSeparator()) {
+            if (separator) {
+                token();
+            }
+            return;
+        }
+        boolean last = type(separator ? 1 : 0) == RIGHT_PARENTHESIS;
+        if (last) {
+            if (separator) {
+                token(Option.DEFAULT_SEPARATOR);
+            } else {
+                fake(Option.DEFAULT_SEPARATOR);
+            }
+        } else if (separator) {
+            pos++;
+        }
+    }
+
+    private void fieldType() {
+        enter();
+        int type = type(0);
+        if (isBaseType(type)) {
+            token();
+            if (type(0) == LEFT_PARENTHESIS) {
+                space();
+                typeAnnotations();
+            }
+        } else if (type == ThriftLexer.IDENTIFIER) {
+            token();
+        } else if (type == MAP) {
+            token();
+            if (type(0) == CPP_TYPE) {
+                cppType();
+            }
+            expect(LESS);
+            fieldType();
+            expect(ThriftLexer.COMMA);
+            space();
+            fieldType();
+            expect(GREATER);
+            containerAnnotations();
+        } else if (type == SET) {
+            token();
+            if (type(0) == CPP_TYPE) {
+                cppType();
+            }
+            expect(LESS);
+            fieldType();
+            expect(GREATER);
+            containerAnnotations();
+        } else if (type == LIST) {
+            token();
+            expect(LESS);
+            fieldType();
+            expect(GREATER);
+            if (type(0) == CPP_TYPE) {
+                cppType();
+            }
+            containerAnnotations();
+        } else {
+            throw UNSUPPORTED;
+        }
+        exit();
+    }
+
+    private void cppType() {
+        token();
+        space();
+        expect(ThriftLexer.LITERAL);
+    }
+
+    // the annotations of a container type are tight to it.
+    private void containerAnnotations() {
+        if (type(0) == LEFT_PARENTHESIS) {
+            typeAnnotations();
+        }
+    }
+
+    private void typeAnnotations() {
+        enter();
+        expect(LEFT_PARENTHESIS);
+        boolean first = true;
+        while (type(0) != RIGHT_PARENTHESIS) {
+            if (!first) {
+                space();
+            }
+            expect(ThriftLexer.IDENTIFIER);
+            if (type(0) == ASSIGN) {
+                space();
+                token();
+                space();
+                if (!isInteger(type(0)) && type(0) != ThriftLexer.LITERAL) {
+                    throw UNSUPPORTED;
+                }
+                token();
+            }
+            if (isSeparator(type(0))) {
+                // the separator patch removes the separator of an annotation followed by another one.
+                if (option.isPatchSeparator() && type(1) != RIGHT_PARENTHESIS) {
+                    pos++;
+                } else {
+                    token();
+                }
+            }
+            first = false;
+        }
+        token();
+        exit();
+    }
+
+    private void integer() {
+        if (!isInteger(type(0))) {
+            throw UNSUPPORTED;
+        }
+        token();
+    }
+
+    // constValue joins the values of lists and the entries of maps with spaces, inside the brackets too.
+    private void constValue() {
+        enter();
+        int type = type(0);
+        if (isInteger(type) || type == ThriftLexer.DOUBLE || type == ThriftLexer.LITERAL
+                || type == ThriftLexer.IDENTIFIER) {
+            token();
+        } else if (type == LEFT_BRACKET) {
+            token();
+            while (type(0) != RIGHT_BRACKET) {
+                space();
+                constValue();
+                if (isSeparator(type(0))) {
+                    token();
+                }
+            }
+            space();
+            token();
+        } else if (type == LEFT_BRACE) {
+            token();
+            while (type(0) != RIGHT_BRACE) {
+                space();
+                constValue();
+                space();
+                expect(COLON);
+                space();
+                constValue();
+                if (isSeparator(type(0))) {
+                    space();
+                    token();
+                }
+            }
+            space();
+            token();
+        } else {
+            throw UNSUPPORTED;
+        }
+        exit();
+    }
+
+    private void token() {
+        emit(null);
+    }
+
+    // token emits the current token with text instead of its own, for patched separators.
+    private void token(String text) {
+        emit(text);
+    }
+
+    // emit is ThriftFormatter.TerminalNode for the current token.
+    private void emit(String text) {
+        if (pos >= sig.length) {
+            throw UNSUPPORTED;
+        }
+        int index = sig[pos++];
+        Token token = tokens.get(index);
+        if (measuring) {
+            width += text != null ? text.length() : tokenLength(token);
+            return;
+        }
+        if (newlineCounter > 0) {
+            tailComment();
+        }
+        inlineComments(index, token);
+        startLine();
+        if (token.getType() == Token.EOF) {
+            return;
+        }
+        pushTokenIndent();
+        if (text != null) {
+            append(text);
+            return;
+        }
+        CharSequence chars = tokenText(token);
+        append(chars, range[0], range[1]);
+    }
+
+    // fake emits a token the patches add, it has no comments before it.
+    private void fake(String text) {
+        if (measuring) {
+            width += text.length();
+            return;
+        }
+        if (newlineCounter > 0) {
+            tailComment();
+        }
+        startLine();
+        pushTokenIndent();
+        append(text);
+    }
+
+    // startLine sets blockLine for the first token of a node, the pending newlines are written before it.
+    private void startLine() {
+        if (blockLine < 0) {
+            blockLine = lineCount + newlineCounter;
+        }
+    }
+
+    private void space() {
+        if (measuring) {
+            width++;
+            return;
+        }
+        append(" ");
+    }
+
+    private int tokenLength(Token token) {
+        tokenText(token);
+        return range[1] - range[0];
+    }
+
+    // tokenText returns the text holding token and sets range to its bounds in it.
+    private CharSequence tokenText(Token token) {
+        if (source != null) {
+            range[0] = token.getStartIndex();
+            range[1] = token.getStopIndex() + 1;
+            return source;
+        }
+        String text = token.getText();
+        range[0] = 0;
+        range[1] = text.length();
+        return text;
+    }
+
+    private void pushNewlines() {
+        if (newlineCounter > 0) {
+            lineCount += newlineCounter;
+            for (int i = 0; i < newlineCounter; i++) {
+                out.append('\n');
+            }
+        }
+        newlineCounter = 0;
+    }
+
+    private void append(String text) {
+        pushNewlines();
+        out.append(text);
+    }
+
+    private void append(CharSequence text, int start, int end) {
+        pushNewlines();
+        out.append(text, start, end);
+    }
+
+    private void newline(int repeat) {
+        newlineCounter = Math.max(newlineCounter, repeat);
+    }
+
+    private void pushCurrentIndent() {
+        if (currentIndent.length() > 0) {
+            append(currentIndent);
+        }
+    }
+
+    // pushTokenIndent pushes the indent before a token, it is only pushed once.
+    private void pushTokenIndent() {
+        pushCurrentIndent();
+        currentIndent = "";
+    }
+
+    private int getCurrentLineLength() {
+        if (newlineCounter > 0) {
+            return 0;
+        }
+        return out.length() - out.lastIndexOf("\n") - 1;
+    }
+
+    // tailComment is ThriftFormatter.addTailComment, a comment on the line of the last token.
+    private void tailComment() {
+        if (!option.isKeepComment() || lastTokenIndex == -1) {
+            return;
+        }
+        Token lastToken = tokens.get(lastTokenIndex);
+        Token comment = null;
+        for (int i = lastTokenIndex + 1; i < tokens.size(); i++) {
+            Token token = tokens.get(i);
+            if (token.getLine() != lastToken.getLine() || token.getChannel() == Token.DEFAULT_CHANNEL) {
+                break;
+            }
+            if (token.getChannel() == Thrift.CommentChannel) {
+                comment = token;
+                lastTokenIndex = i;
+                break;
+            }
+        }
+        if (comment == null) {
+            return;
+        }
+        CharSequence text = tokenText(comment);
+        int padding = fieldCommentPadding > 0 && lineCount == blockLine
+                ? fieldCommentPadding - getCurrentLineLength() : 1;
+        for (int i = 0; i < padding; i++) {
+            out.append(' ');
+        }
+        trimRange(text);
+        out.append(text, range[0], range[1]);
+        pushNewlines();
+    }
+
+    // inlineComments is ThriftFormatter.addInlineComments, the comments between the last token and token.
+    private void inlineComments(int index, Token token) {
+        if (!option.isKeepComment()) {
+            return;
+        }
+        for (int i = lastTokenIndex + 1; i < index; i++) {
+            Token comment = tokens.get(i);
+            if (comment.getChannel() != Thrift.CommentChannel) {
+                continue;
+            }
+            if (i > 0 && comment.getType() == ThriftLexer.ML_COMMENT) {
+                newline(2);
+            }
+            CharSequence text = tokenText(comment);
+            pushCurrentIndent();
+            int lastLine = comment.getLine() + countLineBreaks(text);
+            trimRange(text);
+            append(text, range[0], range[1]);
+
+            int lineDiff = token.getLine() - lastLine;
+            boolean isTight = comment.getType() == ThriftLexer.SL_COMMENT || token.getType() == Token.EOF
+                    || (0 < lineDiff && lineDiff <= 1);
+            newline(isTight ? 1 : 2);
+        }
+        lastTokenIndex = index;
+    }
+
+    private void trimRange(CharSequence text) {
+        while (range[0] < range[1] && text.charAt(range[0]) <= ' ') {
+            range[0]++;
+        }
+        while (range[1] > range[0] && text.charAt(range[1] - 1) <= ' ') {
+            range[1]--;
+        }
+    }
+
+    private int countLineBreaks(CharSequence text) {
+        int end = range[1];
+        while (end > range[0] && text.charAt(end - 1) == '\n') {
+            end--;
+        }
+        int count = 0;
+        for (int i = range[0]; i < end; i++) {
+            if (text.charAt(i) == '\n') {
+                count++;
+            }
+        }
+        return count;
+    }
+}
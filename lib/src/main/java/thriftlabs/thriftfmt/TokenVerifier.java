@@ -0,0 +1,444 @@
+package thriftlabs.thriftfmt;
+
+import java.util.Arrays;
+
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.misc.Interval;
+
+import thriftlabs.thriftparser.ThriftLexer;
+
+/*
+ * TokenVerifier checks that a formatted output has the same tokens as its input, ignoring whitespace and comments.
+ *
+ * The input and the output are lexed side by side in one pass, without a parse tree, and the first difference
+ * throws a FormatVerificationException, so does a character either lexer does not recognize. Only the patches
+ * enabled in the Option are allowed, where the formatter makes them: "required" inserted before the type of a
+ * struct, union or exception field, a separator inserted as or replaced by Option.DEFAULT_SEPARATOR at the end of
+ * a field, an enum field or a function, and a separator removed after a function field or an annotation which
+ * another one follows. A Shape follows the input tokens to tell where those are.
+ */
+public class TokenVerifier {
+    // the literal tokens, see Thrift.g4.
+    private static final int ASSIGN = ThriftLexer.T__8;
+    private static final int ENUM = ThriftLexer.T__10;
+    private static final int LEFT_BRACE = ThriftLexer.T__11;
+    private static final int RIGHT_BRACE = ThriftLexer.T__12;
+    private static final int STRUCT = ThriftLexer.T__14;
+    private static final int UNION = ThriftLexer.T__15;
+    private static final int EXCEPTION = ThriftLexer.T__16;
+    private static final int SERVICE = ThriftLexer.T__17;
+    private static final int COLON = ThriftLexer.T__19;
+    private static final int REQUIRED = ThriftLexer.T__20;
+    private static final int OPTIONAL = ThriftLexer.T__21;
+    private static final int LEFT_PARENTHESIS = ThriftLexer.T__22;
+    private static final int RIGHT_PARENTHESIS = ThriftLexer.T__23;
+    private static final int ONEWAY = ThriftLexer.T__24;
+    private static final int ASYNC = ThriftLexer.T__25;
+    private static final int VOID = ThriftLexer.T__26;
+    private static final int THROWS = ThriftLexer.T__27;
+    private static final int MAP = ThriftLexer.T__28;
+    private static final int LESS = ThriftLexer.T__29;
+    private static final int GREATER = ThriftLexer.T__30;
+    private static final int SET = ThriftLexer.T__31;
+    private static final int LIST = ThriftLexer.T__32;
+    private static final int LEFT_BRACKET = ThriftLexer.T__34;
+    private static final int RIGHT_BRACKET = ThriftLexer.T__35;
+    private static final int SEMICOLON = ThriftLexer.T__36;
+
+    private final Option option;
+
+    public TokenVerifier(Option option) {
+        if (option == null) {
+            throw new IllegalArgumentException("Option cannot be null.");
+        }
+        this.option = option;
+    }
+
+    public static void verify(String input, String output, Option option) {
+        new TokenVerifier(option).verify(input, output);
+    }
+
+    public void verify(String input, String output) {
+        Side in = new Side(input);
+        Side out = new Side(output);
+        Shape shape = new Shape();
+        in.next();
+        out.next();
+        while (true) {
+            Token a = in.token;
+            Token b = out.token;
+            if (a.getType() == b.getType() && sameText(in, out)) {
+                if (a.getType() == Token.EOF) {
+                    return;
+                }
+                shape.consume(a);
+                in.next();
+                out.next();
+            } else if (option.isPatchSeparator() && isSeparator(a) && isDefaultSeparator(out)
+                    && shape.isItemEnd()) {
+                shape.consume(a);
+                in.next();
+                out.next();
+            } else if (option.isPatchSeparator() && isSeparator(a) && shape.isRemovableSeparator(in.peek())) {
+                shape.consume(a);
+                in.next();
+            } else if (option.isPatchSeparator() && isDefaultSeparator(out) && !isSeparator(a)
+                    && shape.isItemEnd(a)) {
+                out.next();
+            } else if (option.isPatchRequired() && b.getType() == REQUIRED && shape.isFieldTypeStart(a)) {
+                out.next();
+            } else {
+                throw new FormatVerificationException(b.getLine(), b.getCharPositionInLine(),
+                        "expected " + describe(in) + ", found " + describe(out));
+            }
+        }
+    }
+
+    private static boolean isSeparator(Token token) {
+        return token.getType() == ThriftLexer.COMMA || token.getType() == SEMICOLON;
+    }
+
+    private static boolean isDefaultSeparator(Side side) {
+        return side.token.getType() == ThriftLexer.COMMA && side.textEquals(Option.DEFAULT_SEPARATOR);
+    }
+
+    private static boolean sameText(Side a, Side b) {
+        int length = a.length();
+        if (length != b.length()) {
+            return false;
+        }
+        if (a.text != null && b.text != null) {
+            return a.text.regionMatches(a.token.getStartIndex(), b.text, b.token.getStartIndex(), length);
+        }
+        return a.getText().equals(b.getText());
+    }
+
+    private static String describe(Side side) {
+        return side.token.getType() == Token.EOF ? "end of input" : "'" + side.getText() + "'";
+    }
+
+    /*
+     * Side is the lexer of one of the texts, positioned on its current default channel token.
+     */
+    private static final class Side {
+        private final CharStream stream;
+        private final ThriftLexer lexer;
+        // text is the string the token offsets index, null when it has supplementary chars.
+        private final String text;
+        private Token token;
+        private Token peeked;
+
+        Side(String content) {
+            stream = CharStreams.fromString(content);
+            lexer = new ThriftLexer(stream);
+            lexer.removeErrorListeners();
+            lexer.addErrorListener(new BaseErrorListener() {
+                @Override
+                public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line,
+                        int charPositionInLine, String msg, RecognitionException e) {
+                    throw new FormatVerificationException(line, charPositionInLine, msg);
+                }
+            });
+            text = content.length() == stream.size() ? content : null;
+        }
+
+        void next() {
+            if (peeked != null) {
+                token = peeked;
+                peeked = null;
+                return;
+            }
+            token = nextDefault();
+        }
+
+        // peek returns the token after token.
+        Token peek() {
+            if (peeked == null) {
+                peeked = nextDefault();
+            }
+            return peeked;
+        }
+
+        private Token nextDefault() {
+            Token next;
+            do {
+                next = lexer.nextToken();
+            } while (next.getChannel() != Token.DEFAULT_CHANNEL);
+            return next;
+        }
+
+        int length() {
+            return token.getType() == Token.EOF ? 0 : token.getStopIndex() - token.getStartIndex() + 1;
+        }
+
+        boolean textEquals(String value) {
+            return length() == value.length() && getText().equals(value);
+        }
+
+        String getText() {
+            if (token.getType() == Token.EOF) {
+                return "";
+            }
+            return stream.getText(Interval.of(token.getStartIndex(), token.getStopIndex()));
+        }
+    }
+    /*
+     * Shape follows the tokens of a document to tell where its fields, enum fields, functions and annotations
+     * begin and end. It keeps a scope for each open bracket, with the part of the current item the scope is in.
+     * The input has been parsed already, so the tokens are assumed to be in the grammar.
+     */
+    private static final class Shape {
+        // the kinds of scopes, the items of FIELDS, ENUM, SERVICE and ARGUMENTS are the ones separators patch.
+        private static final int DOCUMENT = 0;
+        private static final int FIELDS = 1;
+        private static final int ENUM_FIELDS = 2;
+        private static final int FUNCTIONS = 3;
+        private static final int ARGUMENTS = 4;
+        private static final int ANNOTATIONS = 5;
+        private static final int OTHER = 6;
+
+        // the parts of an item, from START to the ends, AFTER_NAME and the ones after it.
+        private static final int START = 0;
+        private static final int TYPE = 1;
+        private static final int ID = 2;
+        private static final int CONTAINER = 3;
+        private static final int NAME = 4;
+        private static final int FUNCTION_NAME = 5;
+        private static final int THROWS_LIST = 6;
+        private static final int VALUE = 7;
+        private static final int AFTER_NAME = 8;
+        private static final int AFTER_VALUE = 9;
+        private static final int AFTER_ARGUMENTS = 10;
+        private static final int AFTER_THROWS = 11;
+        private static final int AFTER_ANNOTATIONS = 12;
+        private static final int SEPARATED = 13;
+
+        private int[] kinds = new int[16];
+        private int[] parts = new int[16];
+        // required is whether the item of the scope has a requiredness.
+        private boolean[] required = new boolean[16];
+        private int top;
+        // block is the kind of scope the next '{' opens in the document.
+        private int block = OTHER;
+
+        Shape() {
+            kinds[0] = DOCUMENT;
+        }
+
+        // consume moves past token, the current token of the input.
+        void consume(Token token) {
+            int type = token.getType();
+            int kind = kinds[top];
+            if (kind == DOCUMENT) {
+                if (type == STRUCT || type == UNION || type == EXCEPTION) {
+                    block = FIELDS;
+                } else if (type == ENUM) {
+                    block = ENUM_FIELDS;
+                } else if (type == SERVICE) {
+                    block = FUNCTIONS;
+                } else if (type == LEFT_BRACE) {
+                    open(block);
+                    block = OTHER;
+                    return;
+                }
+            } else if (isItems(kind)) {
+                if (isEnded(parts[top]) && !isContinuation(parts[top], type)) {
+                    parts[top] = isSeparator(token) ? SEPARATED : START;
+                    required[top] = false;
+                    if (isSeparator(token)) {
+                        return;
+                    }
+                }
+                if (item(kind, type)) {
+                    return;
+                }
+            }
+            if (type == LEFT_PARENTHESIS) {
+                open(kind == FUNCTIONS && (parts[top] == FUNCTION_NAME || parts[top] == THROWS_LIST) ? ARGUMENTS
+                        : ANNOTATIONS);
+            } else if (type == LEFT_BRACE || type == LEFT_BRACKET || type == LESS) {
+                open(OTHER);
+            } else if ((type == RIGHT_BRACE || type == RIGHT_PARENTHESIS || type == RIGHT_BRACKET
+                    || type == GREATER) && top > 0) {
+                top--;
+                if (isItems(kinds[top])) {
+                    parts[top] = closed(parts[top]);
+                }
+            }
+        }
+
+        // item moves the item of the top scope past a token which is not a bracket, it returns false for brackets.
+        private boolean item(int kind, int type) {
+            int part = parts[top];
+            if (part == SEPARATED) {
+                part = START;
+            }
+            switch (part) {
+                case START:
+                    if (kind == ENUM_FIELDS && type == ThriftLexer.IDENTIFIER) {
+                        part = AFTER_NAME;
+                    } else if (kind != ENUM_FIELDS && kind != FUNCTIONS && isInteger(type)) {
+                        part = ID;
+                    } else if (kind == FUNCTIONS && (type == ONEWAY || type == ASYNC)) {
+                        part = TYPE;
+                    } else {
+                        part = type(kind, type, part);
+                    }
+                    break;
+                case ID:
+                    part = type == COLON ? TYPE : ID;
+                    break;
+                case TYPE:
+                    part = type(kind, type, part);
+                    break;
+                case NAME:
+                    if (type == ThriftLexer.IDENTIFIER) {
+                        part = kind == FUNCTIONS ? FUNCTION_NAME : AFTER_NAME;
+                    }
+                    break;
+                case AFTER_NAME:
+                    part = type == ASSIGN ? VALUE : part;
+                    break;
+                case AFTER_ARGUMENTS:
+                    part = type == THROWS ? THROWS_LIST : part;
+                    break;
+                case VALUE:
+                    if (type != LEFT_BRACE && type != LEFT_BRACKET) {
+                        part = AFTER_VALUE;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            parts[top] = part;
+            return !isBracket(type);
+        }
+
+        // type moves past a token at the start of a type, or a requiredness before it.
+        private int type(int kind, int type, int part) {
+            if (type == REQUIRED || type == OPTIONAL) {
+                required[top] = true;
+                return TYPE;
+            }
+            if (type == MAP || type == SET || type == LIST) {
+                return CONTAINER;
+            }
+            if (type == VOID || type == ThriftLexer.IDENTIFIER || isBaseType(type)) {
+                return NAME;
+            }
+            return part;
+        }
+
+        // closed is the part of an item after a bracket it opened is closed.
+        private static int closed(int part) {
+            switch (part) {
+                case CONTAINER:
+                    return NAME;
+                case VALUE:
+                    return AFTER_VALUE;
+                case FUNCTION_NAME:
+                    return AFTER_ARGUMENTS;
+                case THROWS_LIST:
+                    return AFTER_THROWS;
+                case AFTER_NAME:
+                case AFTER_VALUE:
+                case AFTER_ARGUMENTS:
+                case AFTER_THROWS:
+                    return AFTER_ANNOTATIONS;
+                default:
+                    return part;
+            }
+        }
+
+        private void open(int kind) {
+            if (++top == kinds.length) {
+                kinds = Arrays.copyOf(kinds, top * 2);
+                parts = Arrays.copyOf(parts, top * 2);
+                required = Arrays.copyOf(required, top * 2);
+            }
+            kinds[top] = kind;
+            parts[top] = START;
+            required[top] = false;
+        }
+
+        // isItemEnd is whether a separator can end the current item of the top scope.
+        boolean isItemEnd() {
+            return isItems(kinds[top]) && isEnded(parts[top]);
+        }
+
+        // isItemEnd is whether the current item of the top scope ends before next, the current token.
+        boolean isItemEnd(Token next) {
+            return isItemEnd() && !isContinuation(parts[top], next.getType());
+        }
+
+        // isRemovableSeparator is whether the patch removes the separator before next: the one of a function field
+        // or an annotation which another one follows.
+        boolean isRemovableSeparator(Token next) {
+            int kind = kinds[top];
+            return (kind == ANNOTATIONS || kind == ARGUMENTS && isEnded(parts[top]))
+                    && next.getType() != RIGHT_PARENTHESIS;
+        }
+
+        // isFieldTypeStart is whether next, the current token, starts the type of a struct field without a
+        // requiredness.
+        boolean isFieldTypeStart(Token next) {
+            if (kinds[top] != FIELDS) {
+                return false;
+            }
+            int part = parts[top];
+            boolean start = part == START || part == SEPARATED || isEnded(part) && !isContinuation(part,
+                    next.getType());
+            if (start) {
+                return !isInteger(next.getType()) && type(next.getType());
+            }
+            return part == TYPE && !required[top] && type(next.getType());
+        }
+
+        private static boolean type(int type) {
+            return type == MAP || type == SET || type == LIST || type == ThriftLexer.IDENTIFIER
+                    || isBaseType(type);
+        }
+
+        private static boolean isItems(int kind) {
+            return kind == FIELDS || kind == ENUM_FIELDS || kind == FUNCTIONS || kind == ARGUMENTS;
+        }
+
+        private static boolean isEnded(int part) {
+            return part >= AFTER_NAME && part <= AFTER_ANNOTATIONS;
+        }
+
+        // isContinuation is whether a token of type after part belongs to the same item.
+        private static boolean isContinuation(int part, int type) {
+            switch (part) {
+                case AFTER_NAME:
+                    return type == ASSIGN || type == LEFT_PARENTHESIS;
+                case AFTER_VALUE:
+                case AFTER_THROWS:
+                    return type == LEFT_PARENTHESIS;
+                case AFTER_ARGUMENTS:
+                    return type == THROWS || type == LEFT_PARENTHESIS;
+                default:
+                    return false;
+            }
+        }
+
+        private static boolean isInteger(int type) {
+            return type == ThriftLexer.INTEGER || type == ThriftLexer.HEX_INTEGER;
+        }
+
+        private static boolean isBaseType(int type) {
+            return type >= ThriftLexer.TYPE_BOOL && type <= ThriftLexer.TYPE_UUID;
+        }
+
+        private static boolean isBracket(int type) {
+            return type == LEFT_BRACE || type == RIGHT_BRACE || type == LEFT_PARENTHESIS
+                    || type == RIGHT_PARENTHESIS || type == LEFT_BRACKET || type == RIGHT_BRACKET || type == LESS
+                    || type == GREATER;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package thriftlabs.thriftfmt;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+/*
+ * Utf8Sink encodes chars to UTF-8 into an OutputStream or a ByteBuffer.
+ *
+ * Chars are encoded into a small chunk which is drained to the target when full, ASCII chars (nearly all of
+ * an IDL) are copied by a tight loop. The ByteBuffer target is replaced by a larger one when it is full.
+ * Surrogate pairs must not be split between two writes, the formatter only writes whole lines.
+ */
+class Utf8Sink {
+    private static final int CHUNK_SIZE = 8192;
+
+    private final OutputStream stream;
+    private ByteBuffer buffer;
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private int chunkLength;
+
+    private Utf8Sink(OutputStream stream, ByteBuffer buffer) {
+        this.stream = stream;
+        this.buffer = buffer;
+    }
+
+    static Utf8Sink of(OutputStream stream) {
+        if (stream == null) {
+            throw new IllegalArgumentException("OutputStream cannot be null.");
+        }
+        return new Utf8Sink(stream, null);
+    }
+
+    static Utf8Sink of(ByteBuffer buffer) {
+        if (buffer == null) {
+            throw new IllegalArgumentException("ByteBuffer cannot be null.");
+        }
+        return new Utf8Sink(null, buffer);
+    }
+
+    ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    void write(CharSequence text, int start, int end) {
+        int i = start;
+        while (i < end) {
+            // ASCII fast path, bounded by the room left in the chunk.
+            int limit = Math.min(end, i + CHUNK_SIZE - chunkLength);
+            while (i < limit) {
+                char c = text.charAt(i);
+                if (c >= 0x80) {
+                    break;
+                }
+                chunk[chunkLength++] = (byte) c;
+                i++;
+            }
+            if (chunkLength > CHUNK_SIZE - 4) {
+                drain();
+            }
+            if (i < end && text.charAt(i) >= 0x80) {
+                i = writeNonAscii(text, i, end);
+            }
+        }
+    }
+
+    private int writeNonAscii(CharSequence text, int i, int end) {
+        char c = text.charAt(i);
+        if (c < 0x800) {
+            chunk[chunkLength++] = (byte) (0xc0 | (c >> 6));
+            chunk[chunkLength++] = (byte) (0x80 | (c & 0x3f));
+        } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(text.charAt(i + 1))) {
+            int codePoint = Character.toCodePoint(c, text.charAt(i + 1));
+            chunk[chunkLength++] = (byte) (0xf0 | (codePoint >> 18));
+            chunk[chunkLength++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+            chunk[chunkLength++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+            chunk[chunkLength++] = (byte) (0x80 | (codePoint & 0x3f));
+            i++;
+        } else if (Character.isSurrogate(c)) {
+            // a lone surrogate is replaced like String.getBytes does.
+            chunk[chunkLength++] = '?';
+        } else {
+            chunk[chunkLength++] = (byte) (0xe0 | (c >> 12));
+            chunk[chunkLength++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            chunk[chunkLength++] = (byte) (0x80 | (c & 0x3f));
+        }
+        if (chunkLength > CHUNK_SIZE - 4) {
+            drain();
+        }
+        return i + 1;
+    }
+
+    void flush() {
+        drain();
+        if (stream != null) {
+            try {
+                stream.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private void drain() {
+        if (chunkLength == 0) {
+            return;
+        }
+        if (stream != null) {
+            try {
+                stream.write(chunk, 0, chunkLength);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } else {
+            if (buffer.remaining() < chunkLength) {
+                int capacity = Math.max(buffer.capacity() * 2, buffer.position() + chunkLength);
+                ByteBuffer larger = buffer.isDirect() ? ByteBuffer.allocateDirect(capacity)
+                        : ByteBuffer.allocate(capacity);
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+            buffer.put(chunk, 0, chunkLength);
+        }
+        chunkLength = 0;
+    }
+}
@@ -1,17 +1,15 @@
 package thriftlabs.thriftfmt;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.function.BiPredicate;
 import java.util.function.Consumer;
 
 import org.antlr.v4.runtime.CommonToken;
-import org.antlr.v4.runtime.ParserRuleContext;
 import org.antlr.v4.runtime.misc.Pair;
+import org.antlr.v4.runtime.tree.ErrorNode;
 import org.antlr.v4.runtime.tree.ParseTree;
 import org.antlr.v4.runtime.tree.TerminalNode;
 import org.antlr.v4.runtime.tree.TerminalNodeImpl;
@@ -22,8 +20,19 @@ class Util {
     public static final int FAKE_NODE_LINE_NO = -1;
     public static final int FAKE_TOKEN_INDEX = -1; // 用于 token
 
-    public static boolean isToken(ParseTree node, String text) {
-        return node instanceof TerminalNode && ((TerminalNode) node).getSymbol().getText().equals(text);
+    // the literal tokens compared by type, see Thrift.g4.
+    static final int ASSIGN = ThriftParser.T__8;
+    static final int LEFT_BRACE = ThriftParser.T__11;
+    static final int RIGHT_BRACE = ThriftParser.T__12;
+    static final int EXTENDS = ThriftParser.T__18;
+    static final int LEFT_PARENTHESIS = ThriftParser.T__22;
+    static final int RIGHT_PARENTHESIS = ThriftParser.T__23;
+    static final int LEFT_BRACKET = ThriftParser.T__34;
+    static final int RIGHT_BRACKET = ThriftParser.T__35;
+
+    // isToken compares the type of the token, its text is not made into a String.
+    public static boolean isToken(ParseTree node, int type) {
+        return node instanceof TerminalNode && ((TerminalNode) node).getSymbol().getType() == type;
     }
 
     public static boolean isEOF(ParseTree node) {
@@ -54,77 +63,74 @@ class Util {
                 node instanceof ThriftParser.ServiceContext;
     }
 
-    public static Pair<ParseTree, ParseTree> splitFieldByAssign(ParseTree node) {
+    public static int getFieldAssignSplitIndex(ParseTree node) {
         /*
-         * 将字段的子节点以等号分割为 [左, 右]
+         * 将字段的子节点以等号分割为 [0, index) 和 [index, count)
          * 字段: '1: required i32 number_a = 0,'
          * 左: '1: required i32 number_a'
          * 右: '= 0,'
          */
-        ParserRuleContext left;
-        ParserRuleContext right;
-        Pair<List<ParseTree>, List<ParseTree>> splitChildren;
-
-        if (node instanceof ThriftParser.FieldContext) {
-            ThriftParser.FieldContext field = (ThriftParser.FieldContext) node;
-            left = new ThriftParser.FieldContext(field.getParent(), 0);
-            right = new ThriftParser.FieldContext(field.getParent(), 0);
-            splitChildren = splitFieldChildrenByAssign(field);
-        } else if (node instanceof ThriftParser.Enum_fieldContext) {
-            ThriftParser.Enum_fieldContext field = (ThriftParser.Enum_fieldContext) node;
-            left = new ThriftParser.Enum_fieldContext(field.getParent(), 0);
-            right = new ThriftParser.Enum_fieldContext(field.getParent(), 0);
-            splitChildren = splitFieldChildrenByAssign(field);
-        } else {
-            return null;
+        int childCount = node.getChildCount();
+        for (int i = 0; i < childCount; i++) {
+            ParseTree child = node.getChild(i);
+            if (isToken(child, ASSIGN) || child instanceof ThriftParser.List_separatorContext) {
+                return i;
+            }
         }
+        return childCount;
+    }
 
-        for (ParseTree child : splitChildren.a) {
-            left.addAnyChild(child);
-        }
-        for (ParseTree child : splitChildren.b) {
-            right.addAnyChild(child);
+    // measureChildWidths measures every child of node once and returns the widths, reusing buffer if large enough.
+    public static int[] measureChildWidths(ParseTree node, PureThriftFormatter measurer, FormatGuard guard,
+            int[] buffer) {
+        int childCount = node.getChildCount();
+        int[] widths = buffer.length >= childCount ? buffer : new int[childCount];
+        for (int i = 0; i < childCount; i++) {
+            widths[i] = measureWidth(node.getChild(i), measurer, guard);
         }
-        return new Pair<ParseTree, ParseTree>(left, right);
+        return widths;
     }
 
-    public static Pair<List<ParseTree>, List<ParseTree>> splitFieldChildrenByAssign(ParserRuleContext node) {
-        List<ParseTree> children = new ArrayList<>();
-        for (int i = 0; i < node.getChildCount(); i++) {
-            children.add(node.getChild(i));
+    // measureWidth is the width of node measured by measurer, taken from the width cache of guard if it has one.
+    static int measureWidth(ParseTree node, PureThriftFormatter measurer, FormatGuard guard) {
+        WidthCache cache = guard.getWidthCache();
+        if (cache == null) {
+            return measurer.measureNode(node, guard);
         }
-
-        int i = 0;
-        boolean curLeft = true;
-
-        for (; i < node.getChildCount(); i++) {
-            ParseTree child = node.getChild(i);
-            if (isToken(child, "=") || child instanceof ThriftParser.List_separatorContext) {
-                curLeft = false;
-                break;
-            }
+        int width = cache.get(node);
+        if (width < 0) {
+            width = measurer.measureNode(node, guard);
+            cache.put(node, width);
         }
+        return width;
+    }
 
-        if (curLeft) {
-            i++;
+    // getFieldRangeWidth is the width of children [from, to) joined like listSeparatorInline.
+    public static int getFieldRangeWidth(ParseTree node, int[] widths, int from, int to) {
+        int width = 0;
+        for (int i = from; i < to; i++) {
+            if (i > from && !(node.getChild(i) instanceof ThriftParser.List_separatorContext)) {
+                width += 1;
+            }
+            width += widths[i];
         }
-
-        List<ParseTree> left = children.subList(0, i);
-        List<ParseTree> right = children.subList(i, children.size());
-        return new Pair<List<ParseTree>, List<ParseTree>>(left, right);
+        return width;
     }
 
-    public static Pair<Integer, Integer> getSplitFieldsLeftRightSize(List<ParseTree> fields) {
+    public static Pair<Integer, Integer> getSplitFieldsLeftRightSize(List<ParseTree> fields, FormatGuard guard) {
         int leftMaxSize = 0;
         int rightMaxSize = 0;
 
+        PureThriftFormatter measurer = new PureThriftFormatter();
+        int[] widths = new int[0];
         for (ParseTree field : fields) {
-            Pair<ParseTree, ParseTree> split = splitFieldByAssign(field);
-            if (split == null) {
+            if (!isFieldOrEnumField(field)) {
                 break;
             }
-            int leftSize = new PureThriftFormatter().formatNode(split.a).length();
-            int rightSize = new PureThriftFormatter().formatNode(split.b).length();
+            widths = measureChildWidths(field, measurer, guard, widths);
+            int splitIndex = getFieldAssignSplitIndex(field);
+            int leftSize = getFieldRangeWidth(field, widths, 0, splitIndex);
+            int rightSize = getFieldRangeWidth(field, widths, splitIndex, field.getChildCount());
 
             leftMaxSize = Math.max(leftMaxSize, leftSize);
             rightMaxSize = Math.max(rightMaxSize, rightSize);
@@ -145,64 +151,402 @@ class Util {
     public static NodeProcessFunc genInlineContext(String join, BiPredicate<Integer, ParseTree> tightFn) {
         return new NodeProcessFunc() {
             @Override
-            public void process(PureThriftFormatter formatter, ParseTree node) {
+            public ParseTree process(PureThriftFormatter formatter, PureThriftFormatter.Frame frame) {
+                ParseTree node = frame.node;
+                int i = frame.index;
+                if (i >= node.getChildCount()) {
+                    return null;
+                }
+                ParseTree child = node.getChild(i);
+                if (i > 0 && !join.isEmpty()) {
+                    if (tightFn == null || !tightFn.test(i, child)) {
+                        formatter.append(join);
+                    }
+                }
+                frame.index = i + 1;
+                return child;
+            }
+        };
+    }
+
+    // the steps of the functions below, every function starts at STEP_START.
+    private static final int STEP_START = 0;
+    private static final int STEP_WRAP = 1;
+    private static final int STEP_ENTRIES = 1;
+    private static final int STEP_BLOCK = 1;
+    private static final int STEP_REST = 2;
+
+    /*
+     * genWrapInlineContext works like genInlineContext, and the children between the open and close tokens
+     * become a group which is wrapped one child per line when it does not fit in Option.maxLineWidth.
+     */
+    public static NodeProcessFunc genWrapInlineContext(String join, BiPredicate<Integer, ParseTree> tightFn,
+            int open, int close) {
+        NodeProcessFunc inline = genInlineContext(join, tightFn);
+        return new NodeProcessFunc() {
+            @Override
+            public ParseTree process(PureThriftFormatter formatter, PureThriftFormatter.Frame frame) {
+                ParseTree node = frame.node;
+                int childCount = node.getChildCount();
+                if (frame.step == STEP_START) {
+                    if (!start(formatter, frame)) {
+                        // the node is processed inline from here on.
+                        frame.func = inline;
+                        return inline.process(formatter, frame);
+                    }
+                    frame.step = STEP_WRAP;
+                }
+
+                int i = frame.index;
+                // the child before i has been processed.
+                if (i - 1 == frame.openIndex) {
+                    formatter.indent();
+                } else if (i - 1 == frame.closeIndex) {
+                    formatter.endGroup();
+                }
+                if (i >= childCount) {
+                    return null;
+                }
+
+                ParseTree child = node.getChild(i);
+                if (i > 0) {
+                    boolean tight = join.isEmpty() || (tightFn != null && tightFn.test(i, child));
+                    if (i == frame.closeIndex) {
+                        formatter.dedent();
+                    }
+                    if (i > frame.openIndex && i <= frame.closeIndex
+                            && (!tight || i == frame.openIndex + 1 || i == frame.closeIndex)) {
+                        formatter.softline(tight ? "" : join);
+                    } else if (!tight) {
+                        formatter.append(join);
+                    }
+                }
+                if (i == frame.openIndex) {
+                    formatter.beginGroup();
+                }
+                frame.index = i + 1;
+                return child;
+            }
+
+            // start finds the open and close tokens, it returns false when there is no group to wrap.
+            private boolean start(PureThriftFormatter formatter, PureThriftFormatter.Frame frame) {
+                if (!formatter.isLayoutEnabled()) {
+                    return false;
+                }
+                ParseTree node = frame.node;
+                int openIndex = -1;
+                int closeIndex = -1;
                 for (int i = 0; i < node.getChildCount(); i++) {
                     ParseTree child = node.getChild(i);
-                    if (i > 0 && !join.isEmpty()) {
-                        if (tightFn == null || !tightFn.test(i, child)) {
-                            formatter.append(join);
-                        }
+                    if (openIndex == -1 && isToken(child, open)) {
+                        openIndex = i;
+                    } else if (openIndex != -1 && isToken(child, close)) {
+                        closeIndex = i;
+                    }
+                }
+                if (openIndex == -1 || closeIndex <= openIndex + 1) {
+                    return false;
+                }
+                frame.openIndex = openIndex;
+                frame.closeIndex = closeIndex;
+                return true;
+            }
+        };
+    }
+
+    /*
+     * genConstCollectionContext formats const lists and maps with more than Option.constEntryThreshold entries
+     * one entry per line, the entries are streamed in a loop and map entries are emitted without processing
+     * Const_map_entryContext itself. Smaller collections fall back to inline.
+     */
+    public static NodeProcessFunc genConstCollectionContext(NodeProcessFunc inline, Class<?> entryClass) {
+        return new NodeProcessFunc() {
+            @Override
+            public ParseTree process(PureThriftFormatter formatter, PureThriftFormatter.Frame frame) {
+                if (frame.step == STEP_START) {
+                    if (!start(formatter, frame)) {
+                        frame.func = inline;
+                        return inline.process(formatter, frame);
+                    }
+                    frame.step = STEP_ENTRIES;
+                }
+
+                ParseTree node = frame.node;
+                int childCount = node.getChildCount();
+                while (true) {
+                    int i = frame.index;
+                    if (i == 0) {
+                        frame.index = 1;
+                        return node.getChild(0);
+                    }
+                    if (i == childCount - 1) {
+                        formatter.newline();
+                        formatter.setCurrentIndent(frame.indent);
+                        frame.index = childCount;
+                        return node.getChild(i);
+                    }
+                    if (i >= childCount) {
+                        return null;
+                    }
+
+                    ParseTree child = node.getChild(i);
+                    if (child instanceof ThriftParser.List_separatorContext) {
+                        frame.index = i + 1;
+                        return child;
+                    }
+                    if (!(child instanceof ThriftParser.Const_map_entryContext)) {
+                        formatter.newline();
+                        formatter.setCurrentIndent(frame.entryIndent);
+                        frame.index = i + 1;
+                        return child;
                     }
-                    formatter.processNode(child);
+                    // frame.sub is the next child of the map entry, 0 before the entry is started.
+                    ParseTree entry = nextConstMapEntryChild(formatter, frame, child);
+                    if (entry != null) {
+                        return entry;
+                    }
+                    frame.sub = 0;
+                    frame.index = i + 1;
                 }
             }
+
+            // start measures the keys and the indents, it returns false when the collection is inline.
+            private boolean start(PureThriftFormatter formatter, PureThriftFormatter.Frame frame) {
+                ParseTree node = frame.node;
+                int threshold = formatter.option.getConstEntryThreshold();
+                int childCount = node.getChildCount();
+                if (threshold <= 0 || childCount < 2 || countChildren(node, entryClass) <= threshold) {
+                    return false;
+                }
+
+                // keyWidths[i] is the key width of the map entry at child i, only measured when aligning.
+                frame.keyWidths = null;
+                frame.keyWidth = 0;
+                if (formatter.option.isAlignConstEntries() && entryClass == ThriftParser.Const_map_entryContext.class) {
+                    PureThriftFormatter measurer = new PureThriftFormatter();
+                    frame.keyWidths = new int[childCount];
+                    for (int i = 1; i < childCount - 1; i++) {
+                        ParseTree key = node.getChild(i).getChild(0);
+                        frame.keyWidths[i] = measureWidth(key, measurer, formatter.guard);
+                        frame.keyWidth = Math.max(frame.keyWidth, frame.keyWidths[i]);
+                    }
+                }
+
+                frame.indent = " ".repeat(formatter.getCurrentLineIndent());
+                frame.entryIndent = frame.indent + " ".repeat(formatter.option.getIndent());
+                return true;
+            }
         };
     }
 
+    // nextConstMapEntryChild returns the next child of the map entry at frame.index, or null after the last.
+    private static ParseTree nextConstMapEntryChild(PureThriftFormatter formatter, PureThriftFormatter.Frame frame,
+            ParseTree entry) {
+        int j = frame.sub;
+        if (j == 0) {
+            formatter.newline();
+            formatter.setCurrentIndent(frame.entryIndent);
+        } else if (j == 1 && frame.keyWidths != null) {
+            int keyPadding = frame.keyWidth - frame.keyWidths[frame.index];
+            if (keyPadding > 0) {
+                formatter.append(" ".repeat(keyPadding));
+            }
+        }
+        if (j >= entry.getChildCount()) {
+            return null;
+        }
+        ParseTree child = entry.getChild(j);
+        if (j > 0 && !(child instanceof ThriftParser.List_separatorContext)) {
+            formatter.append(" ");
+        }
+        frame.sub = j + 1;
+        return child;
+    }
+
+    private static int countChildren(ParseTree node, Class<?> targetClass) {
+        int count = 0;
+        for (int i = 0; i < node.getChildCount(); i++) {
+            if (targetClass.isInstance(node.getChild(i))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
     public static NodeProcessFunc genSubblocksContext(int start, Class<?> kindClass) {
         return new NodeProcessFunc() {
             @Override
-            public void process(PureThriftFormatter formatter, ParseTree node) {
-                List<ParseTree> children = getNodeChildren(node);
-                formatter.processInlineNodes(children.subList(0, start), " ");
-                formatter.newline();
+            public ParseTree process(PureThriftFormatter formatter, PureThriftFormatter.Frame frame) {
+                ParseTree node = frame.node;
+                if (frame.step == STEP_START) {
+                    int i = frame.index;
+                    if (i < start) {
+                        if (i > 0) {
+                            formatter.append(" ");
+                        }
+                        frame.index = i + 1;
+                        return node.getChild(i);
+                    }
+                    formatter.newline();
+
+                    List<ParseTree> children = getNodeChildren(node);
+                    Pair<List<ParseTree>, List<ParseTree>> result = splitRepeatNodes(
+                            children.subList(start, children.size()), kindClass);
+                    frame.nodes = result.a;
+                    frame.rest = result.b;
+                    frame.indent = " ".repeat(formatter.option.getIndent());
+                    frame.step = STEP_BLOCK;
+                    formatter.beforeSubblocks(frame.nodes);
+                }
+                if (frame.step == STEP_BLOCK) {
+                    ParseTree child = processBlockNodes(formatter, frame);
+                    if (child != null) {
+                        return child;
+                    }
+                    formatter.afterSubblocks(frame.nodes);
+                    formatter.newline();
+                    frame.step = STEP_REST;
+                    frame.sub = 0;
+                }
 
-                List<ParseTree> leftChildren = children.subList(start, children.size());
-                Pair<List<ParseTree>, List<ParseTree>> result = splitRepeatNodes(leftChildren, kindClass);
-                List<ParseTree> subblocks = result.a;
-                List<ParseTree> leftNodes = result.b;
+                // the rest is processed inline, joined with spaces.
+                int i = frame.sub;
+                if (i >= frame.rest.size()) {
+                    return null;
+                }
+                if (i > 0) {
+                    formatter.append(" ");
+                }
+                frame.sub = i + 1;
+                return frame.rest.get(i);
+            }
+        };
+    }
 
-                formatter.beforeSubblocks(subblocks);
-                formatter.processBlockNodes(subblocks, " ".repeat(formatter.option.getIndent()));
-                formatter.afterSubblocks(subblocks);
+    /*
+     * processBlockNodes returns the next of frame.nodes, one per line with frame.indent, or null after the last.
+     * frame.sub is the count of the nodes started, the one before it has been processed when it is not 0.
+     */
+    static ParseTree processBlockNodes(PureThriftFormatter formatter, PureThriftFormatter.Frame frame) {
+        List<ParseTree> nodes = frame.nodes;
+        int index = frame.sub;
+        ParseTree lastNode = index > 0 ? blockNode(nodes.get(index - 1)) : null;
+        if (lastNode != null) {
+            formatter.afterBlockNode(lastNode);
+        }
+        if (index >= nodes.size()) {
+            return null;
+        }
 
+        ParseTree node = blockNode(nodes.get(index));
+        formatter.beforeBlockNode(node);
+        if (lastNode != null) {
+            if (!lastNode.getClass().equals(node.getClass()) || isNeedNewLineNode(node)) {
+                formatter.newline(2);
+            } else {
                 formatter.newline();
-                formatter.processInlineNodes(leftNodes, " ");
             }
-        };
+        }
+        formatter.setCurrentIndent(frame.indent);
+        frame.sub = index + 1;
+        return node;
     }
 
+    // blockNode is the node a header or a definition wraps, or node itself.
+    private static ParseTree blockNode(ParseTree node) {
+        if (node instanceof ThriftParser.HeaderContext || node instanceof ThriftParser.DefinitionContext) {
+            return node.getChild(0);
+        }
+        return node;
+    }
+
+    public static final NodeProcessFunc documentBlock = new NodeProcessFunc() {
+        @Override
+        public ParseTree process(PureThriftFormatter formatter, PureThriftFormatter.Frame frame) {
+            if (frame.step == STEP_START) {
+                frame.nodes = getNodeChildren(frame.node);
+                frame.indent = "";
+                frame.step = STEP_BLOCK;
+            }
+            return processBlockNodes(formatter, frame);
+        }
+    };
+
+    public static final NodeProcessFunc firstChild = new NodeProcessFunc() {
+        @Override
+        public ParseTree process(PureThriftFormatter formatter, PureThriftFormatter.Frame frame) {
+            if (frame.index > 0) {
+                return null;
+            }
+            frame.index = 1;
+            return frame.node.getChild(0);
+        }
+    };
+
+    public static final NodeProcessFunc noChildren = new NodeProcessFunc() {
+        @Override
+        public ParseTree process(PureThriftFormatter formatter, PureThriftFormatter.Frame frame) {
+            return null;
+        }
+    };
+
     public static final NodeProcessFunc defaultInline = genInlineContext(" ", null);
 
     public static final NodeProcessFunc tightInline = genInlineContext("", null);
 
-    public static final NodeProcessFunc listSeparatorInline = genInlineContext(
-            " ",
-            (index, node) -> node instanceof ThriftParser.List_separatorContext);
+    private static final BiPredicate<Integer, ParseTree> listSeparatorTight = (index,
+            node) -> node instanceof ThriftParser.List_separatorContext;
+
+    private static final BiPredicate<Integer, ParseTree> tupleTight = (i, n) -> isToken(n, LEFT_PARENTHESIS) ||
+            isToken(n, RIGHT_PARENTHESIS) ||
+            (n.getParent() != null && isToken(n.getParent().getChild(i - 1), LEFT_PARENTHESIS)) ||
+            n instanceof ThriftParser.List_separatorContext;
+
+    // mapTight keeps the children of a map type tight, but the one after the comma.
+    private static final BiPredicate<Integer, ParseTree> mapTight = (index, child) -> child.getParent() != null &&
+            !isToken(child.getParent().getChild(index - 1), ThriftParser.COMMA);
+
+    public static final NodeProcessFunc listSeparatorInline = genInlineContext(" ", listSeparatorTight);
+
+    public static final NodeProcessFunc mapTypeInline = genInlineContext(" ", mapTight);
 
     public static final NodeProcessFunc fieldSubblocks = genSubblocksContext(
             3,
             ThriftParser.FieldContext.class);
 
-    public static final NodeProcessFunc tupleTightInline = genInlineContext(
-            " ",
-            (i, n) -> isToken(n, "(") ||
-                    isToken(n, ")") ||
-                    (n.getParent() != null && isToken(n.getParent().getChild(i - 1), "(")) ||
-                    n instanceof ThriftParser.List_separatorContext);
+    public static final NodeProcessFunc enumSubblocks = genSubblocksContext(3, ThriftParser.Enum_fieldContext.class);
+
+    public static final NodeProcessFunc serviceSubblocks = genSubblocksContext(3, ThriftParser.Function_Context.class);
+
+    // extendsServiceSubblocks is for services with "extends IDENTIFIER" before "{".
+    public static final NodeProcessFunc extendsServiceSubblocks = genSubblocksContext(5,
+            ThriftParser.Function_Context.class);
 
+    public static final NodeProcessFunc tupleTightInline = genInlineContext(" ", tupleTight);
+
+    public static final NodeProcessFunc tupleWrapInline = genWrapInlineContext(" ", tupleTight, LEFT_PARENTHESIS,
+            RIGHT_PARENTHESIS);
+
+    public static final NodeProcessFunc constListWrapInline = genWrapInlineContext(" ", listSeparatorTight,
+            LEFT_BRACKET, RIGHT_BRACKET);
+
+    public static final NodeProcessFunc constMapWrapInline = genWrapInlineContext(" ", null, LEFT_BRACE, RIGHT_BRACE);
+
+    public static final NodeProcessFunc constListContext = genConstCollectionContext(
+            constListWrapInline,
+            ThriftParser.Const_valueContext.class);
+
+    public static final NodeProcessFunc constMapContext = genConstCollectionContext(
+            constMapWrapInline,
+            ThriftParser.Const_map_entryContext.class);
+
+    /*
+     * NodeProcessFunc processes a node one child at a time: process does the work up to the next child and
+     * returns it, it is called again with the same frame once the child has been processed, and returns null
+     * when the node is done.
+     */
     public interface NodeProcessFunc {
-        void process(PureThriftFormatter formatter, ParseTree node);
+        ParseTree process(PureThriftFormatter formatter, PureThriftFormatter.Frame frame);
     }
 
     public static Pair<List<ParseTree>, List<ParseTree>> splitRepeatNodes(List<ParseTree> nodes, Class<?> targetClass) {
@@ -224,7 +568,7 @@ class Util {
         return targetClass.isInstance(node);
     }
 
-    public static void walkNode(ParseTree root, Consumer<ParseTree> callback) {
+    public static void walkNode(ParseTree root, Consumer<ParseTree> callback, FormatGuard guard) {
         LinkedList<ParseTree> stack = new LinkedList<>();
         stack.add(root);
 
@@ -233,6 +577,7 @@ class Util {
             if (node == null) {
                 break;
             }
+            guard.checkpoint();
 
             callback.accept(node);
 
@@ -248,81 +593,92 @@ class Util {
                 node instanceof ThriftParser.Throws_listContext;
     }
 
-    public static Pair<Map<String, Integer>, Integer> calcFieldAlignByFieldPaddingMap(List<ParseTree> fields) {
-        Map<String, Integer> paddingMap = new HashMap<>();
+    // calcFieldAlignByFieldPadding fills paddings (indexed by FieldColumn ordinal) and returns the comment padding.
+    public static int calcFieldAlignByFieldPadding(List<ParseTree> fields, int[] paddings, FormatGuard guard) {
+        Arrays.fill(paddings, 0);
         if (fields.isEmpty() || !isFieldOrEnumField(fields.get(0))) {
-            return new Pair<>(paddingMap, 0);
+            return 0;
         }
 
-        Map<String, Integer> nameLevels = new HashMap<>();
-        for (ParseTree field : fields) {
-            for (int i = 0; i < field.getChildCount() - 1; i++) {
-                String nameA = getFieldChildName(field.getChild(i));
-                String nameB = getFieldChildName(field.getChild(i + 1));
-
-                nameLevels.putIfAbsent(nameA, 0);
-                nameLevels.putIfAbsent(nameB, 0);
-
-                int levelB = Math.max(nameLevels.get(nameB), nameLevels.get(nameA) + 1);
-                nameLevels.put(nameB, levelB);
-            }
+        int[] levels = new int[FieldColumn.COUNT];
+        int columnCount = calcFieldColumnLevels(fields, levels);
+        if (columnCount == 0) {
+            return 0;
         }
 
-        // Check if levels are continuous
-        if (Collections.max(nameLevels.values()) != (nameLevels.size() - 1)) {
-            return new Pair<>(paddingMap, 0);
-        }
-
-        Map<Integer, Integer> levelLength = new HashMap<>();
+        int[] levelLength = new int[columnCount];
+        PureThriftFormatter measurer = new PureThriftFormatter();
+        int[] widths = new int[0];
         for (ParseTree field : fields) {
+            widths = measureChildWidths(field, measurer, guard, widths);
             for (int i = 0; i < field.getChildCount(); i++) {
-                ParseTree child = field.getChild(i);
-                int level = nameLevels.get(getFieldChildName(child));
-                int length = new PureThriftFormatter().formatNode(child).length();
-
-                levelLength.put(level, Math.max(levelLength.getOrDefault(level, 0), length));
+                int level = levels[FieldColumn.of(field.getChild(i)).ordinal()];
+                levelLength[level] = Math.max(levelLength[level], widths[i]);
             }
         }
 
-        ThriftParser.List_separatorContext sep = new ThriftParser.List_separatorContext(null, 0);
-        Map<Integer, Integer> levelPadding = new HashMap<>();
-        for (Map.Entry<Integer, Integer> entry : levelLength.entrySet()) {
-            int level = entry.getKey();
-            int padding = level;
-            if (level == nameLevels.get(getFieldChildName(sep))) {
+        int separatorLevel = levels[FieldColumn.LIST_SEPARATOR.ordinal()];
+        int commentPadding = columnCount;
+        int offset = 0;
+        for (int level = 0; level < columnCount; level++) {
+            int padding = level + offset;
+            if (level == separatorLevel) {
                 padding -= 1;
             }
-
-            for (int i = 0; i < level; i++) {
-                padding += levelLength.getOrDefault(i, 0);
+            for (int column = 0; column < FieldColumn.COUNT; column++) {
+                if (levels[column] == level) {
+                    paddings[column] = padding;
+                }
             }
-
-            levelPadding.put(level, padding);
+            offset += levelLength[level];
+            commentPadding += levelLength[level];
+        }
+        if (separatorLevel >= 0) {
+            commentPadding -= 1;
         }
 
-        for (Map.Entry<String, Integer> entry : nameLevels.entrySet()) {
-            String name = entry.getKey();
-            int level = entry.getValue();
-            paddingMap.put(name, levelPadding.get(level));
+        return commentPadding;
+    }
+
+    // calcFieldColumnLevels fills levels[column], the column index of a field child kind or -1 if the kind is
+    // absent, and returns the number of columns, or 0 when the levels are not continuous and fields are not aligned.
+    static int calcFieldColumnLevels(List<ParseTree> fields, int[] levels) {
+        Arrays.fill(levels, -1);
+        for (ParseTree field : fields) {
+            int childCount = field.getChildCount();
+            if (childCount > 0) {
+                int first = FieldColumn.of(field.getChild(0)).ordinal();
+                levels[first] = Math.max(levels[first], 0);
+            }
+            for (int i = 0; i < childCount - 1; i++) {
+                int columnA = FieldColumn.of(field.getChild(i)).ordinal();
+                int columnB = FieldColumn.of(field.getChild(i + 1)).ordinal();
+
+                levels[columnB] = Math.max(levels[columnB], Math.max(levels[columnA], 0) + 1);
+            }
         }
 
-        int commentPadding = levelLength.size();
-        for (int length : levelLength.values()) {
-            commentPadding += length;
+        // Check if levels are continuous
+        int columnCount = 0;
+        int maxLevel = -1;
+        for (int level : levels) {
+            if (level >= 0) {
+                columnCount++;
+                maxLevel = Math.max(maxLevel, level);
+            }
         }
-        if (paddingMap.containsKey(getFieldChildName(sep))) {
-            commentPadding -= 1;
+        if (columnCount == 0 || maxLevel != columnCount - 1) {
+            return 0;
         }
-
-        return new Pair<>(paddingMap, commentPadding);
+        return columnCount;
     }
 
-    public static Pair<Integer, Integer> calcFieldAlignByAssignPadding(List<ParseTree> fields) {
+    public static Pair<Integer, Integer> calcFieldAlignByAssignPadding(List<ParseTree> fields, FormatGuard guard) {
         if (fields.isEmpty() || !isFieldOrEnumField(fields.get(0))) {
             return new Pair<>(0, 0);
         }
 
-        Pair<Integer, Integer> sizes = getSplitFieldsLeftRightSize(fields);
+        Pair<Integer, Integer> sizes = getSplitFieldsLeftRightSize(fields, guard);
         int leftMaxSize = sizes.a;
         int rightMaxSize = sizes.b;
 
@@ -347,17 +703,58 @@ class Util {
                 field instanceof ThriftParser.Enum_fieldContext;
     }
 
-    public static String getFieldChildName(ParseTree n) {
-        if (isToken(n, "=")) {
-            return "=";
+    // FieldColumn is the kind of a field or enum field child, used as the alignment column key.
+    public enum FieldColumn {
+        FIELD_ID,
+        FIELD_REQ,
+        FIELD_TYPE,
+        NAME,
+        ASSIGN,
+        CONST_VALUE,
+        INTEGER,
+        TYPE_ANNOTATIONS,
+        LIST_SEPARATOR,
+        OTHER;
+
+        public static final int COUNT = values().length;
+
+        public static FieldColumn of(ParseTree n) {
+            if (n instanceof TerminalNode) {
+                if (isToken(n, Util.ASSIGN)) {
+                    return ASSIGN;
+                }
+                return n instanceof TerminalNodeImpl && !(n instanceof ErrorNode) ? NAME : OTHER;
+            }
+            if (n instanceof ThriftParser.Field_idContext) {
+                return FIELD_ID;
+            }
+            if (n instanceof ThriftParser.Field_reqContext) {
+                return FIELD_REQ;
+            }
+            if (n instanceof ThriftParser.Field_typeContext) {
+                return FIELD_TYPE;
+            }
+            if (n instanceof ThriftParser.Const_valueContext) {
+                return CONST_VALUE;
+            }
+            if (n instanceof ThriftParser.IntegerContext) {
+                return INTEGER;
+            }
+            if (n instanceof ThriftParser.Type_annotationsContext) {
+                return TYPE_ANNOTATIONS;
+            }
+            if (n instanceof ThriftParser.List_separatorContext) {
+                return LIST_SEPARATOR;
+            }
+            return OTHER;
         }
-        return n.getClass().getSimpleName();
     }
 
-    public static int calcSubBlocksCommentPadding(List<ParseTree> subblocks) {
+    public static int calcSubBlocksCommentPadding(List<ParseTree> subblocks, FormatGuard guard) {
         int padding = 0;
+        PureThriftFormatter measurer = new PureThriftFormatter();
         for (ParseTree subblock : subblocks) {
-            int nodeLength = new PureThriftFormatter().formatNode(subblock).length();
+            int nodeLength = measureWidth(subblock, measurer, guard);
             padding = Math.max(padding, nodeLength);
         }
 
@@ -0,0 +1,22 @@
+package thriftlabs.thriftfmt;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+
+// WidthCache keeps the measured width of nodes, so formatters of the same (patched) tree with different options
+// measure each node once. The widths are measured with the default Option and do not depend on the options.
+final class WidthCache {
+    private final Map<ParseTree, Integer> widths = new IdentityHashMap<>();
+
+    // get returns the width of node, or -1 when it is not measured yet.
+    int get(ParseTree node) {
+        Integer width = widths.get(node);
+        return width == null ? -1 : width;
+    }
+
+    void put(ParseTree node, int width) {
+        widths.put(node, width);
+    }
+}
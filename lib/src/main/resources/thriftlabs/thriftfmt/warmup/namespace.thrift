@@ -0,0 +1 @@
+namespace xsd test (uri = 'http://thrift.apache.org/ns/ThriftTest', test = 1)
\ No newline at end of file
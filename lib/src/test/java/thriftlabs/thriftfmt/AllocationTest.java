@@ -0,0 +1,163 @@
+package thriftlabs.thriftfmt;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+import static thriftlabs.thriftfmt.PureThriftFormatterTest.findThriftFiles;
+import static thriftlabs.thriftfmt.PureThriftFormatterTest.readResourceFile;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * AllocationTest checks how many bytes formatting allocates per input token, for each formatting mode, and how many
+ * FormatAnalysis allocates for the alignment modes it measures widths for. The signatures document is only function
+ * signatures and assigned fields, so what their tokens allocate is not diluted by the rest of the fixtures.
+ *
+ * The budgets are about 1.5x of the current allocation over all fixtures, so a per-node Pair, ArrayList, HashMap
+ * or formatter instance in the hot path fails them. Each mode is measured several times after a warm up, and the
+ * smallest allocation is compared, so the JIT having not yet removed some allocations does not count.
+ */
+public class AllocationTest {
+    private static final int WARMUP = 200;
+    private static final int ROUNDS = 20;
+
+    private com.sun.management.ThreadMXBean threadBean;
+    private List<CompactTree> fixtures;
+    private List<CompactTree> signatures;
+
+    @Before
+    public void setUp() throws IOException {
+        var bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threadBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        fixtures = new ArrayList<>();
+        for (String fileName : findThriftFiles("src/test/resources/thrifts")) {
+            String content = readResourceFile("thrifts/" + fileName);
+            assertNotNull("Fixture file should be found", content);
+            var tree = CompactTree.of(DocumentParser.parse(content));
+            fixtures.add(tree);
+        }
+        signatures = List.of(CompactTree.of(DocumentParser.parse(signatures(200))));
+    }
+
+    // signatures is a service of count functions with assigned parameters, and a struct of count assigned fields.
+    private static String signatures(int count) {
+        var builder = new StringBuilder("service Signatures {\n");
+        for (int i = 0; i < count; i++) {
+            builder.append("  list<i32> call").append(i).append("(1: i32 a = ").append(i)
+                    .append(", 2: map<string, i32> b = {\"k\": 1}) throws (1: Error e),\n");
+        }
+        builder.append("}\nstruct Assignments {\n");
+        for (int i = 0; i < count; i++) {
+            builder.append("  ").append(i + 1).append(": optional string field").append(i).append(" = \"")
+                    .append(i).append("\",\n");
+        }
+        return builder.append("}\n").toString();
+    }
+
+    private long allocatedBytes(List<CompactTree> trees, Option opt, boolean analysis) {
+        long total = 0;
+        for (CompactTree tree : trees) {
+            long start;
+            if (analysis) {
+                var result = tree.inflate();
+                start = threadBean.getCurrentThreadAllocatedBytes();
+                FormatAnalysis.analyze(result, opt);
+            } else {
+                // the tree is inflated by the constructor, only the formatting is measured.
+                var formatter = new ThriftFormatter(tree, opt);
+                start = threadBean.getCurrentThreadAllocatedBytes();
+                formatter.format();
+            }
+            total += threadBean.getCurrentThreadAllocatedBytes() - start;
+        }
+        return total;
+    }
+
+    private void assertBudget(String mode, Option opt, long bytesPerToken) {
+        assertBudget(mode, fixtures, opt, false, bytesPerToken);
+    }
+
+    private void assertBudget(String mode, List<CompactTree> trees, Option opt, boolean analysis,
+            long bytesPerToken) {
+        long tokenCount = 0;
+        for (CompactTree tree : trees) {
+            tokenCount += tree.getTokenCount();
+        }
+        for (int i = 0; i < WARMUP; i++) {
+            allocatedBytes(trees, opt, analysis);
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            best = Math.min(best, allocatedBytes(trees, opt, analysis));
+        }
+        long perToken = best / tokenCount;
+        assertTrue(mode + " allocates " + perToken + " bytes per token, budget is " + bytesPerToken,
+                perToken <= bytesPerToken);
+    }
+
+    @Test
+    public void testPlain() {
+        assertBudget("plain", new Option(4, false, false, false, false, false), 70);
+    }
+
+    @Test
+    public void testKeepComment() {
+        assertBudget("keepComment", new Option(4, false, false, true, false, false), 190);
+    }
+
+    @Test
+    public void testAlignByField() {
+        assertBudget("alignByField", new Option(4, false, false, false, false, true), 180);
+    }
+
+    @Test
+    public void testAlignByAssign() {
+        assertBudget("alignByAssign", new Option(4, false, false, false, true, false), 160);
+    }
+
+    @Test
+    public void testPatch() {
+        assertBudget("patch", new Option(4, true, true, false, false, false), 450);
+    }
+
+    @Test
+    public void testDefault() {
+        assertBudget("default", new Option(), 560);
+    }
+
+    @Test
+    public void testAnalyzeAlignByField() {
+        assertBudget("analyze alignByField", fixtures, new Option(4, false, false, false, false, true), true, 60);
+    }
+
+    @Test
+    public void testAnalyzeAlignByAssign() {
+        assertBudget("analyze alignByAssign", fixtures, new Option(4, false, false, false, true, false), true, 50);
+    }
+
+    @Test
+    public void testSignaturesPlain() {
+        assertBudget("signatures plain", signatures, new Option(4, false, false, false, false, false), false, 15);
+    }
+
+    @Test
+    public void testSignaturesAlignByAssign() {
+        assertBudget("signatures alignByAssign", signatures, new Option(4, false, false, false, true, false), false,
+                15);
+    }
+
+    @Test
+    public void testAnalyzeSignatures() {
+        assertBudget("analyze signatures alignByAssign", signatures, new Option(4, false, false, false, true, false),
+                true, 4);
+    }
+}
@@ -0,0 +1,286 @@
+package thriftlabs.thriftfmt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+public class ArchiveFormatterTest {
+    private static final String FORMATTED = "struct A {\n    1: required i32 a,\n}\n";
+    private static final String UNFORMATTED = "struct A { 1: i32 a }";
+    // longer than the 100 bytes of a tar header name.
+    private static final String LONG_NAME = "idl/" + "nested/".repeat(15) + "long.thrift";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Map<String, String> entries() {
+        Map<String, String> entries = new LinkedHashMap<>();
+        entries.put("idl/a.thrift", UNFORMATTED);
+        entries.put("idl/b.thrift", FORMATTED);
+        entries.put("idl/c.thrift", UNFORMATTED);
+        entries.put("idl/bad.thrift", "struct {");
+        entries.put("README.txt", UNFORMATTED);
+        entries.put(LONG_NAME, UNFORMATTED);
+        return entries;
+    }
+
+    private FileFormatter newFormatter(boolean write) {
+        var formatter = new FileFormatter(new Option());
+        formatter.setWrite(write);
+        return formatter;
+    }
+
+    private void assertResults(Path archive, List<FileResult> results) {
+        assertEquals(List.of(
+                new FileResult(ArchiveFormatter.entryPath(archive, "idl/a.thrift"), FileResult.Status.CHANGED, null),
+                new FileResult(ArchiveFormatter.entryPath(archive, "idl/b.thrift"), FileResult.Status.UNCHANGED,
+                        null),
+                new FileResult(ArchiveFormatter.entryPath(archive, "idl/c.thrift"), FileResult.Status.CHANGED, null),
+                new FileResult(ArchiveFormatter.entryPath(archive, LONG_NAME), FileResult.Status.CHANGED, null))
+                .toString(), withoutErrors(results).toString());
+        assertEquals(FileResult.Status.ERROR, results.get(3).getStatus());
+        assertEquals(ArchiveFormatter.entryPath(archive, "idl/bad.thrift"), results.get(3).getPath());
+    }
+
+    private List<FileResult> withoutErrors(List<FileResult> results) {
+        List<FileResult> list = new ArrayList<>();
+        for (FileResult result : results) {
+            if (result.getStatus() != FileResult.Status.ERROR) {
+                list.add(result);
+            }
+        }
+        return list;
+    }
+
+    private Map<String, String> expected() {
+        Map<String, String> expected = entries();
+        expected.put("idl/a.thrift", FORMATTED);
+        expected.put("idl/c.thrift", FORMATTED);
+        expected.put(LONG_NAME, FORMATTED);
+        return expected;
+    }
+
+    @Test
+    public void testZip() throws IOException {
+        Path archive = folder.getRoot().toPath().resolve("idl.jar");
+        try (OutputStream out = Files.newOutputStream(archive); var zip = new ZipOutputStream(out)) {
+            zip.putNextEntry(new ZipEntry("idl/"));
+            for (var entry : entries().entrySet()) {
+                zip.putNextEntry(new ZipEntry(entry.getKey()));
+                zip.write(entry.getValue().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        byte[] original = Files.readAllBytes(archive);
+
+        var formatter = new ArchiveFormatter(newFormatter(false));
+        formatter.setThreads(2);
+        assertResults(archive, formatter.format(archive));
+        // check mode leaves the archive as it is.
+        assertArrayEquals(original, Files.readAllBytes(archive));
+
+        assertResults(archive, new ArchiveFormatter(newFormatter(true)).format(archive));
+        Map<String, String> content = new LinkedHashMap<>();
+        try (InputStream in = Files.newInputStream(archive); var zip = new ZipInputStream(in)) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                content.put(entry.getName(), new String(zip.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        Map<String, String> expected = new LinkedHashMap<>();
+        expected.put("idl/", "");
+        expected.putAll(expected());
+        assertEquals(expected, content);
+    }
+
+    private static ZipEntry stored(String name, byte[] data) {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(data.length);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        entry.setCrc(crc.getValue());
+        return entry;
+    }
+
+    @Test
+    public void testZipMethods() throws IOException {
+        Path archive = folder.getRoot().toPath().resolve("idl.zip");
+        byte[] data = UNFORMATTED.getBytes(StandardCharsets.UTF_8);
+        try (OutputStream out = Files.newOutputStream(archive); var zip = new ZipOutputStream(out)) {
+            zip.putNextEntry(stored("a.thrift", data));
+            zip.write(data);
+            zip.putNextEntry(stored("README.txt", data));
+            zip.write(data);
+            zip.putNextEntry(new ZipEntry("b.thrift"));
+            zip.write(data);
+        }
+
+        new ArchiveFormatter(newFormatter(true)).format(archive);
+        try (var zip = new ZipFile(archive.toFile())) {
+            assertEquals(ZipEntry.STORED, zip.getEntry("a.thrift").getMethod());
+            assertEquals(ZipEntry.STORED, zip.getEntry("README.txt").getMethod());
+            assertEquals(ZipEntry.DEFLATED, zip.getEntry("b.thrift").getMethod());
+        }
+        // ZipInputStream checks the size and crc of stored entries.
+        Map<String, String> content = new LinkedHashMap<>();
+        try (InputStream in = Files.newInputStream(archive); var zip = new ZipInputStream(in)) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                content.put(entry.getName(), new String(zip.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        assertEquals(Map.of("a.thrift", FORMATTED, "README.txt", UNFORMATTED, "b.thrift", FORMATTED), content);
+    }
+
+    private String tar(Path directory, String... args) throws Exception {
+        var command = new ArrayList<String>();
+        command.add("tar");
+        command.addAll(List.of(args));
+        Process process;
+        try {
+            process = new ProcessBuilder(command).directory(directory.toFile()).start();
+        } catch (IOException e) {
+            assumeTrue("tar is not available", false);
+            return null;
+        }
+        String out = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        assertEquals(0, process.waitFor());
+        return out;
+    }
+
+    @Test
+    public void testTarGz() throws Exception {
+        Path source = folder.newFolder("source").toPath();
+        for (var entry : entries().entrySet()) {
+            Path path = source.resolve(entry.getKey());
+            Files.createDirectories(path.getParent());
+            Files.write(path, entry.getValue().getBytes(StandardCharsets.UTF_8));
+        }
+        Path archive = folder.getRoot().toPath().resolve("idl.tar.gz");
+        var names = new ArrayList<>(entries().keySet());
+        names.add(0, "-czf");
+        names.add(1, archive.toString());
+        tar(source, names.toArray(new String[0]));
+
+        assertResults(archive, new ArchiveFormatter(newFormatter(false)).format(archive));
+        assertResults(archive, new ArchiveFormatter(newFormatter(true)).format(archive));
+        assertEquals(0, withoutErrors(new ArchiveFormatter(newFormatter(false)).format(archive)).stream()
+                .filter(result -> result.getStatus() == FileResult.Status.CHANGED).count());
+
+        // the system tar reads the new archive.
+        Path target = folder.newFolder("target").toPath();
+        tar(target, "-xzf", archive.toString());
+        for (var entry : expected().entrySet()) {
+            assertEquals(entry.getValue(),
+                    new String(Files.readAllBytes(target.resolve(entry.getKey())), StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void put(byte[] block, int offset, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(bytes, 0, block, offset, bytes.length);
+    }
+
+    private static byte[] tarHeader(String name, char type, int size) {
+        byte[] block = new byte[512];
+        put(block, 0, name);
+        put(block, 100, "0000644");
+        put(block, 108, "0000000");
+        put(block, 116, "0000000");
+        put(block, 124, String.format("%011o", size));
+        put(block, 136, "00000000000");
+        block[156] = (byte) type;
+        put(block, 257, "ustar");
+        put(block, 263, "00");
+        Arrays.fill(block, 148, 156, (byte) ' ');
+        int sum = 0;
+        for (byte b : block) {
+            sum += b & 0xff;
+        }
+        put(block, 148, String.format("%06o", sum));
+        block[154] = 0;
+        return block;
+    }
+
+    // paxRecord is "LENGTH key=value\n", the length counts its own digits.
+    private static String paxRecord(String key, String value) {
+        String record = " " + key + "=" + value + "\n";
+        int length = record.length() + String.valueOf(record.length()).length();
+        if (String.valueOf(length).length() != String.valueOf(record.length()).length()) {
+            length++;
+        }
+        return length + record;
+    }
+
+    private static void writePadded(OutputStream out, byte[] data) throws IOException {
+        out.write(data);
+        out.write(new byte[(512 - data.length % 512) % 512]);
+    }
+
+    // a pax size record of a replaced entry is removed, or tar would read the old length.
+    @Test
+    public void testTarPaxSize() throws Exception {
+        Path archive = folder.getRoot().toPath().resolve("idl.tgz");
+        byte[] data = UNFORMATTED.getBytes(StandardCharsets.UTF_8);
+        byte[] pax = (paxRecord("size", String.valueOf(data.length)) + paxRecord("path", "idl/a.thrift"))
+                .getBytes(StandardCharsets.UTF_8);
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(archive))) {
+            out.write(tarHeader("PaxHeaders/a.thrift", 'x', pax.length));
+            writePadded(out, pax);
+            out.write(tarHeader("a.thrift", '0', data.length));
+            writePadded(out, data);
+            out.write(new byte[1024]);
+        }
+
+        var results = new ArchiveFormatter(newFormatter(true)).format(archive);
+        assertEquals(List.of(new FileResult(ArchiveFormatter.entryPath(archive, "idl/a.thrift"),
+                FileResult.Status.CHANGED, null)).toString(), results.toString());
+        String raw;
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(archive))) {
+            raw = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        assertFalse(raw.contains("size="));
+        assertTrue(raw.contains(paxRecord("path", "idl/a.thrift")));
+
+        Path target = folder.newFolder("target").toPath();
+        tar(target, "-xzf", archive.toString());
+        assertEquals(FORMATTED, new String(Files.readAllBytes(target.resolve("idl/a.thrift")), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testBatch() throws IOException {
+        Path archive = folder.getRoot().toPath().resolve("broken.zip");
+        Files.write(archive, "not a zip".getBytes(StandardCharsets.UTF_8));
+        Path file = folder.getRoot().toPath().resolve("a.thrift");
+        Files.write(file, FORMATTED.getBytes(StandardCharsets.UTF_8));
+
+        // a file which is not a zip has no entries.
+        List<FileResult> results = new BatchFormatter(newFormatter(false)).run(List.of(archive, file));
+        assertEquals(List.of(new FileResult(file, FileResult.Status.UNCHANGED, null)).toString(),
+                results.toString());
+    }
+}
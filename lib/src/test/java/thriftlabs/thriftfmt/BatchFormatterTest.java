@@ -0,0 +1,114 @@
+package thriftlabs.thriftfmt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+public class BatchFormatterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private int formatCount;
+
+    private Path write(String name, String content) throws IOException {
+        Path path = folder.getRoot().toPath().resolve(name);
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+
+    private String read(Path path) throws IOException {
+        return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+    }
+
+    private FileFormatter newFormatter() {
+        return new FileFormatter(new Option()) {
+            @Override
+            Formatted formatBytes(byte[] bytes) {
+                formatCount++;
+                return super.formatBytes(bytes);
+            }
+        };
+    }
+
+    @Test
+    public void testDeduplicate() throws IOException {
+        String formatted = "struct A {\n    1: required i32 a,\n}\n";
+        String unformatted = "struct A { 1: i32 a }";
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            files.add(write("formatted" + i + ".thrift", formatted));
+            files.add(write("unformatted" + i + ".thrift", unformatted));
+            files.add(write("invalid" + i + ".thrift", "struct {"));
+        }
+        files.add(folder.getRoot().toPath().resolve("missing.thrift"));
+
+        var formatter = newFormatter();
+        List<FileResult> results = new BatchFormatter(formatter).run(files);
+        assertEquals(3, formatCount);
+        assertEquals(files.size(), results.size());
+        for (int i = 0; i < 9; i++) {
+            assertEquals(files.get(i), results.get(i).getPath());
+            var expected = new FileResult.Status[] { FileResult.Status.UNCHANGED, FileResult.Status.CHANGED,
+                    FileResult.Status.ERROR }[i % 3];
+            assertEquals(expected, results.get(i).getStatus());
+        }
+        assertEquals(FileResult.Status.ERROR, results.get(9).getStatus());
+
+        // every copy is written in write mode.
+        formatCount = 0;
+        formatter = newFormatter();
+        formatter.setWrite(true);
+        results = new BatchFormatter(formatter).run(files.subList(0, 9));
+        assertEquals(3, formatCount);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(FileResult.Status.CHANGED, results.get(i * 3 + 1).getStatus());
+            assertEquals(formatted, read(files.get(i * 3 + 1)));
+        }
+        assertEquals("struct {", read(files.get(2)));
+    }
+
+    @Test
+    public void testWrite() throws IOException {
+        Path latin1 = folder.getRoot().toPath().resolve("latin1.thrift");
+        byte[] bytes = "const string S = \"caf\u00e9\"".getBytes(StandardCharsets.ISO_8859_1);
+        Files.write(latin1, bytes);
+        Path file = write("a.thrift", "struct A { 1: i32 a }");
+        Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rw-r-----");
+        boolean posix = Files.getFileStore(file).supportsFileAttributeView(PosixFileAttributeView.class);
+        if (posix) {
+            Files.setPosixFilePermissions(file, permissions);
+        }
+
+        var formatter = newFormatter();
+        formatter.setWrite(true);
+        List<FileResult> results = new BatchFormatter(formatter).run(List.of(latin1, file));
+        // a file which is not UTF-8 is not rewritten with replacement characters.
+        assertEquals(FileResult.Status.ERROR, results.get(0).getStatus());
+        assertTrue(results.get(0).getMessage(), results.get(0).getMessage().startsWith("not UTF-8"));
+        assertArrayEquals(bytes, Files.readAllBytes(latin1));
+
+        assertEquals(FileResult.Status.CHANGED, results.get(1).getStatus());
+        assertEquals("struct A {\n    1: required i32 a,\n}\n", read(file));
+        if (posix) {
+            assertEquals(permissions, Files.getPosixFilePermissions(file));
+        }
+        // the temp file is moved over the file.
+        try (var files = Files.list(folder.getRoot().toPath())) {
+            assertEquals(2, files.count());
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package thriftlabs.thriftfmt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static thriftlabs.thriftfmt.PureThriftFormatterTest.findThriftFiles;
+import static thriftlabs.thriftfmt.PureThriftFormatterTest.readResourceFile;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.antlr.v4.runtime.tree.Trees;
+
+import thriftlabs.thriftparser.Thrift;
+import thriftlabs.thriftparser.ThriftParser;
+
+public class CompactTreeTest {
+    private static String toStringTree(ThriftParser.DocumentContext document) {
+        return Trees.toStringTree(document, Arrays.asList(ThriftParser.ruleNames));
+    }
+
+    @Test
+    public void testInflate() throws IOException {
+        for (String fileName : findThriftFiles("src/test/resources/thrifts")) {
+            String content = readResourceFile("thrifts/" + fileName);
+            assertNotNull("Fixture file should be found", content);
+
+            var result = DocumentParser.parse(content);
+            var tree = CompactTree.of(result);
+            var inflated = tree.inflate();
+            assertEquals(toStringTree(result.document), toStringTree(inflated.document));
+            assertEquals(result.tokens.size(), inflated.tokens.size());
+
+            var opts = new Option[] {
+                    new Option(),
+                    new Option(4, true, true, true, false, true),
+                    new Option(2, false, false, false, true, false),
+            };
+            for (var opt : opts) {
+                var expect = new ThriftFormatter(Thrift.parse(content), opt).format();
+                // formatting patches the tree, the compact tree is inflated again for each format.
+                assertEquals(expect, new ThriftFormatter(tree, opt).format());
+                assertEquals(expect, new ThriftFormatter(tree, opt).format());
+            }
+
+            var pure = new PureThriftFormatter();
+            assertEquals(pure.formatNode(Thrift.parse(content).document), pure.formatNode(tree.inflate().document));
+        }
+    }
+
+    @Test
+    public void testArrays() {
+        var tree = CompactTree.of(DocumentParser.parse("struct A { 1: i32 a } // tail"));
+        assertEquals(ThriftParser.RULE_document, tree.getKind(0));
+        assertEquals(CompactTree.NONE, tree.getNextSibling(0));
+
+        // document -> definition -> struct_
+        int definition = tree.getFirstChild(0);
+        assertEquals(ThriftParser.RULE_definition, tree.getKind(definition));
+        int struct = tree.getFirstChild(definition);
+        assertEquals(ThriftParser.RULE_struct_, tree.getKind(struct));
+
+        var texts = new StringBuilder();
+        for (int child = tree.getFirstChild(struct); child != CompactTree.NONE; child = tree.getNextSibling(child)) {
+            if (tree.getKind(child) == CompactTree.TERMINAL) {
+                texts.append(tree.getTokenText(tree.getStartToken(child))).append(' ');
+            }
+        }
+        assertEquals("struct A { } ", texts.toString());
+        assertEquals("struct", tree.getTokenText(tree.getStartToken(struct)));
+        assertEquals("}", tree.getTokenText(tree.getStopToken(struct)));
+
+        // the EOF terminal follows the definition.
+        int eof = tree.getNextSibling(definition);
+        assertEquals(CompactTree.TERMINAL, tree.getKind(eof));
+        assertEquals("<EOF>", tree.getTokenText(tree.getStartToken(eof)));
+        assertEquals("// tail", tree.getTokenText(tree.getStartToken(eof) - 1));
+    }
+
+    @Test
+    public void testErrorNodes() {
+        var content = "struct A {\n    1: i32 a = ,\n}\nstruct B { 1: i32 b }";
+        var result = DocumentParser.parse(content);
+        var tree = CompactTree.of(result);
+        assertFalse(tree.isSuccess());
+        assertEquals(toStringTree(result.document), toStringTree(tree.inflate().document));
+    }
+}
@@ -0,0 +1,71 @@
+package thriftlabs.thriftfmt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+import thriftlabs.thriftparser.Thrift;
+
+public class ConstCollectionTest {
+    private String format(String thrift, int threshold, boolean align) {
+        var result = Thrift.parse(thrift);
+        assertTrue(result.isSuccess());
+        var opt = new Option();
+        opt.setConstEntryThreshold(threshold);
+        opt.setAlignConstEntries(align);
+        return new ThriftFormatter(result, opt).format();
+    }
+
+    private String genConstMap(int size) {
+        var builder = new StringBuilder("const map<string, i32> M = {");
+        for (int i = 0; i < size; i++) {
+            builder.append("\"key").append(i).append("\": ").append(i).append(", ");
+        }
+        return builder.append("}").toString();
+    }
+
+    @Test
+    public void testBelowThreshold() {
+        var thrift = "const list<i32> L = [1, 2, 3]";
+        assertEquals("const list<i32> L = [ 1, 2, 3 ]", format(thrift, 3, false));
+    }
+
+    @Test
+    public void testEntryPerLine() {
+        var thrift = "struct S {\n" +
+                "    1: list<i32> l = [1, 2, 3] // tail\n" +
+                "}\n" +
+                "const map<string, list<i32>> M = {\"a\": [1], \"bbb\": [2, 3]; 'c': []}";
+        var expect = "struct S {\n" +
+                "    1: required list<i32> l = [\n" +
+                "        1,\n" +
+                "        2,\n" +
+                "        3\n" +
+                "    ], // tail\n" +
+                "}\n" +
+                "\n" +
+                "const map<string, list<i32>> M = {\n" +
+                "    \"a\" : [ 1 ],\n" +
+                "    \"bbb\" : [ 2, 3 ];\n" +
+                "    'c' : [ ]\n" +
+                "}";
+        assertEquals(expect, format(thrift, 2, false));
+
+        expect = "const map<string, list<i32>> M = {\n" +
+                "    \"a\"   : [ 1 ],\n" +
+                "    \"bbb\" : [ 2, 3 ];\n" +
+                "    'c'   : [ ]\n" +
+                "}";
+        assertEquals(expect, format(thrift.substring(thrift.indexOf("const")), 2, true));
+    }
+
+    // the time of huge maps is checked by ScalingTest.testHugeConstMap.
+    @Test
+    public void testHugeConstMap() {
+        int size = 100000;
+        var lines = format(genConstMap(size), 100, true).split("\n");
+        assertEquals(size + 2, lines.length);
+        assertEquals("    \"key0\"     : 0,", lines[1]);
+        assertEquals("    \"key99999\" : 99999,", lines[size]);
+    }
+}
@@ -0,0 +1,75 @@
+package thriftlabs.thriftfmt;
+
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+ * DeepNestingTest formats deeply nested types and const values on a thread with a small stack.
+ *
+ * The parser recurses, so the documents are parsed on a thread with a large stack first. Formatting runs on an
+ * explicit stack and must not need more thread stack for deeper trees.
+ */
+public class DeepNestingTest {
+    private static final int DEPTH = 3000;
+    private static final long SMALL_STACK = 256 * 1024;
+    private static final long LARGE_STACK = 1024L * 1024 * 1024;
+
+    private static <T> T runWithStack(long stackSize, Callable<T> task) throws Throwable {
+        AtomicReference<T> result = new AtomicReference<>();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread thread = new Thread(null, () -> {
+            try {
+                result.set(task.call());
+            } catch (Throwable e) {
+                error.set(e);
+            }
+        }, "deep-nesting", stackSize);
+        thread.start();
+        thread.join();
+        if (error.get() != null) {
+            throw error.get();
+        }
+        return result.get();
+    }
+
+    private static String format(String content, Option option) throws Throwable {
+        DocumentParser.Result result = runWithStack(LARGE_STACK, () -> DocumentParser.parse(content));
+        return runWithStack(SMALL_STACK, () -> new ThriftFormatter(result, option).format());
+    }
+
+    private static String nestedType() {
+        return "list<".repeat(DEPTH) + "i32" + ">".repeat(DEPTH);
+    }
+
+    @Test
+    public void testNestedType() throws Throwable {
+        String type = nestedType();
+        String content = "struct A {\n    1: " + type + " a // a\n}";
+        // the comment is aligned after the measured field.
+        assertEquals("struct A {\n    1: required " + type + " a, // a\n}", format(content, new Option()));
+        assertEquals("struct A {\n    1: required " + type + " a,\n}",
+                format(content, new Option(4, true, true, false, false, true)));
+    }
+
+    @Test
+    public void testNestedConstValue() throws Throwable {
+        String content = "const list<i32> L = " + "[".repeat(DEPTH) + "1" + "]".repeat(DEPTH);
+        assertEquals("const list<i32> L = " + "[ ".repeat(DEPTH) + "1" + " ]".repeat(DEPTH),
+                format(content, new Option()));
+    }
+
+    @Test
+    public void testNestedWrappedConstValue() throws Throwable {
+        // every level is indented when wrapped, so the output grows with the square of the depth.
+        int depth = DEPTH / 10;
+        String content = "const list<i32> L = " + "[".repeat(depth) + "1" + "]".repeat(depth);
+        Option wrapped = new Option();
+        wrapped.setMaxLineWidth(80);
+        String formatted = format(content, wrapped);
+        assertEquals(content.replace(" ", ""), formatted.replace(" ", "").replace("\n", ""));
+        assertEquals(2 * depth, formatted.split("\n").length - 1);
+    }
+}
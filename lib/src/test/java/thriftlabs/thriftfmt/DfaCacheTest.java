@@ -0,0 +1,65 @@
+package thriftlabs.thriftfmt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+import java.util.List;
+
+public class DfaCacheTest {
+    @Test
+    public void testWarmUp() {
+        var cache = new DfaCache();
+        assertEquals(0, cache.getStateCount());
+
+        cache.warmUp();
+        int size = cache.size();
+        assertTrue(cache.getStateCount() > 0);
+
+        // the corpus is already known, so parsing it again adds nothing.
+        cache.warmUp();
+        assertEquals(size, cache.size());
+
+        var result = DocumentParser.parse("struct A { 1: i32 a }", FormatLimits.UNLIMITED, cache);
+        assertTrue(result.isSuccess());
+        assertEquals("struct A {\n    1: required i32 a,\n}", new ThriftFormatter(result).format());
+    }
+
+    @Test
+    public void testTrim() {
+        var cache = new DfaCache();
+        cache.warmUp();
+        int warm = cache.size();
+
+        cache.setMaxStates(warm / 2);
+        assertTrue(cache.trim());
+        assertEquals(1, cache.getClearCount());
+        // rebuilt from the built-in corpus, but still above the threshold.
+        assertEquals(warm, cache.size());
+
+        cache.setRebuildOnClear(false);
+        DocumentParser.parse("const i32 A = 1", FormatLimits.UNLIMITED, cache);
+        assertEquals(2, cache.getClearCount());
+        assertEquals(0, cache.size());
+
+        cache.setMaxStates(0);
+        cache.warmUp();
+        assertFalse(cache.trim());
+    }
+
+    @Test
+    public void testCustomCorpus() {
+        var cache = new DfaCache();
+        cache.warmUp(List.of("enum E { A = 1, B = 2 }"));
+        int size = cache.getStateCount();
+        assertTrue(size > 0);
+
+        cache.warmUp(DfaCache.builtinCorpus());
+        assertTrue(cache.getStateCount() > size);
+
+        cache.clear();
+        assertEquals(0, cache.getStateCount());
+        assertEquals(0, cache.getContextCacheSize());
+    }
+}
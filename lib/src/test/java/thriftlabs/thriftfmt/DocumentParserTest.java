@@ -0,0 +1,72 @@
+package thriftlabs.thriftfmt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static thriftlabs.thriftfmt.PureThriftFormatterTest.findThriftFiles;
+import static thriftlabs.thriftfmt.PureThriftFormatterTest.readResourceFile;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import thriftlabs.thriftparser.Thrift;
+
+public class DocumentParserTest {
+    @Test
+    public void testSameAsThriftParse() throws IOException {
+        for (String fileName : findThriftFiles("src/test/resources/thrifts")) {
+            String content = readResourceFile("thrifts/" + fileName);
+            assertNotNull("Fixture file should be found", content);
+
+            var expect = Thrift.parse(content);
+            var result = DocumentParser.parse(content);
+            assertTrue(result.isSuccess());
+            assertTrue(result.sll);
+            assertEquals(expect.document.toStringTree(), result.document.toStringTree());
+            assertEquals(expect.tokens.size(), result.tokens.size());
+
+            var opt = new Option(4, true, true, true, false, true);
+            assertEquals(new ThriftFormatter(expect, opt).format(), new ThriftFormatter(result, opt).format());
+        }
+    }
+
+    @Test
+    public void testFallbackToLL() {
+        var content = "struct A {\n    1: i32 a = ,\n}\nstruct B { 1: i32 b }";
+        var expect = Thrift.parse(content);
+        var result = DocumentParser.parse(content);
+        assertFalse(result.isSuccess());
+        assertFalse(result.sll);
+        assertEquals(expect.document.toStringTree(), result.document.toStringTree());
+
+        // the next parse on this thread should not see errors of the previous one.
+        result = DocumentParser.parse("struct B { 1: i32 b }");
+        assertTrue(result.isSuccess());
+        assertEquals("struct B {\n    1: required i32 b,\n}", new ThriftFormatter(result).format());
+    }
+
+    @Test
+    public void testParseInThreads() throws Exception {
+        String content = readResourceFile("thrifts/ThriftTest.thrift");
+        var expect = new ThriftFormatter(Thrift.parse(content)).format();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                futures.add(executor.submit(() -> new ThriftFormatter(DocumentParser.parse(content)).format()));
+            }
+            for (Future<String> future : futures) {
+                assertEquals(expect, future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
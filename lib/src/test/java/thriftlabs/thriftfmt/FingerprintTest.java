@@ -0,0 +1,52 @@
+package thriftlabs.thriftfmt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static thriftlabs.thriftfmt.PureThriftFormatterTest.findThriftFiles;
+import static thriftlabs.thriftfmt.PureThriftFormatterTest.readResourceFile;
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class FingerprintTest {
+    private static final Option NO_PATCH = new Option(4, false, false, true, false, false);
+
+    @Test
+    public void testFormattingInvariant() throws IOException {
+        for (String fileName : findThriftFiles("src/test/resources/thrifts")) {
+            String content = readResourceFile("thrifts/" + fileName);
+            assertNotNull("Fixture file should be found", content);
+            for (int mask = 0; mask < 32; mask++) {
+                var option = new Option(4, (mask & 1) != 0, (mask & 2) != 0, (mask & 4) != 0, (mask & 8) != 0,
+                        (mask & 16) != 0);
+                String formatted = new ThriftFormatter(DocumentParser.parse(content), option).format();
+                assertEquals(fileName + " " + mask, Fingerprint.of(content, option), Fingerprint.of(formatted, option));
+            }
+        }
+    }
+
+    @Test
+    public void testChanges() {
+        String content = "struct A {\n    1: i32 a; // a\n    2: optional string b\n}\n"
+                + "service S { void f(1: required i32 a) }";
+        String fingerprint = Fingerprint.of(content);
+        assertEquals(64, fingerprint.length());
+        // whitespace, separators, comment placement and the required patch.
+        assertEquals(fingerprint, Fingerprint.of("struct A { 1: required i32 a, 2: optional string b, }\n// a\n"
+                + "service S {\n    void f(1: required i32 a,)\n}"));
+
+        assertNotEquals(fingerprint, Fingerprint.of(content.replace("i32 a;", "i64 a;")));
+        assertNotEquals(fingerprint, Fingerprint.of(content.replace("optional", "required")));
+        assertNotEquals(fingerprint, Fingerprint.of(content.replace("// a", "// b")));
+        // function fields are not patched.
+        assertNotEquals(fingerprint, Fingerprint.of(content.replace("(1: required i32 a)", "(1: i32 a)")));
+        // the tokens are kept apart.
+        assertNotEquals(Fingerprint.of("const i32 ab = 1"), Fingerprint.of("const i32 a b = 1"));
+
+        assertNotEquals(Fingerprint.of(content, NO_PATCH),
+                Fingerprint.of(content.replace("1: i32 a", "1: required i32 a"), NO_PATCH));
+        var noComment = new Option(4, true, true, false, false, false);
+        assertEquals(Fingerprint.of(content, noComment), Fingerprint.of(content.replace("// a", ""), noComment));
+    }
+}
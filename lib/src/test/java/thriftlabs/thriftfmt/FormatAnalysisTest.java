@@ -0,0 +1,89 @@
+package thriftlabs.thriftfmt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static thriftlabs.thriftfmt.PureThriftFormatterTest.findThriftFiles;
+import static thriftlabs.thriftfmt.PureThriftFormatterTest.readResourceFile;
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class FormatAnalysisTest {
+    private static final Option PLAIN = new Option(4, false, false, true, false, false);
+    private static final Option ALIGN_BY_FIELD = new Option(4, false, false, true, false, true);
+    private static final Option ALIGN_BY_ASSIGN = new Option(4, false, false, true, true, false);
+
+    private String format(String content, Option option) {
+        return new ThriftFormatter(DocumentParser.parse(content), option).format();
+    }
+
+    @Test
+    public void testCounts() {
+        String content = "struct A {\n    1: i32 a;\n    2: optional i32 b\n    3: required i32 c,\n}\n"
+                + "enum E { X = 1; Y }\n"
+                + "service S {\n    void f(1: i32 a, 2: i32 b) throws (1: E e)\n}\n";
+        var analysis = FormatAnalysis.analyze(content, new Option());
+        assertEquals(1, analysis.getMissingRequired());
+        assertEquals(2, analysis.getNonDefaultSeparators());
+        // the struct field b, Y, f, the argument b and e have no separator, the argument a loses its separator.
+        assertEquals(5, analysis.getMissingSeparators());
+        assertEquals(1, analysis.getRemovedSeparators());
+        assertEquals(0, analysis.getMisalignedFields());
+        assertEquals("required=1 separator=2 missing-separator=5 removed-separator=1 misaligned=0",
+                analysis.toString());
+    }
+
+    @Test
+    public void testDisabledPatches() {
+        String content = "struct A {\n    1: i32 a;\n    2: optional i32 b\n}\nenum E { X = 1; Y }\n";
+        var analysis = FormatAnalysis.analyze(content, PLAIN);
+        assertEquals(0, analysis.getMissingRequired());
+        assertEquals(0, analysis.getNonDefaultSeparators());
+        assertEquals(0, analysis.getMissingSeparators());
+        assertEquals(0, analysis.getRemovedSeparators());
+        assertEquals(0, analysis.getMisalignedFields());
+        assertEquals(1, FormatAnalysis.analyze(content, new Option(4, true, false, true, false, false))
+                .getMissingRequired());
+        assertEquals(0, FormatAnalysis.analyze(content, new Option(4, true, false, true, false, false))
+                .getMissingSeparators());
+    }
+
+    @Test
+    public void testMisaligned() {
+        String content = "struct A {\n    1: i32 a = 1,\n    2: string bb = 2,\n    3: list<i32> ccc,\n}\n";
+        assertEquals(0, FormatAnalysis.analyze(content, PLAIN).getMisalignedFields());
+        // the separator of ccc is padded to the column of the other separators.
+        assertEquals(3, FormatAnalysis.analyze(content, ALIGN_BY_FIELD).getMisalignedFields());
+        // both "=" move past the widest left side, not to the rightmost "=" of the input.
+        assertEquals(2, FormatAnalysis.analyze(content, ALIGN_BY_ASSIGN).getMisalignedFields());
+        for (Option option : new Option[] { ALIGN_BY_FIELD, ALIGN_BY_ASSIGN }) {
+            assertEquals(0, FormatAnalysis.analyze(format(content, option), option).getMisalignedFields());
+        }
+    }
+
+    // the patch counts are zero exactly when the patch does not change the output.
+    @Test
+    public void testFixtures() throws IOException {
+        Option required = new Option(4, true, false, true, false, false);
+        Option separator = new Option(4, false, true, true, false, false);
+        for (String fileName : findThriftFiles("src/test/resources/thrifts")) {
+            String content = readResourceFile("thrifts/" + fileName);
+            assertNotNull("Fixture file should be found", content);
+            String plain = format(content, PLAIN);
+            var analysis = FormatAnalysis.analyze(content, required);
+            assertEquals(fileName, analysis.getMissingRequired() == 0, plain.equals(format(content, required)));
+            analysis = FormatAnalysis.analyze(content, separator);
+            int separators = analysis.getNonDefaultSeparators() + analysis.getMissingSeparators()
+                    + analysis.getRemovedSeparators();
+            assertEquals(fileName, separators == 0, plain.equals(format(content, separator)));
+
+            String formatted = format(content, new Option());
+            var after = FormatAnalysis.analyze(formatted, new Option());
+            assertEquals(fileName, 0, after.getMissingRequired());
+            assertEquals(fileName, 0, after.getNonDefaultSeparators() + after.getMissingSeparators());
+            for (Option option : new Option[] { ALIGN_BY_FIELD, ALIGN_BY_ASSIGN }) {
+                assertEquals(fileName, 0, FormatAnalysis.analyze(format(content, option), option).getMisalignedFields());
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package thriftlabs.thriftfmt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+import java.time.Duration;
+
+import thriftlabs.thriftparser.Thrift;
+
+public class FormatLimitsTest {
+    private static final String THRIFT = "struct A {\n" +
+            "   1: list<list<list<i32>>> n = [[[1]]],\n" +
+            "}";
+
+    private FormatAbortedException.Reason formatAndGetReason(ThriftFormatter formatter) {
+        try {
+            formatter.format();
+        } catch (FormatAbortedException e) {
+            return e.getReason();
+        }
+        fail("format should be aborted");
+        return null;
+    }
+
+    @Test
+    public void testUnlimited() {
+        var formatter = new ThriftFormatter(Thrift.parse(THRIFT));
+        formatter.setLimits(FormatLimits.UNLIMITED);
+        formatter.setCancellationToken(CancellationToken.withTimeout(Duration.ofMinutes(1)));
+        assertEquals("struct A {\n" +
+                "    1: required list<list<list<i32>>> n = [ [ [ 1 ] ] ],\n" +
+                "}", formatter.format());
+    }
+
+    @Test
+    public void testInputLimits() {
+        var formatter = new ThriftFormatter(Thrift.parse(THRIFT));
+        formatter.setLimits(new FormatLimits(10, 0, 0));
+        assertEquals(FormatAbortedException.Reason.INPUT_SIZE, formatAndGetReason(formatter));
+
+        formatter = new ThriftFormatter(Thrift.parse(THRIFT));
+        formatter.setLimits(new FormatLimits(0, 10, 0));
+        assertEquals(FormatAbortedException.Reason.TOKEN_COUNT, formatAndGetReason(formatter));
+
+        formatter = new ThriftFormatter(Thrift.parse(THRIFT));
+        formatter.setLimits(new FormatLimits(0, 0, 8));
+        assertEquals(FormatAbortedException.Reason.NESTING_DEPTH, formatAndGetReason(formatter));
+    }
+
+    // the input size is in code points, the emoji are 2 chars each.
+    @Test
+    public void testInputSizeInCodePoints() {
+        String content = "const string s = \"\ud83d\ude00\ud83d\ude00\"";
+        FormatLimits limits = new FormatLimits(content.codePointCount(0, content.length()), 0, 0);
+        assertTrue(DocumentParser.parse(content, limits).isSuccess());
+
+        var formatter = new ThriftFormatter(DocumentParser.parse(content));
+        formatter.setLimits(limits);
+        assertEquals("const string s = \"\ud83d\ude00\ud83d\ude00\"", formatter.format());
+
+        var tokenStream = new TokenStreamFormatter(new Option());
+        tokenStream.setLimits(limits);
+        tokenStream.format(content);
+
+        var lazy = new LazyFormatter(content, new Option());
+        lazy.setLimits(limits);
+        assertEquals("const string s = \"\ud83d\ude00\ud83d\ude00\"", lazy.getLine(0));
+
+        try {
+            DocumentParser.parse(content, new FormatLimits(limits.getMaxInputSize() - 1, 0, 0));
+            fail("input size limit should abort");
+        } catch (FormatAbortedException e) {
+            assertEquals(FormatAbortedException.Reason.INPUT_SIZE, e.getReason());
+        }
+    }
+
+    // the depth is checked on the tokens, a document this deep overflows the stack of the parser.
+    @Test
+    public void testDeepDocument() {
+        String content = "const list<i32> L = " + "[".repeat(50000) + "]".repeat(50000);
+        try {
+            DocumentParser.parse(content, new FormatLimits(0, 0, 64));
+            fail("nesting depth limit should abort");
+        } catch (FormatAbortedException e) {
+            assertEquals(FormatAbortedException.Reason.NESTING_DEPTH, e.getReason());
+        }
+
+        var formatter = new FileFormatter(new Option());
+        formatter.setLimits(new FormatLimits(0, 0, 64));
+        try {
+            formatter.formatContent(content);
+            fail("nesting depth limit should abort");
+        } catch (FormatAbortedException e) {
+            assertEquals(FormatAbortedException.Reason.NESTING_DEPTH, e.getReason());
+        }
+    }
+
+    @Test
+    public void testCancellation() {
+        var token = new CancellationToken();
+        token.cancel();
+        var formatter = new ThriftFormatter(Thrift.parse(THRIFT));
+        formatter.setCancellationToken(token);
+        assertEquals(FormatAbortedException.Reason.CANCELLED, formatAndGetReason(formatter));
+
+        formatter = new ThriftFormatter(Thrift.parse(THRIFT));
+        formatter.setCancellationToken(CancellationToken.withDeadline(System.nanoTime() - 1));
+        assertEquals(FormatAbortedException.Reason.DEADLINE_EXCEEDED, formatAndGetReason(formatter));
+    }
+
+    @Test
+    public void testDeadlineDuringFormat() {
+        var builder = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            builder.append("struct S").append(i).append(" { 1: i32 a = 1, 2: string b }\n");
+        }
+        var token = new CancellationToken();
+        var formatter = new ThriftFormatter(Thrift.parse(builder.toString())) {
+            @Override
+            protected void afterBlockNode(org.antlr.v4.runtime.tree.ParseTree n) {
+                super.afterBlockNode(n);
+                token.cancel();
+            }
+        };
+        formatter.setCancellationToken(token);
+        assertEquals(FormatAbortedException.Reason.CANCELLED, formatAndGetReason(formatter));
+    }
+}
@@ -0,0 +1,130 @@
+package thriftlabs.thriftfmt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class GitChangedFilesTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path repo;
+
+    private void git(String... args) throws Exception {
+        git(repo, args);
+    }
+
+    private static void git(Path directory, String... args) throws Exception {
+        var command = new ArrayList<String>();
+        command.add("git");
+        command.addAll(List.of(args));
+        var process = new ProcessBuilder(command).directory(directory.toFile()).redirectErrorStream(true).start();
+        process.getInputStream().readAllBytes();
+        assertEquals(0, process.waitFor());
+    }
+
+    private void write(String name, String content) throws IOException {
+        Path path = repo.resolve(name);
+        Files.createDirectories(path.getParent());
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        repo = folder.getRoot().toPath().toRealPath();
+        try {
+            git("init", "-q");
+        } catch (IOException e) {
+            assumeTrue("git is not available", false);
+        }
+        git("config", "user.email", "dev@example.com");
+        git("config", "user.name", "dev");
+        write("a.thrift", "struct A {\n    1: required i32 a,\n}\n");
+        write("dir/b.thrift", "struct B {\n    1: required i32 b,\n}\n");
+        write("c.txt", "text");
+        git("add", ".");
+        git("commit", "-q", "-m", "init");
+
+        write("a.thrift", "struct A { 1: i32 a }");
+        write("dir/c.thrift", "struct C { 1: i32 c }");
+        write("c.txt", "changed");
+        Files.delete(repo.resolve("dir/b.thrift"));
+        git("add", "dir/c.thrift");
+    }
+
+    @Test
+    public void testChangedFiles() throws Exception {
+        var git = new GitChangedFiles(repo.resolve("dir"));
+        assertEquals(List.of(repo.resolve("dir/c.thrift")), git.staged());
+        assertEquals(List.of(repo.resolve("a.thrift"), repo.resolve("dir/c.thrift")), git.diff("HEAD"));
+    }
+
+    @Test
+    public void testBadRef() {
+        var git = new GitChangedFiles(repo);
+        try {
+            git.diff("no-such-ref");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("no-such-ref"));
+            return;
+        }
+        throw new AssertionError("IOException expected");
+    }
+
+    @Test
+    public void testMain() throws Exception {
+        var out = new ByteArrayOutputStream();
+        var err = new PrintStream(new ByteArrayOutputStream());
+        int code = Main.run(new String[] { "--staged", repo.toString() }, new PrintStream(out), err);
+        assertEquals(Main.EXIT_FAILED, code);
+        assertEquals("CHANGED " + repo.resolve("dir/c.thrift") + "\n1 files, 1 not formatted, 0 errors\n",
+                out.toString(StandardCharsets.UTF_8));
+
+        out.reset();
+        code = Main.run(new String[] { "--changed", "HEAD", "--write", repo.resolve("dir").toString() },
+                new PrintStream(out), err);
+        assertEquals(Main.EXIT_OK, code);
+        assertEquals("struct C {\n    1: required i32 c,\n}\n",
+                new String(Files.readAllBytes(repo.resolve("dir/c.thrift")), StandardCharsets.UTF_8));
+        // a.thrift is changed but not under the given path.
+        assertEquals("struct A { 1: i32 a }",
+                new String(Files.readAllBytes(repo.resolve("a.thrift")), StandardCharsets.UTF_8));
+
+        assertEquals(Main.EXIT_USAGE, Main.run(new String[] { "--staged", "--changed", "HEAD" },
+                new PrintStream(out), err));
+    }
+
+    @Test
+    public void testMainFilePaths() throws Exception {
+        Path other = folder.newFolder("other").toPath().toRealPath();
+        git(other, "init", "-q");
+        git(other, "config", "user.email", "dev@example.com");
+        git(other, "config", "user.name", "dev");
+        Files.write(other.resolve("d.thrift"), "struct D {}\n".getBytes(StandardCharsets.UTF_8));
+        git(other, "add", ".");
+        git(other, "commit", "-q", "-m", "init");
+        Files.write(other.resolve("d.thrift"), "struct D { 1: i32 d }".getBytes(StandardCharsets.UTF_8));
+
+        // git runs in the directory of a file, and in the repository of each path.
+        var out = new ByteArrayOutputStream();
+        var err = new ByteArrayOutputStream();
+        int code = Main.run(new String[] { "--changed", "HEAD", repo.resolve("dir/c.thrift").toString(),
+                other.toString() }, new PrintStream(out), new PrintStream(err));
+        assertEquals(err.toString(StandardCharsets.UTF_8), Main.EXIT_FAILED, code);
+        assertEquals("CHANGED " + repo.resolve("dir/c.thrift") + "\nCHANGED " + other.resolve("d.thrift")
+                + "\n2 files, 2 not formatted, 0 errors\n", out.toString(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,83 @@
+package thriftlabs.thriftfmt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+import thriftlabs.thriftparser.Thrift;
+
+public class LayoutTest {
+    private String format(String thrift, int maxLineWidth) {
+        var result = Thrift.parse(thrift);
+        assertTrue(result.isSuccess());
+        var opt = new Option(4, true, false, true, false, false);
+        opt.setMaxLineWidth(maxLineWidth);
+        return new ThriftFormatter(result, opt).format();
+    }
+
+    @Test
+    public void testKeepFlatWhenFit() {
+        var thrift = "service S {\n" +
+                "    void ping(1: i32 a, 2: string b) throws (1: Error e) (a = \"b\")\n" +
+                "}";
+        var expect = "service S {\n" +
+                "    void ping(1: i32 a, 2: string b) throws(1: Error e) (a = \"b\")\n" +
+                "}";
+        assertEquals(expect, format(thrift, 0));
+        assertEquals(expect, format(thrift, 80));
+    }
+
+    @Test
+    public void testWrapFunction() {
+        var thrift = "service S {\n" +
+                "    void ping(1: i32 alpha, 2: string beta, 3: string gamma) throws (1: Error e)\n" +
+                "}";
+        var expect = "service S {\n" +
+                "    void ping(\n" +
+                "        1: i32 alpha,\n" +
+                "        2: string beta,\n" +
+                "        3: string gamma\n" +
+                "    ) throws(1: Error e)\n" +
+                "}";
+        assertEquals(expect, format(thrift, 40));
+    }
+
+    @Test
+    public void testWrapConstValue() {
+        var thrift = "const map<string, list<i32>> M = {\"a\": [1, 2, 3], \"bbbbbbbb\": [4, 5, 6, 7, 8, 9, 10]}";
+        var expect = "const map<string, list<i32>> M = {\n" +
+                "    \"a\" : [ 1, 2, 3 ] ,\n" +
+                "    \"bbbbbbbb\" : [ 4, 5, 6, 7, 8, 9, 10 ]\n" +
+                "}";
+        assertEquals(expect, format(thrift, 50));
+
+        expect = "const map<string, list<i32>> M = {\n" +
+                "    \"a\" : [ 1, 2, 3 ] ,\n" +
+                "    \"bbbbbbbb\" : [\n" +
+                "        4,\n" +
+                "        5,\n" +
+                "        6,\n" +
+                "        7,\n" +
+                "        8,\n" +
+                "        9,\n" +
+                "        10\n" +
+                "    ]\n" +
+                "}";
+        assertEquals(expect, format(thrift, 30));
+    }
+
+    @Test
+    public void testLongSingleLine() {
+        var builder = new StringBuilder("const list<i32> L = [");
+        for (int i = 0; i < 50000; i++) {
+            builder.append(i).append(", ");
+        }
+        builder.append("]");
+        var content = format(builder.toString(), 100);
+        var lines = content.split("\n");
+        assertEquals(50002, lines.length);
+        for (var line : lines) {
+            assertTrue(line.length() <= 100);
+        }
+    }
+}
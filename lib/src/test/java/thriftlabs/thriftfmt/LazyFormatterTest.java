@@ -0,0 +1,149 @@
+package thriftlabs.thriftfmt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static thriftlabs.thriftfmt.PureThriftFormatterTest.findThriftFiles;
+import static thriftlabs.thriftfmt.PureThriftFormatterTest.readResourceFile;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class LazyFormatterTest {
+    private static String formatTree(String content, Option option) {
+        return new ThriftFormatter(DocumentParser.parse(content), option).format();
+    }
+
+    private static String formatLazy(String content, Option option) {
+        List<String> lines = new ArrayList<>();
+        for (String line : new LazyFormatter(content, option)) {
+            lines.add(line);
+        }
+        return String.join("\n", lines);
+    }
+
+    private static Option option(int mask) {
+        Option option = new Option((mask & 8) != 0 ? 2 : 4, (mask & 1) != 0, (mask & 2) != 0, (mask & 4) != 0,
+                (mask & 16) != 0, (mask & 32) != 0);
+        if ((mask & 64) != 0) {
+            option.setMaxLineWidth(40);
+        }
+        return option;
+    }
+
+    @Test
+    public void testSameAsTree() throws IOException {
+        for (String fileName : findThriftFiles("src/test/resources/thrifts")) {
+            String content = readResourceFile("thrifts/" + fileName);
+            assertNotNull("Fixture file should be found", content);
+            for (int mask = 0; mask < 128; mask++) {
+                assertEquals(fileName + " " + mask, formatTree(content, option(mask)), formatLazy(content, option(mask)));
+            }
+        }
+    }
+
+    @Test
+    public void testEdges() {
+        String[] contents = {
+                "",
+                "\n\n",
+                "// only\n",
+                " /* first */ include \"a.thrift\"\ninclude \"b.thrift\" // b\nnamespace * a\n",
+                "struct A { 1: i32 a } struct B {}\nstruct C {}",
+                "struct A {} /* a */ /* b */\nstruct B {}\n",
+                "struct A {} /* a */\n/* b */ struct B {} // c\n/* d */\n\n\n// e\n",
+                "const i32 A = 1 // a\n/* b */\nconst i32 B = 2\n\n/* c */\n\nconst i32 C = 3 /* d\n */ const i32 D = 4",
+                "typedef i32 A\ntypedef i32 B\nenum E { A }\nenum F { B }\nservice S {}\nservice T extends S {}",
+                "struct A {\r\n 1: i32 a // x\r\n}\r\n/* y */\r\nstruct B {\r\n}\r\n",
+                "const string s = \"😀\" // 😀 x\nstruct A { 1: string a /* 😀 */\n}\n",
+                "senum S { \"a\" }\nsenum T { \"b\" }",
+        };
+        for (String content : contents) {
+            for (int mask = 0; mask < 128; mask++) {
+                assertEquals(content + " " + mask, formatTree(content, option(mask)), formatLazy(content, option(mask)));
+            }
+        }
+    }
+
+    @Test
+    public void testLazy() {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            content.append("struct S").append(i).append(" {\n  1: i32 a\n}\n");
+        }
+        content.append("struct Bad {\n  1: i32\n}\n");
+        LazyFormatter formatter = new LazyFormatter(content.toString(), new Option());
+        assertEquals(List.of("struct S0 {", "    1: required i32 a,", "}", "", "struct S1 {"),
+                formatter.getLines(0, 5));
+        assertEquals(7, formatter.getFormattedLineCount());
+        assertFalse(formatter.isComplete());
+        assertEquals("struct S99 {", formatter.getLine(396));
+        for (int i = 0; i < 2; i++) {
+            try {
+                formatter.getLine(400);
+                fail("a definition which does not parse should fail");
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("303:"));
+            }
+        }
+        assertEquals(399, formatter.getFormattedLineCount());
+    }
+
+    @Test
+    public void testEnd() {
+        LazyFormatter formatter = new LazyFormatter("struct A {}\n// end\n", new Option());
+        assertEquals(List.of("struct A {", "}", "", "// end"), formatter.getLines(0, 10));
+        assertTrue(formatter.isComplete());
+        assertNull(formatter.getLine(4));
+        assertEquals(List.of(), formatter.getLines(10, 5));
+        assertFalse(new LazyFormatter("", new Option()).iterator().hasNext());
+    }
+
+    @Test
+    public void testHeaderAfterDefinition() {
+        LazyFormatter formatter = new LazyFormatter("struct A {}\n\n  include \"a.thrift\"", new Option());
+        assertEquals("struct A {", formatter.getLine(0));
+        try {
+            formatter.getLine(3);
+            fail("a header after a definition should fail");
+        } catch (IllegalArgumentException e) {
+            assertEquals("3:2 header after a definition", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testCancellation() {
+        LazyFormatter formatter = new LazyFormatter("struct A {}\nstruct B {}", new Option());
+        assertEquals("struct A {", formatter.getLine(0));
+        CancellationToken token = new CancellationToken();
+        token.cancel();
+        formatter.setCancellationToken(token);
+        try {
+            formatter.getLine(3);
+            fail("a cancelled token should abort");
+        } catch (FormatAbortedException e) {
+            assertEquals(FormatAbortedException.Reason.CANCELLED, e.getReason());
+        }
+        assertEquals("}", formatter.getLine(1));
+        formatter.setCancellationToken(new CancellationToken());
+        assertEquals("struct B {", formatter.getLine(3));
+        assertEquals(5, formatter.getLines(0, 10).size());
+    }
+
+    @Test
+    public void testLimits() {
+        LazyFormatter formatter = new LazyFormatter("struct A { 1: i32 a }", new Option());
+        formatter.setLimits(new FormatLimits(10, 0, 0));
+        try {
+            formatter.getLine(0);
+            fail("input size limit should abort");
+        } catch (FormatAbortedException e) {
+            assertEquals(FormatAbortedException.Reason.INPUT_SIZE, e.getReason());
+        }
+    }
+}
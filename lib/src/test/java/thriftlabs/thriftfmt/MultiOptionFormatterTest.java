@@ -0,0 +1,58 @@
+package thriftlabs.thriftfmt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static thriftlabs.thriftfmt.PureThriftFormatterTest.findThriftFiles;
+import static thriftlabs.thriftfmt.PureThriftFormatterTest.readResourceFile;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class MultiOptionFormatterTest {
+    private static List<Option> allOptions() {
+        List<Option> options = new ArrayList<>();
+        for (int mask = 0; mask < 64; mask++) {
+            options.add(new Option((mask & 32) != 0 ? 2 : 4, (mask & 1) != 0, (mask & 2) != 0, (mask & 4) != 0,
+                    (mask & 8) != 0, (mask & 16) != 0));
+        }
+        return options;
+    }
+
+    @Test
+    public void testFixtures() throws IOException {
+        List<Option> options = allOptions();
+        for (String fileName : findThriftFiles("src/test/resources/thrifts")) {
+            String content = readResourceFile("thrifts/" + fileName);
+            assertNotNull("Fixture file should be found", content);
+            DocumentParser.Result result = DocumentParser.parse(content);
+            List<String> outputs = MultiOptionFormatter.format(result, options);
+            assertEquals(options.size(), outputs.size());
+            for (int i = 0; i < options.size(); i++) {
+                String expected = new ThriftFormatter(DocumentParser.parse(content), options.get(i)).format();
+                assertEquals(fileName + " " + i, expected, outputs.get(i));
+            }
+
+            // the result is not patched, it formats like a new parse.
+            assertEquals(new ThriftFormatter(DocumentParser.parse(content), new Option()).format(),
+                    new ThriftFormatter(result, new Option()).format());
+        }
+    }
+
+    @Test
+    public void testConstOptions() {
+        String content = "const map<string, i32> M = {'a': 1, 'bbb': 2, 'cc': 3}\nstruct A { 1: i32 a; }";
+        var aligned = new Option();
+        aligned.setConstEntryThreshold(2);
+        aligned.setAlignConstEntries(true);
+        var wrapped = new Option(4, false, true, true, false, true);
+        wrapped.setMaxLineWidth(20);
+        List<Option> options = List.of(aligned, new Option(), wrapped, aligned);
+        List<String> outputs = MultiOptionFormatter.format(DocumentParser.parse(content), options);
+        for (int i = 0; i < options.size(); i++) {
+            assertEquals(new ThriftFormatter(DocumentParser.parse(content), options.get(i)).format(), outputs.get(i));
+        }
+        assertEquals(outputs.get(0), outputs.get(3));
+    }
+}
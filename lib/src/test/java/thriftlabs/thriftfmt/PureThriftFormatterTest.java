@@ -26,9 +26,10 @@ public class PureThriftFormatterTest {
         assertEquals("include \"shared.thrift\"", content);
     }
 
+    // readResourceFile and findThriftFiles are static so the other test classes use them without inheriting the tests.
     @SuppressWarnings("resource")
-    public String readResourceFile(String fileName) {
-        ClassLoader classLoader = getClass().getClassLoader();
+    public static String readResourceFile(String fileName) {
+        ClassLoader classLoader = PureThriftFormatterTest.class.getClassLoader();
         try (InputStream inputStream = classLoader.getResourceAsStream(fileName)) {
             if (inputStream == null) {
                 throw new IllegalArgumentException("File not found: " + fileName);
@@ -51,7 +52,7 @@ public class PureThriftFormatterTest {
         }
     }
 
-    public List<String> findThriftFiles(String directory) throws IOException {
+    public static List<String> findThriftFiles(String directory) throws IOException {
         Path dirPath = Paths.get(directory);
         return Files.walk(dirPath)
                 .filter(path -> path.toString().endsWith(".thrift"))
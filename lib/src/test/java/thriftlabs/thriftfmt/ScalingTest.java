@@ -0,0 +1,202 @@
+package thriftlabs.thriftfmt;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntFunction;
+
+/*
+ * ScalingTest formats generated documents at doubling sizes and fails when the time grows faster than linear.
+ *
+ * Each axis is measured at N, 2N and 4N, taking the best of a few rounds and retrying a few times. Linear work grows ~4x from N to 4N and
+ * quadratic work ~16x, so the limit of 8x leaves room for noise while still catching quadratic regressions.
+ */
+public class ScalingTest {
+    private static final int ROUNDS = 3;
+    private static final int ATTEMPTS = 3;
+    private static final double MAX_RATIO = 8;
+
+    private static Option defaultOption() {
+        return new Option(4, true, true, true, false, true);
+    }
+
+    private static String genStructs(int count) {
+        var builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append("struct S").append(i).append(" {\n");
+            for (int j = 0; j < 5; j++) {
+                builder.append("    ").append(j + 1).append(": optional string f").append(j).append(" = \"v\"\n");
+            }
+            builder.append("}\n");
+        }
+        return builder.toString();
+    }
+
+    private static String genWideStruct(int fields) {
+        var builder = new StringBuilder("struct Wide {\n");
+        for (int i = 0; i < fields; i++) {
+            builder.append("    ").append(i + 1).append(": list<i32> field").append(i)
+                    .append(" = [").append(i).append("] (a = \"b\"),\n");
+        }
+        return builder.append("}\n").toString();
+    }
+
+    private static String genComments(int fields) {
+        var builder = new StringBuilder("/* head */\nstruct Commented {\n");
+        for (int i = 0; i < fields; i++) {
+            builder.append("    // leading ").append(i).append("\n");
+            builder.append("    /* block */ ").append(i + 1).append(": i32 f").append(i)
+                    .append(" = ").append(i).append(" // tail ").append(i).append("\n");
+        }
+        return builder.append("} // end\n").toString();
+    }
+
+    private static String genNested(int depth) {
+        var builder = new StringBuilder();
+        for (int n = 0; n < 20; n++) {
+            builder.append("const list<i32> L").append(n).append(" = ");
+            builder.append("[".repeat(depth)).append(n).append("]".repeat(depth)).append("\n");
+        }
+        return builder.toString();
+    }
+
+    private static String genConstMap(int entries) {
+        var builder = new StringBuilder("const map<string, i32> M = {");
+        for (int i = 0; i < entries; i++) {
+            builder.append("\"key").append(i).append("\": ").append(i).append(", ");
+        }
+        return builder.append("}\n").toString();
+    }
+
+    private static String genMixed(int count) {
+        var builder = new StringBuilder("namespace java a.b\ninclude \"shared.thrift\"\n");
+        for (int i = 0; i < count; i++) {
+            builder.append("// struct ").append(i).append("\n");
+            builder.append("struct S").append(i).append(" {\n")
+                    .append("    1: i32 a = 1, // tail\n")
+                    .append("    2: optional map<string, list<i32>> bb = {\"k\": [1, 2]}\n")
+                    .append("}\n");
+            builder.append("enum E").append(i).append(" { A = 1; B = 2 }\n");
+            builder.append("service V").append(i).append(" {\n")
+                    .append("    void ping(1: i32 a, 2: string b) throws (1: Error e),\n")
+                    .append("    oneway void fire()\n")
+                    .append("}\n");
+        }
+        return builder.toString();
+    }
+
+    private static long timeFormat(CompactTree tree, Option opt) {
+        // the tree is inflated by the constructor, so only the formatting is measured.
+        var formatter = new ThriftFormatter(tree, opt);
+        long start = System.nanoTime();
+        formatter.format();
+        return System.nanoTime() - start;
+    }
+
+    private static long bestTime(CompactTree tree, Option opt) {
+        // collect the garbage of earlier inputs, so it is not charged to this one.
+        System.gc();
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            best = Math.min(best, timeFormat(tree, opt));
+        }
+        return best;
+    }
+
+    private static CompactTree parse(String content) {
+        var result = DocumentParser.parse(content);
+        assertTrue(result.isSuccess());
+        return CompactTree.of(result);
+    }
+
+    private static void assertLinear(String axis, IntFunction<String> generator, int size, Option opt) {
+        assertLinear(axis, parse(generator.apply(size)), parse(generator.apply(size * 2)),
+                parse(generator.apply(size * 4)), opt);
+    }
+
+    private static void assertLinear(String axis, CompactTree small, CompactTree medium, CompactTree large,
+            Option opt) {
+        String message = null;
+        // the JIT may still be compiling during the first attempts, a real regression fails all of them.
+        for (int attempt = 0; attempt < ATTEMPTS; attempt++) {
+            // warm up on the largest input, so the small one is not measured before the JIT kicks in.
+            bestTime(large, opt);
+
+            long smallTime = Math.max(1, bestTime(small, opt));
+            long mediumTime = bestTime(medium, opt);
+            long largeTime = bestTime(large, opt);
+            double ratio = (double) largeTime / smallTime;
+            if (ratio < MAX_RATIO) {
+                return;
+            }
+            message = String.format("%s: N=%dns 2N=%dns 4N=%dns, 4N/N=%.1f", axis, smallTime, mediumTime,
+                    largeTime, ratio);
+        }
+        fail(message);
+    }
+
+    // runWithStack runs the check in a thread with a large stack, deep documents recurse in the parser.
+    private static void runWithStack(Runnable check) throws Throwable {
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread thread = new Thread(null, () -> {
+            try {
+                check.run();
+            } catch (Throwable e) {
+                error.set(e);
+            }
+        }, "scaling", 512L << 20);
+        thread.start();
+        thread.join();
+        if (error.get() != null) {
+            throw error.get();
+        }
+    }
+
+    @Test
+    public void testManyStructs() {
+        assertLinear("many structs", ScalingTest::genStructs, 500, defaultOption());
+    }
+
+    @Test
+    public void testWideStruct() {
+        assertLinear("wide struct align by field", ScalingTest::genWideStruct, 1000, defaultOption());
+        assertLinear("wide struct align by assign", ScalingTest::genWideStruct, 1000,
+                new Option(4, true, true, true, true, false));
+    }
+
+    @Test
+    public void testDenseComments() {
+        assertLinear("dense comments", ScalingTest::genComments, 1000, defaultOption());
+    }
+
+    @Test
+    public void testDeepNesting() throws Throwable {
+        runWithStack(() -> assertLinear("deep nesting", ScalingTest::genNested, 200, defaultOption()));
+    }
+
+    @Test
+    public void testHugeConstMap() {
+        assertLinear("huge const map", ScalingTest::genConstMap, 5000, defaultOption());
+
+        var opt = defaultOption();
+        opt.setConstEntryThreshold(10);
+        opt.setAlignConstEntries(true);
+        assertLinear("huge const map per line", ScalingTest::genConstMap, 5000, opt);
+    }
+
+    @Test
+    public void testOptionCombinations() {
+        var small = parse(genMixed(100));
+        var medium = parse(genMixed(200));
+        var large = parse(genMixed(400));
+        // the five boolean options and maxLineWidth on and off.
+        for (int mask = 0; mask < 64; mask++) {
+            var opt = new Option(4, (mask & 1) != 0, (mask & 2) != 0, (mask & 4) != 0, (mask & 8) != 0,
+                    (mask & 16) != 0);
+            opt.setMaxLineWidth((mask & 32) != 0 ? 60 : 0);
+            assertLinear("options " + Integer.toBinaryString(mask), small, medium, large, opt);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package thriftlabs.thriftfmt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+public class ShardTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private List<Path> files;
+
+    @Before
+    public void setUp() throws IOException {
+        files = new ArrayList<>();
+        var random = new Random(42);
+        for (int i = 0; i < 40; i++) {
+            Path file = folder.getRoot().toPath().resolve("f" + i + ".thrift");
+            var builder = new StringBuilder();
+            int fields = 1 + random.nextInt(50);
+            builder.append("struct S").append(i).append(" {\n");
+            for (int j = 0; j < fields; j++) {
+                builder.append("    ").append(j + 1).append(": required i32 f").append(j).append(",\n");
+            }
+            builder.append("}\n");
+            // every third file is not formatted.
+            String content = i % 3 == 0 ? builder.toString().replace("required ", "") : builder.toString();
+            Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+            files.add(file);
+        }
+        Collections.sort(files);
+    }
+
+    @Test
+    public void testSelect() throws IOException {
+        var seen = new HashSet<Path>();
+        long[] totals = new long[3];
+        long largest = 0;
+        for (Path file : files) {
+            largest = Math.max(largest, Files.size(file));
+        }
+        for (int i = 1; i <= 3; i++) {
+            List<Path> selected = new Shard(i, 3).select(files);
+            for (Path file : selected) {
+                assertTrue("a file is in one shard only", seen.add(file));
+                totals[i - 1] += Files.size(file);
+            }
+
+            // the split does not depend on the order files are listed in.
+            var shuffled = new ArrayList<>(files);
+            Collections.shuffle(shuffled, new Random(i));
+            assertEquals(new HashSet<>(selected), new HashSet<>(new Shard(i, 3).select(shuffled)));
+        }
+        assertEquals(files.size(), seen.size());
+        long max = Math.max(totals[0], Math.max(totals[1], totals[2]));
+        long min = Math.min(totals[0], Math.min(totals[1], totals[2]));
+        assertTrue("shards are balanced by size", max - min <= largest);
+    }
+
+    @Test
+    public void testParse() {
+        assertEquals("2/5", Shard.parse("2/5").toString());
+        for (String invalid : new String[] { "0/3", "4/3", "3", "a/b", "1/0" }) {
+            try {
+                Shard.parse(invalid);
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            throw new AssertionError(invalid + " should be invalid");
+        }
+    }
+
+    @Test
+    public void testShardsAndMerge() throws IOException {
+        var root = folder.getRoot().toPath().toString();
+        var err = new PrintStream(new ByteArrayOutputStream());
+        List<String> resultFiles = new ArrayList<>();
+        resultFiles.add("merge");
+        for (int i = 1; i <= 3; i++) {
+            String result = folder.getRoot().toPath().resolve("shard" + i + ".txt").toString();
+            resultFiles.add(result);
+            int code = Main.run(new String[] { "--shard", i + "/3", "--result", result, root },
+                    new PrintStream(new ByteArrayOutputStream()), err);
+            assertEquals(Main.EXIT_FAILED, code);
+        }
+
+        var out = new ByteArrayOutputStream();
+        int code = Main.run(resultFiles.toArray(new String[0]), new PrintStream(out), err);
+        assertEquals(Main.EXIT_FAILED, code);
+        var lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(15, lines.length);
+        assertEquals("CHANGED " + files.get(0), lines[0]);
+        assertEquals("40 files, 14 not formatted, 0 errors", lines[14]);
+
+        // a missing shard fails the merge.
+        resultFiles.remove(2);
+        assertEquals(Main.EXIT_FAILED, Main.run(resultFiles.toArray(new String[0]),
+                new PrintStream(new ByteArrayOutputStream()), err));
+    }
+
+    @Test
+    public void testResultFile() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("result.txt");
+        var results = List.of(
+                new FileResult(Path.of("/a\tb.thrift"), FileResult.Status.ERROR, "line 1\nline 2 \\ end"),
+                new FileResult(Path.of("/c.thrift"), FileResult.Status.UNCHANGED, null));
+        new ShardResult(new Shard(2, 2), true, results).write(file);
+
+        var read = ShardResult.read(file);
+        assertEquals("2/2", read.getShard().toString());
+        assertTrue(read.isWrite());
+        assertEquals(results.toString(), read.getResults().toString());
+    }
+}
@@ -29,4 +29,26 @@ public class ThriftFormatterTest extends PureThriftFormatterTest {
         var formatter = new ThriftFormatter(result);
         formatter.format();
     }
+
+    @Test
+    public void testTokensFromSource() {
+        var content = "/* head\n   comment */  \n" +
+                "enum E { A = 1; B = 2 } // tail\t\n" +
+                "struct S { 1: string a = \"x\"; 2: i32 b }";
+        var expect = "/* head\n   comment */\n" +
+                "enum E {\n" +
+                "    A = 1,\n" +
+                "    B = 2,\n" +
+                "} // tail\n" +
+                "\n" +
+                "struct S {\n" +
+                "    1: required string a = \"x\",\n" +
+                "    2: required i32 b,\n" +
+                "}";
+        assertEquals(expect, new ThriftFormatter(Thrift.parse(content)).format());
+
+        // with a supplementary char token offsets are not char offsets, the token text is used.
+        var emoji = content.replace("\"x\"", "\"\uD83D\uDE00\"");
+        assertEquals(expect.replace("\"x\"", "\"\uD83D\uDE00\""), new ThriftFormatter(Thrift.parse(emoji)).format());
+    }
 }
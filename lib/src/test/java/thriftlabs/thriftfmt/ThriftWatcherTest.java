@@ -0,0 +1,114 @@
+package thriftlabs.thriftfmt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class ThriftWatcherTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ThriftWatcher watcher;
+    private Thread thread;
+    private final BlockingQueue<FileResult> results = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws IOException {
+        var formatter = new FileFormatter(new Option());
+        formatter.setWrite(true);
+        watcher = new ThriftWatcher(folder.getRoot().toPath(), formatter);
+        watcher.setDebounce(Duration.ofMillis(100));
+        watcher.setListener(results::add);
+        thread = new Thread(() -> {
+            try {
+                watcher.run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        thread.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        watcher.close();
+        thread.join(10000);
+    }
+
+    private static void write(Path path, String content) throws IOException {
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(Path path) throws IOException {
+        return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+    }
+
+    private FileResult next() throws InterruptedException {
+        return results.poll(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testFormatOnChange() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("a.thrift");
+        // a burst of writes is formatted once, with the last content.
+        for (int i = 0; i < 5; i++) {
+            write(file, "struct A { 1: i32 a" + i + " }");
+        }
+        FileResult result = next();
+        assertNotNull(result);
+        assertEquals(FileResult.Status.CHANGED, result.getStatus());
+        assertEquals("struct A {\n    1: required i32 a4,\n}\n", read(file));
+
+        // the rewrite by the watcher and an unchanged save do not format again.
+        write(file, read(file));
+        assertNull(results.poll(500, TimeUnit.MILLISECONDS));
+
+        write(folder.getRoot().toPath().resolve("b.txt"), "struct B {}");
+        assertNull(results.poll(500, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testMissingRoot() throws IOException {
+        Path missing = folder.getRoot().toPath().resolve("missing");
+        try {
+            new ThriftWatcher(missing, new FileFormatter(new Option())).close();
+            fail("a missing root should fail");
+        } catch (NoSuchFileException e) {
+            assertEquals(missing.toString(), e.getFile());
+        }
+    }
+
+    @Test
+    public void testNewDirectory() throws Exception {
+        Path dir = folder.getRoot().toPath().resolve("sub");
+        Files.createDirectories(dir);
+        Path file = dir.resolve("b.thrift");
+        write(file, "enum E { A = 1; B = 2 }");
+
+        FileResult result = next();
+        assertNotNull(result);
+        assertEquals(file, result.getPath());
+        assertEquals("enum E {\n    A = 1,\n    B = 2,\n}\n", read(file));
+
+        write(file, "struct {");
+        result = next();
+        assertNotNull(result);
+        assertEquals(FileResult.Status.ERROR, result.getStatus());
+    }
+}
@@ -0,0 +1,129 @@
+package thriftlabs.thriftfmt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static thriftlabs.thriftfmt.PureThriftFormatterTest.findThriftFiles;
+import static thriftlabs.thriftfmt.PureThriftFormatterTest.readResourceFile;
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class TokenStreamFormatterTest {
+    private static final String MIXED = "// head\n"
+            + "namespace * foo // ns\n"
+            + "namespace java a.b (x = \"y\", z = \"w\";)\n"
+            + "include \"a.thrift\"\n"
+            + "/* multi\nline */\n"
+            + "const i32 A = 1 ;\n"
+            + "const map<string,list<i32>> M = { \"a\" : [1,2;3] , 'b':[] ; }   // tail\n"
+            + "typedef map cpp_type \"x\" <i32,set<byte>>(q=\"1\") Q,\n"
+            + "enum E { A, B = 1 ; C = 0x2 (d = \"e\") D } (x = \"y\")\n"
+            + "struct S { // after brace\n"
+            + "  1: i32 a = 1; // tail a\n\n"
+            + "  /* before b */\n"
+            + "  2: optional list<string> b (x=\"y\" y = \"z\")\n"
+            + "  required i32 c # hash\n"
+            + "  e e\n"
+            + "} (k = \"v\")\n"
+            + "union U {}\n"
+            + "service A extends B.C {\n"
+            + "  oneway void f(1: i32 a; 2: i32 b, 3: i32 c) throws (1: X e, 2: X f;) (m = \"n\");\n"
+            + "  async void h(i32 a /* c */ ) // t\n"
+            + "}\n"
+            + "/* end */\n";
+
+    private static String formatTree(String content, Option option) {
+        return new ThriftFormatter(DocumentParser.parse(content), option).format();
+    }
+
+    private static Option option(int mask) {
+        return new Option((mask & 8) != 0 ? 2 : 4, (mask & 1) != 0, (mask & 2) != 0, (mask & 4) != 0, false, false);
+    }
+
+    @Test
+    public void testSameAsTree() throws IOException {
+        for (String fileName : findThriftFiles("src/test/resources/thrifts")) {
+            String content = readResourceFile("thrifts/" + fileName);
+            assertNotNull("Fixture file should be found", content);
+            for (int mask = 0; mask < 16; mask++) {
+                String formatted = new TokenStreamFormatter(option(mask)).format(content);
+                assertEquals(fileName + " " + mask, formatTree(content, option(mask)), formatted);
+            }
+        }
+        for (int mask = 0; mask < 16; mask++) {
+            assertEquals("mixed " + mask, formatTree(MIXED, option(mask)),
+                    new TokenStreamFormatter(option(mask)).format(MIXED));
+        }
+    }
+
+    @Test
+    public void testEdges() {
+        String[] contents = {
+                "",
+                "// only\n",
+                "struct A {1: i32 a}",
+                "struct A { 1: i32 a } /* x */ /* y */\n struct B {\n}\n\n\n/* z */ const i32 C = 1 // c\n",
+                "const string s = \"😀\" // 😀 x\nstruct A { 1: string a /* 😀 */\n}\n",
+                "service S { void f(\n// c\n1: i32 a, // t\n2: i32 b\n) throws (\n1: E e) }\n",
+                "struct A {\r\n 1: i32 a // x\r\n 2: i32 b /* y */\r\n}\r\n",
+        };
+        for (String content : contents) {
+            for (int mask = 0; mask < 16; mask++) {
+                assertEquals(content + " " + mask, formatTree(content, option(mask)),
+                        new TokenStreamFormatter(option(mask)).format(content));
+            }
+        }
+    }
+
+    @Test
+    public void testLeftToTree() {
+        TokenStreamFormatter formatter = new TokenStreamFormatter(new Option());
+        assertNull(formatter.format("senum S { \"a\" }"));
+        assertNull(formatter.format("cpp_include \"x\""));
+        assertNull(formatter.format("struct A { 1: i32 a = }"));
+        assertNull(formatter.format("struct A { 1: i32 a }\ninclude \"x\""));
+        assertNull(formatter.format("struct A { 1: i32 a @ }"));
+        assertEquals("struct A {\n    1: required i32 a,\n}", formatter.format("struct A { 1: i32 a }"));
+
+        Option aligned = new Option(4, true, true, true, false, true);
+        assertNull(new TokenStreamFormatter(aligned).format("struct A { 1: i32 a }"));
+        Option wrapped = new Option();
+        wrapped.setMaxLineWidth(80);
+        assertNull(new TokenStreamFormatter(wrapped).format("struct A { 1: i32 a }"));
+    }
+
+    @Test
+    public void testLimits() {
+        TokenStreamFormatter formatter = new TokenStreamFormatter(new Option());
+        formatter.setLimits(new FormatLimits(0, 0, 100));
+        assertNull(formatter.format("struct A { 1: i32 a }"));
+
+        formatter.setLimits(new FormatLimits(0, 5, 0));
+        try {
+            formatter.format("struct A { 1: i32 a }");
+            fail("token count limit should abort");
+        } catch (FormatAbortedException e) {
+            assertEquals(FormatAbortedException.Reason.TOKEN_COUNT, e.getReason());
+        }
+    }
+
+    @Test
+    public void testFileFormatter() throws IOException {
+        FileFormatter tree = new FileFormatter(new Option(), new DfaCache());
+        FileFormatter fast = new FileFormatter(new Option(), new DfaCache());
+        fast.setFast(true);
+        for (String fileName : findThriftFiles("src/test/resources/thrifts")) {
+            String content = readResourceFile("thrifts/" + fileName);
+            assertEquals(fileName, tree.formatContent(content), fast.formatContent(content));
+        }
+        assertEquals(tree.formatContent("senum S { \"a\" }"), fast.formatContent("senum S { \"a\" }"));
+        try {
+            fast.formatContent("struct A {");
+            fail("a document which does not parse should fail");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package thriftlabs.thriftfmt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static thriftlabs.thriftfmt.PureThriftFormatterTest.findThriftFiles;
+import static thriftlabs.thriftfmt.PureThriftFormatterTest.readResourceFile;
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class TokenVerifierTest {
+    private static final Option NO_PATCH = new Option(4, false, false, true, false, false);
+
+    private void assertFails(String input, String output, Option option, String message) {
+        try {
+            TokenVerifier.verify(input, output, option);
+        } catch (FormatVerificationException e) {
+            assertEquals(message, e.getMessage());
+            return;
+        }
+        throw new AssertionError("FormatVerificationException expected");
+    }
+
+    @Test
+    public void testFixtures() throws IOException {
+        for (String fileName : findThriftFiles("src/test/resources/thrifts")) {
+            String content = readResourceFile("thrifts/" + fileName);
+            assertNotNull("Fixture file should be found", content);
+            for (int mask = 0; mask < 32; mask++) {
+                var option = new Option(4, (mask & 1) != 0, (mask & 2) != 0, (mask & 4) != 0, (mask & 8) != 0,
+                        (mask & 16) != 0);
+                var formatter = new ThriftFormatter(DocumentParser.parse(content), option);
+                TokenVerifier.verify(content, formatter.format(), option);
+            }
+        }
+    }
+
+    @Test
+    public void testPatches() {
+        String input = "struct A { 1: i32 a; 2: optional i32 b }\nservice S { void f(1: i32 a,) }";
+        String output = "struct A {\n    1: required i32 a,\n    2: optional i32 b,\n}\n"
+                + "service S {\n    void f(1: i32 a,),\n}";
+        TokenVerifier.verify(input, output, new Option());
+
+        assertFails(input, output, NO_PATCH, "2:7 expected 'i32', found 'required'");
+        assertFails(input, output, new Option(4, true, false, true, false, false),
+                "2:21 expected ';', found ','");
+        assertFails(input, output, new Option(4, false, true, true, false, false),
+                "2:7 expected 'i32', found 'required'");
+        // an existing requiredness is not replaced.
+        assertFails(input, output.replace("optional", "required"), new Option(),
+                "3:7 expected 'optional', found 'required'");
+    }
+
+    @Test
+    public void testDifferences() {
+        String input = "const i32 A = 1 // one\nconst string B = \"b\"";
+        TokenVerifier.verify(input, "const i32 A = 1  /* one */\n\n\nconst string B = \"b\"", NO_PATCH);
+
+        assertFails(input, "const i32 A = 2\nconst string B = \"b\"", NO_PATCH, "1:14 expected '1', found '2'");
+        assertFails(input, "const i32 A = 1\nconst string B = \"c\"", NO_PATCH,
+                "2:17 expected '\"b\"', found '\"c\"'");
+        assertFails(input, "const i32 A = 1\nconst string B", NO_PATCH, "2:14 expected '=', found end of input");
+        assertFails(input, "const i32 A = 1\nconst string B = \"b\" const", NO_PATCH,
+                "2:21 expected end of input, found 'const'");
+        // separators are only removed in parentheses.
+        assertFails("const list<i32> A = [1, 2]", "const list<i32> A = [1 2]", new Option(),
+                "1:23 expected ',', found '2'");
+    }
+
+    @Test
+    public void testMisplacedPatches() {
+        Option option = new Option();
+        // a separator is only inserted where a field ends.
+        assertFails("struct A { 1: i32 a }", "struct A { 1: i32, a, }", option, "1:17 expected 'a', found ','");
+        // required is only inserted in struct fields, before the type.
+        assertFails("service S { void f(1: i32 a) }", "service S { void f(1: required i32 a,), }", option,
+                "1:22 expected 'i32', found 'required'");
+        assertFails("struct A { 1: i32 a }", "struct A { required 1: i32 a, }", option,
+                "1:11 expected '1', found 'required'");
+        assertFails("struct A { 1: list<i32> a }", "struct A { 1: required list<required i32> a, }", option,
+                "1:28 expected 'i32', found 'required'");
+        // a separator is only removed before another annotation or function field.
+        assertFails("struct A { 1: i32 a (x = 'y',) }", "struct A { 1: i32 a (x = 'y'), }", option,
+                "1:28 expected ',', found ')'");
+        assertFails("service S { void f(1: i32 a,) }", "service S { void f(1: i32 a), }", option,
+                "1:27 expected ',', found ')'");
+        assertFails("enum E { A, B }", "enum E { A B, }", option, "1:11 expected ',', found 'B'");
+        // the separators of annotations are not replaced, the first one is removed.
+        assertFails("typedef i32 T (x = 'y'; z = 'w')", "typedef i32 T (x = 'y', z = 'w')", option,
+                "1:22 expected 'z', found ','");
+        TokenVerifier.verify("struct A { 1: i32 a (x = 'y', z = 'w') }",
+                "struct A {\n    1: required i32 a (x = 'y' z = 'w'),\n}", option);
+    }
+
+    @Test
+    public void testLexerErrors() {
+        assertFails("struct A {}", "struct A {} @", NO_PATCH, "1:12 token recognition error at: '@'");
+        assertFails("struct A {} @", "struct A {}", NO_PATCH, "1:12 token recognition error at: '@'");
+    }
+
+    @Test
+    public void testSafeMode() {
+        var formatter = new FileFormatter(new Option());
+        formatter.setSafe(true);
+        assertEquals("struct A {\n    1: required i32 a,\n}\n", formatter.formatContent("struct A { 1: i32 a }"));
+    }
+}
@@ -0,0 +1,96 @@
+package thriftlabs.thriftfmt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static thriftlabs.thriftfmt.PureThriftFormatterTest.findThriftFiles;
+import static thriftlabs.thriftfmt.PureThriftFormatterTest.readResourceFile;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class Utf8SinkTest {
+    private static byte[] toBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static void assertSameOutput(String content, Option opt) throws IOException {
+        var tree = CompactTree.of(DocumentParser.parse(content));
+        byte[] expect = new ThriftFormatter(tree, opt).format().getBytes(StandardCharsets.UTF_8);
+
+        var stream = new ByteArrayOutputStream();
+        new ThriftFormatter(tree, opt).format(stream);
+        assertArrayEquals(expect, stream.toByteArray());
+
+        var buffer = new ThriftFormatter(tree, opt).format(ByteBuffer.allocate(16));
+        assertArrayEquals(expect, toBytes(buffer));
+
+        buffer = new ThriftFormatter(tree, opt).format(ByteBuffer.allocateDirect(expect.length));
+        assertTrue(buffer.isDirect());
+        assertArrayEquals(expect, toBytes(buffer));
+    }
+
+    @Test
+    public void testFixtures() throws IOException {
+        for (String fileName : findThriftFiles("src/test/resources/thrifts")) {
+            String content = readResourceFile("thrifts/" + fileName);
+            assertNotNull("Fixture file should be found", content);
+            assertSameOutput(content, new Option());
+            assertSameOutput(content, new Option(2, false, false, true, true, false));
+        }
+    }
+
+    @Test
+    public void testNonAscii() throws IOException {
+        var content = "// 注释 café\n" +
+                "struct A {\n" +
+                "    1: string a = \"😀 ü\" // 尾注释\n" +
+                "}";
+        assertSameOutput(content, new Option());
+    }
+
+    @Test
+    public void testLargeOutput() throws IOException {
+        var builder = new StringBuilder("const map<string, list<string>> M = {");
+        for (int i = 0; i < 20000; i++) {
+            builder.append("\"键").append(i).append("\": [\"é\", \"x\"], ");
+        }
+        builder.append("}\nstruct A { 1: i32 a }");
+        var content = builder.toString();
+
+        var opt = new Option();
+        assertSameOutput(content, opt);
+
+        opt.setConstEntryThreshold(100);
+        assertSameOutput(content, opt);
+
+        opt = new Option();
+        opt.setMaxLineWidth(80);
+        assertSameOutput(content, opt);
+    }
+
+    @Test
+    public void testStreamError() {
+        var tree = CompactTree.of(DocumentParser.parse("struct A { 1: i32 a }"));
+        OutputStream broken = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("broken");
+            }
+        };
+        try {
+            new ThriftFormatter(tree).format(broken);
+        } catch (IOException e) {
+            assertEquals("broken", e.getMessage());
+            return;
+        }
+        throw new AssertionError("IOException expected");
+    }
+}
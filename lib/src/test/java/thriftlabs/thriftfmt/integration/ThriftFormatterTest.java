@@ -111,6 +111,26 @@ public class ThriftFormatterTest {
         assertEquals(expect, newContent);
     }
 
+    @Test
+    public void testWithAlignWithoutSeparatorThrift() {
+        String origin = "struct A {\n" +
+                "   1: i64 n\n" +
+                "   2: string text = \"hello\"\n" +
+                "   3: boolean flag_value = true\n" +
+                "}";
+        var result = Thrift.parse(origin);
+        assertTrue(result.isSuccess());
+        var opt = new Option(4, false, false, true, true, false);
+        var formatter = new ThriftFormatter(result, opt);
+        var newContent = formatter.format();
+        var expect = "struct A {\n" +
+                "    1: i64 n\n" +
+                "    2: string text        = \"hello\"\n" +
+                "    3: boolean flag_value = true\n" +
+                "}";
+        assertEquals(expect, newContent);
+    }
+
     @Test
     public void testWithAlignFieldThrift() {
         String origin = "struct A {\n" +
@@ -131,6 +151,24 @@ public class ThriftFormatterTest {
         assertEquals(expect, newContent);
     }
 
+    @Test
+    public void testWithAlignFieldWithoutSeparatorThrift() {
+        String origin = "struct A {\n" +
+                "   1: i64 n\n" +
+                "   2: string text = \"hello\"\n" +
+                "}";
+        var result = Thrift.parse(origin);
+        assertTrue(result.isSuccess());
+        var opt = new Option(4, false, false, true, false, true);
+        var formatter = new ThriftFormatter(result, opt);
+        var newContent = formatter.format();
+        var expect = "struct A {\n" +
+                "    1: i64    n\n" +
+                "    2: string text = \"hello\"\n" +
+                "}";
+        assertEquals(expect, newContent);
+    }
+
     @Test
     public void testWithEnumThrift() {
         String origin = "enum Numberz {\n" +
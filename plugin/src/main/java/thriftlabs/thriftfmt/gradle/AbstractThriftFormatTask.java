@@ -0,0 +1,172 @@
+package thriftlabs.thriftfmt.gradle;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.inject.Inject;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileType;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Classpath;
+import org.gradle.api.tasks.IgnoreEmptyDirectories;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.SkipWhenEmpty;
+import org.gradle.work.ChangeType;
+import org.gradle.work.FileChange;
+import org.gradle.work.InputChanges;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutor;
+
+import thriftlabs.thriftfmt.FileResult;
+import thriftlabs.thriftfmt.Shard;
+import thriftlabs.thriftfmt.ShardResult;
+
+/*
+ * AbstractThriftFormatTask formats the changed source files on Gradle workers and keeps a report of all files.
+ *
+ * Only the files changed since the last run are formatted, split by size into one shard per worker. Each shard
+ * runs as a FormatAction in a class loader isolated to the tool classpath. The report is a ShardResult with paths
+ * relative to the base directory, the results of the unchanged files are carried over from the previous report.
+ */
+public abstract class AbstractThriftFormatTask extends DefaultTask {
+    // @SkipWhenEmpty inputs are incremental, getFileChanges gives their changes.
+    @InputFiles
+    @SkipWhenEmpty
+    @IgnoreEmptyDirectories
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public abstract ConfigurableFileCollection getSource();
+
+    @Input
+    public abstract Property<Integer> getIndent();
+
+    @Input
+    public abstract Property<Boolean> getPatchRequired();
+
+    @Input
+    public abstract Property<Boolean> getPatchSeparator();
+
+    @Input
+    public abstract Property<Boolean> getKeepComment();
+
+    @Input
+    public abstract Property<Boolean> getAlignByAssign();
+
+    @Input
+    public abstract Property<Boolean> getAlignByField();
+
+    // the classpath of the formatter the workers load.
+    @Classpath
+    public abstract ConfigurableFileCollection getToolClasspath();
+
+    // the report paths are relative to it.
+    @Internal
+    public abstract DirectoryProperty getBaseDirectory();
+
+    @Internal
+    public abstract Property<Integer> getMaxWorkers();
+
+    @OutputFile
+    public abstract RegularFileProperty getReport();
+
+    @Inject
+    protected abstract WorkerExecutor getWorkerExecutor();
+
+    @Internal
+    protected abstract boolean isWrite();
+
+    // format formats the changed sources and returns the results of all sources, sorted by path.
+    protected List<FileResult> format(InputChanges changes) throws IOException {
+        Path base = getBaseDirectory().get().getAsFile().toPath().toAbsolutePath();
+        Path report = getReport().get().getAsFile().toPath();
+        Map<Path, FileResult> results = new TreeMap<>();
+        if (changes.isIncremental() && Files.exists(report)) {
+            for (FileResult result : ShardResult.read(report).getResults()) {
+                results.put(result.getPath(), result);
+            }
+        }
+
+        List<Path> files = new ArrayList<>();
+        for (FileChange change : changes.getFileChanges(getSource())) {
+            if (change.getFileType() != FileType.FILE) {
+                continue;
+            }
+            Path file = change.getFile().toPath().toAbsolutePath();
+            results.remove(base.relativize(file));
+            if (change.getChangeType() != ChangeType.REMOVED) {
+                files.add(file);
+            }
+        }
+
+        for (FileResult result : runWorkers(files)) {
+            Path relative = base.relativize(result.getPath());
+            results.put(relative, new FileResult(relative, result.getStatus(), result.getMessage()));
+        }
+        List<FileResult> all = new ArrayList<>(results.values());
+        new ShardResult(new Shard(1, 1), isWrite(), all).write(report);
+        return all;
+    }
+
+    private List<FileResult> runWorkers(List<Path> files) throws IOException {
+        if (files.isEmpty()) {
+            return List.of();
+        }
+        int count = Math.max(1, Math.min(getMaxWorkers().get(), files.size()));
+        WorkQueue queue = getWorkerExecutor().classLoaderIsolation(spec -> spec.getClasspath()
+                .from(getToolClasspath()));
+        List<File> resultFiles = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            Shard shard = new Shard(i, count);
+            List<File> batch = new ArrayList<>();
+            for (Path file : shard.select(files)) {
+                batch.add(file.toFile());
+            }
+            File resultFile = new File(getTemporaryDir(), "shard-" + i + ".txt");
+            resultFiles.add(resultFile);
+            queue.submit(FormatAction.class, parameters -> {
+                parameters.getFiles().from(batch);
+                parameters.getShard().set(shard.toString());
+                parameters.getWrite().set(isWrite());
+                parameters.getIndent().set(getIndent());
+                parameters.getPatchRequired().set(getPatchRequired());
+                parameters.getPatchSeparator().set(getPatchSeparator());
+                parameters.getKeepComment().set(getKeepComment());
+                parameters.getAlignByAssign().set(getAlignByAssign());
+                parameters.getAlignByField().set(getAlignByField());
+                parameters.getResultFile().set(resultFile);
+            });
+        }
+        queue.await();
+
+        List<ShardResult> shards = new ArrayList<>();
+        for (File resultFile : resultFiles) {
+            shards.add(ShardResult.read(resultFile.toPath()));
+        }
+        return ShardResult.merge(shards);
+    }
+
+    // describe lists the results which are not UNCHANGED, one per line.
+    protected static String describe(List<FileResult> results) {
+        StringBuilder builder = new StringBuilder();
+        for (FileResult result : results) {
+            if (result.getStatus() != FileResult.Status.UNCHANGED) {
+                builder.append("\n    ").append(result);
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,85 @@
+package thriftlabs.thriftfmt.gradle;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+
+import thriftlabs.thriftfmt.BatchFormatter;
+import thriftlabs.thriftfmt.DfaCache;
+import thriftlabs.thriftfmt.FileFormatter;
+import thriftlabs.thriftfmt.FileResult;
+import thriftlabs.thriftfmt.Option;
+import thriftlabs.thriftfmt.Shard;
+import thriftlabs.thriftfmt.ShardResult;
+
+/*
+ * FormatAction formats one shard of the files of a task in a worker, and writes the results as a ShardResult.
+ *
+ * It runs in an isolated class loader which Gradle keeps between builds of a daemon, so the warmed DfaCache is
+ * shared by all the actions which run in it.
+ */
+public abstract class FormatAction implements WorkAction<FormatAction.Parameters> {
+    public interface Parameters extends WorkParameters {
+        ConfigurableFileCollection getFiles();
+
+        Property<String> getShard();
+
+        Property<Boolean> getWrite();
+
+        Property<Integer> getIndent();
+
+        Property<Boolean> getPatchRequired();
+
+        Property<Boolean> getPatchSeparator();
+
+        Property<Boolean> getKeepComment();
+
+        Property<Boolean> getAlignByAssign();
+
+        Property<Boolean> getAlignByField();
+
+        RegularFileProperty getResultFile();
+    }
+
+    private static final class CacheHolder {
+        static final DfaCache CACHE = warmUp();
+
+        private static DfaCache warmUp() {
+            DfaCache cache = new DfaCache();
+            cache.warmUp();
+            return cache;
+        }
+    }
+
+    @Override
+    public void execute() {
+        Parameters parameters = getParameters();
+        Option option = new Option(parameters.getIndent().get(), parameters.getPatchRequired().get(),
+                parameters.getPatchSeparator().get(), parameters.getKeepComment().get(),
+                parameters.getAlignByAssign().get(), parameters.getAlignByField().get());
+        FileFormatter formatter = new FileFormatter(option, CacheHolder.CACHE);
+        boolean write = parameters.getWrite().get();
+        formatter.setWrite(write);
+
+        List<Path> files = new ArrayList<>();
+        for (File file : parameters.getFiles()) {
+            files.add(file.toPath());
+        }
+        List<FileResult> results = new BatchFormatter(formatter).run(files);
+        try {
+            new ShardResult(Shard.parse(parameters.getShard().get()), write, results)
+                    .write(parameters.getResultFile().get().getAsFile().toPath());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
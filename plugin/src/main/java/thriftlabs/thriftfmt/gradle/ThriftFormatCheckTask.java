@@ -0,0 +1,32 @@
+package thriftlabs.thriftfmt.gradle;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.work.InputChanges;
+
+import thriftlabs.thriftfmt.BatchFormatter;
+import thriftlabs.thriftfmt.FileResult;
+
+/*
+ * ThriftFormatCheckTask fails when a source file is not formatted or can not be formatted, without changing it.
+ */
+@CacheableTask
+public abstract class ThriftFormatCheckTask extends AbstractThriftFormatTask {
+    @Override
+    protected boolean isWrite() {
+        return false;
+    }
+
+    @TaskAction
+    public void run(InputChanges changes) throws IOException {
+        List<FileResult> results = format(changes);
+        if (!BatchFormatter.isSuccess(results, false)) {
+            throw new GradleException("Some thrift files are not formatted, run " + ThriftFormatPlugin.FORMAT_TASK
+                    + ":" + describe(results));
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package thriftlabs.thriftfmt.gradle;
+
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.provider.Property;
+
+/*
+ * ThriftFormatExtension is the thriftFormat block of a build script: the files to format and the Option.
+ */
+public abstract class ThriftFormatExtension {
+    public abstract ConfigurableFileCollection getSource();
+
+    public abstract Property<Integer> getIndent();
+
+    public abstract Property<Boolean> getPatchRequired();
+
+    public abstract Property<Boolean> getPatchSeparator();
+
+    public abstract Property<Boolean> getKeepComment();
+
+    public abstract Property<Boolean> getAlignByAssign();
+
+    public abstract Property<Boolean> getAlignByField();
+}
@@ -0,0 +1,84 @@
+package thriftlabs.thriftfmt.gradle;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.antlr.v4.runtime.Token;
+import org.gradle.api.GradleException;
+import org.gradle.api.Plugin;
+import org.gradle.api.Project;
+import org.gradle.api.tasks.TaskProvider;
+import org.gradle.language.base.plugins.LifecycleBasePlugin;
+
+import thriftlabs.thriftfmt.Option;
+import thriftlabs.thriftfmt.ThriftFormatter;
+import thriftlabs.thriftparser.ThriftParser;
+
+/*
+ * ThriftFormatPlugin adds the thriftFormat extension and the thriftFormat and thriftFormatCheck tasks.
+ *
+ * The sources default to the .thrift files under src, and the options to the ones of Option. thriftFormatCheck
+ * is a dependency of check when the project has one.
+ */
+public class ThriftFormatPlugin implements Plugin<Project> {
+    public static final String EXTENSION = "thriftFormat";
+    public static final String FORMAT_TASK = "thriftFormat";
+    public static final String CHECK_TASK = "thriftFormatCheck";
+
+    @Override
+    public void apply(Project project) {
+        ThriftFormatExtension extension = project.getExtensions().create(EXTENSION, ThriftFormatExtension.class);
+        Option defaults = new Option();
+        extension.getSource().convention(project.fileTree("src", tree -> tree.include("**/*.thrift")));
+        extension.getIndent().convention(defaults.getIndent());
+        extension.getPatchRequired().convention(defaults.isPatchRequired());
+        extension.getPatchSeparator().convention(defaults.isPatchSeparator());
+        extension.getKeepComment().convention(defaults.isKeepComment());
+        extension.getAlignByAssign().convention(defaults.isAlignByAssign());
+        extension.getAlignByField().convention(defaults.isAlignByField());
+
+        project.getTasks().register(FORMAT_TASK, ThriftFormatTask.class, task -> {
+            task.setDescription("Formats the thrift files.");
+            task.setGroup("formatting");
+            configure(project, task, extension);
+        });
+        TaskProvider<ThriftFormatCheckTask> check = project.getTasks().register(CHECK_TASK,
+                ThriftFormatCheckTask.class, task -> {
+                    task.setDescription("Checks that the thrift files are formatted.");
+                    task.setGroup(LifecycleBasePlugin.VERIFICATION_GROUP);
+                    configure(project, task, extension);
+                });
+        project.getPlugins().withType(LifecycleBasePlugin.class, plugin -> project.getTasks()
+                .named(LifecycleBasePlugin.CHECK_TASK_NAME).configure(task -> task.dependsOn(check)));
+    }
+
+    private static void configure(Project project, AbstractThriftFormatTask task, ThriftFormatExtension extension) {
+        task.getSource().from(extension.getSource());
+        task.getIndent().set(extension.getIndent());
+        task.getPatchRequired().set(extension.getPatchRequired());
+        task.getPatchSeparator().set(extension.getPatchSeparator());
+        task.getKeepComment().set(extension.getKeepComment());
+        task.getAlignByAssign().set(extension.getAlignByAssign());
+        task.getAlignByField().set(extension.getAlignByField());
+        task.getToolClasspath().from(toolClasspath());
+        task.getBaseDirectory().set(project.getLayout().getProjectDirectory());
+        task.getMaxWorkers().set(project.getGradle().getStartParameter().getMaxWorkerCount());
+        task.getReport().set(project.getLayout().getBuildDirectory()
+                .file("reports/thriftFormat/" + task.getName() + ".txt"));
+    }
+
+    // toolClasspath is where the formatter and its dependencies are loaded from, the workers load them again.
+    private static List<File> toolClasspath() {
+        List<File> files = new ArrayList<>();
+        for (Class<?> type : new Class<?>[] { ThriftFormatter.class, ThriftParser.class, Token.class }) {
+            try {
+                files.add(new File(type.getProtectionDomain().getCodeSource().getLocation().toURI()));
+            } catch (URISyntaxException e) {
+                throw new GradleException("Can not locate " + type.getName(), e);
+            }
+        }
+        return files;
+    }
+}
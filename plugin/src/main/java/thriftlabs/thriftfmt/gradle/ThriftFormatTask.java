@@ -0,0 +1,34 @@
+package thriftlabs.thriftfmt.gradle;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.work.DisableCachingByDefault;
+import org.gradle.work.InputChanges;
+
+import thriftlabs.thriftfmt.BatchFormatter;
+import thriftlabs.thriftfmt.FileResult;
+
+/*
+ * ThriftFormatTask rewrites the source files which are not formatted. It fails when a file can not be formatted.
+ *
+ * The files it rewrites are its own inputs, so the run after one which rewrote files formats them once more,
+ * finds them formatted and is up to date from then on.
+ */
+@DisableCachingByDefault(because = "Formats the source files in place")
+public abstract class ThriftFormatTask extends AbstractThriftFormatTask {
+    @Override
+    protected boolean isWrite() {
+        return true;
+    }
+
+    @TaskAction
+    public void run(InputChanges changes) throws IOException {
+        List<FileResult> results = format(changes);
+        if (!BatchFormatter.isSuccess(results, true)) {
+            throw new GradleException("Some thrift files could not be formatted:" + describe(results));
+        }
+    }
+}
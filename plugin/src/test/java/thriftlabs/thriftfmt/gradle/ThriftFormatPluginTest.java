@@ -0,0 +1,89 @@
+package thriftlabs.thriftfmt.gradle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.gradle.testkit.runner.BuildResult;
+import org.gradle.testkit.runner.GradleRunner;
+import org.gradle.testkit.runner.TaskOutcome;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class ThriftFormatPluginTest {
+    private static final String FORMATTED = "struct A {\n    1: required i32 a,\n}\n";
+    private static final String UNFORMATTED = "struct A { 1: i32 a }";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path project;
+
+    private void write(String name, String content) throws IOException {
+        Path path = project.resolve(name);
+        Files.createDirectories(path.getParent());
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String read(String name) throws IOException {
+        return new String(Files.readAllBytes(project.resolve(name)), StandardCharsets.UTF_8);
+    }
+
+    private GradleRunner runner(String... args) {
+        return GradleRunner.create().withProjectDir(project.toFile()).withPluginClasspath().withArguments(args);
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        project = folder.getRoot().toPath();
+        write("settings.gradle", "rootProject.name = 'idl'\n");
+        write("build.gradle", "plugins {\n    id 'base'\n    id 'thriftlabs.thriftfmt'\n}\n");
+        write("src/main/thrift/a.thrift", UNFORMATTED);
+        write("src/main/thrift/nested/b.thrift", FORMATTED);
+    }
+
+    @Test
+    public void testCheckAndFormat() throws IOException {
+        BuildResult result = runner("check").buildAndFail();
+        assertEquals(TaskOutcome.FAILED, result.task(":thriftFormatCheck").getOutcome());
+        assertTrue(result.getOutput(), result.getOutput().contains("CHANGED src/main/thrift/a.thrift"));
+        assertFalse(result.getOutput().contains("b.thrift"));
+        assertEquals(UNFORMATTED, read("src/main/thrift/a.thrift"));
+
+        result = runner("thriftFormat").build();
+        assertEquals(TaskOutcome.SUCCESS, result.task(":thriftFormat").getOutcome());
+        assertEquals(FORMATTED, read("src/main/thrift/a.thrift"));
+        assertEquals(FORMATTED, read("src/main/thrift/nested/b.thrift"));
+
+        result = runner("thriftFormatCheck").build();
+        assertEquals(TaskOutcome.SUCCESS, result.task(":thriftFormatCheck").getOutcome());
+        result = runner("thriftFormatCheck").build();
+        assertEquals(TaskOutcome.UP_TO_DATE, result.task(":thriftFormatCheck").getOutcome());
+
+        // only the changed file is checked again, the report keeps the others.
+        write("src/main/thrift/c.thrift", FORMATTED);
+        result = runner("thriftFormatCheck").build();
+        assertEquals(TaskOutcome.SUCCESS, result.task(":thriftFormatCheck").getOutcome());
+        String report = read("build/reports/thriftFormat/thriftFormatCheck.txt");
+        assertTrue(report, report.contains("UNCHANGED\tsrc/main/thrift/a.thrift\t\n"));
+        assertTrue(report, report.contains("UNCHANGED\tsrc/main/thrift/c.thrift\t\n"));
+        assertTrue(report, report.contains("UNCHANGED\tsrc/main/thrift/nested/b.thrift\t\n"));
+    }
+
+    @Test
+    public void testOptions() throws IOException {
+        write("build.gradle", "plugins {\n    id 'thriftlabs.thriftfmt'\n}\n"
+                + "thriftFormat {\n    indent = 2\n    patchRequired = false\n"
+                + "    source.setFrom(fileTree('src/main/thrift/nested'))\n}\n");
+        write("src/main/thrift/nested/b.thrift", UNFORMATTED);
+        runner("thriftFormat").build();
+        assertEquals("struct A {\n  1: i32 a,\n}\n", read("src/main/thrift/nested/b.thrift"));
+        assertEquals(UNFORMATTED, read("src/main/thrift/a.thrift"));
+    }
+}